@@ -0,0 +1,82 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import problem.Instance;
+import problem.Task;
+import solver.CallbackResult;
+import solver.Insertion;
+import solver.Solution;
+
+/**
+ * A single Insertion.scheduleCallback() repair on a freshly constructed
+ * solution. The callback is the same synthetic repair job for every scenario
+ * (mid-morning of the first day) so the figures are comparable; scenarios
+ * without a callbacks section are covered as well.
+ * 
+ * bestRoute -1 commits the callback to the closest engineer; otherwise the
+ * repair runs in best-route mode over that many closest routes, 0 for every
+ * route of the day, with the same latency budget as RunReplications.
+ * 
+ * scheduleCallback() modifies the solution in place, so the solution is
+ * rebuilt before every invocation. Level.Invocation adds timer overhead, which
+ * is negligible next to a repair at these sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CallbackBenchmark {
+
+	private static final int CALLBACK_TIME = 150;
+	private static final int CALLBACK_DURATION = 45;
+	private static final long BEST_ROUTE_BUDGET = 2000000;
+
+	@Param({"scenario1", "scenario2", "scenario3", "scenario5", "scenario6", "synthetic-x2", "synthetic-x4"})
+	public String scenario;
+
+	@Param({"-1", "8", "0"})
+	public int bestRoute;
+
+	private Instance instance;
+	private Insertion insertion;
+	private Task callback;
+	private Solution solution;
+
+	@Setup(Level.Trial)
+	public void setupTrial() throws Exception {
+		instance = new Instance(Scenarios.resolve(scenario));
+		insertion = new Insertion(instance);
+		insertion.setVerbose(false);
+		if(bestRoute >= 0)
+			insertion.setBestRouteEvaluation(true, bestRoute, BEST_ROUTE_BUDGET);
+
+		int callbackID = instance.getIDBound();
+		callback = new Task(callbackID, instance.getLocations() / 2, CALLBACK_DURATION, 2, CALLBACK_TIME);
+	}
+
+	@Setup(Level.Invocation)
+	public void setupInvocation() {
+		solution = insertion.solveByDistance();
+	}
+
+	@Benchmark
+	public CallbackResult scheduleCallback() {
+		return insertion.scheduleCallback(solution, callback, callback.getTimeEvent(), callback.getTimeEvent() / 1440);
+	}
+}
@@ -0,0 +1,72 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import problem.Instance;
+import solver.Insertion;
+import solver.LocalSearch;
+import solver.Preprocessing;
+import solver.Solution;
+
+/**
+ * Preprocessing (computed afresh, bypassing the cache that new Insertion
+ * reads from) and the two construction heuristics, each measured on its own
+ * over a preloaded Instance, and the distance heuristic followed by local
+ * search to a local optimum.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InsertionBenchmark {
+
+	@Param({"scenario1", "scenario2", "scenario3", "scenario5", "scenario6", "synthetic-x2", "synthetic-x4"})
+	public String scenario;
+
+	private Instance instance;
+	private Insertion insertion;
+	private LocalSearch localSearch;
+
+	@Setup
+	public void setup() throws Exception {
+		instance = new Instance(Scenarios.resolve(scenario));
+		insertion = new Insertion(instance);
+		localSearch = new LocalSearch(instance);
+	}
+
+	@Benchmark
+	public Insertion preprocess() {
+		return new Insertion(instance, Preprocessing.compute(instance));
+	}
+
+	@Benchmark
+	public Solution solveByDistance() {
+		return insertion.solveByDistance();
+	}
+
+	@Benchmark
+	public Solution solveByDuration() {
+		return insertion.solveByDuration();
+	}
+
+	@Benchmark
+	public Solution solveAndImprove() {
+		Solution solution = insertion.solveByDistance();
+		localSearch.improve(solution, 60000);
+		return solution;
+	}
+}
@@ -0,0 +1,44 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import problem.Instance;
+
+/**
+ * Cost of building an Instance: cost matrix plus scenario file parsing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InstanceBenchmark {
+
+	@Param({"scenario1", "scenario2", "scenario3", "scenario5", "scenario6", "synthetic-x2", "synthetic-x4"})
+	public String scenario;
+
+	private String instanceFile;
+
+	@Setup
+	public void setup() throws Exception {
+		instanceFile = Scenarios.resolve(scenario);
+	}
+
+	@Benchmark
+	public Instance loadInstance() {
+		return new Instance(instanceFile);
+	}
+}
@@ -0,0 +1,82 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Resolves the scenario files used by the benchmarks. Names of the form
+ * "scenarioN" map to instances/scenarioN.txt; "synthetic-xK" generates a
+ * scenario K times larger than scenario3 (10K engineers, 420K jobs and 200K
+ * callbacks over the same 20 work-days and 251-location cost matrix).
+ * 
+ * Instance reads the cost matrix relative to the working directory, so the
+ * benchmarks must be launched from the repository root.
+ */
+public class Scenarios {
+
+	private static final int LOCATIONS = 251;
+	private static final int DAYS = 20;
+	private static final int SHIFT_HOURS = 8;
+
+	private Scenarios() {
+	}
+
+	public static String resolve(String name) throws IOException {
+		if(name.startsWith("synthetic-x")) {
+			int scale = Integer.parseInt(name.substring("synthetic-x".length()));
+			return writeSynthetic(scale, 42L + scale).getPath();
+		}
+		File file = new File("instances", name + ".txt");
+		if(!file.exists())
+			throw new IOException("Scenario " + file.getPath() + " not found; run the benchmarks from the repository root.");
+		return file.getPath();
+	}
+
+	public static File writeSynthetic(int scale, long seed) throws IOException {
+		Random random = new Random(seed);
+		int resources = 10 * scale;
+		int tasks = 420 * scale;
+		int callbacks = 200 * scale;
+
+		File file = File.createTempFile("fse-synthetic-x" + scale + "-", ".txt");
+		file.deleteOnExit();
+
+		PrintWriter out = new PrintWriter(file, "UTF-8");
+		out.println("# Resources");
+		out.println("# ResourceID\tShiftStartTime\tShiftFinishTime\tAvailability (h)");
+		for(int r = 1; r <= resources; r++)
+			for(int d = 0; d < DAYS; d++)
+				out.println(r + "\t0\t" + SHIFT_HOURS + "\t" + SHIFT_HOURS);
+		out.println();
+
+		out.println("# Tasks");
+		out.println("# TaskID\tLocation\tPriority\tDuration");
+		for(int t = 1; t <= tasks; t++)
+			out.println(t + "\t" + (1 + random.nextInt(LOCATIONS)) + "\t1\t" + sampleDuration(random, 110));
+		out.println();
+
+		int[] times = new int[callbacks];
+		for(int c = 0; c < callbacks; c++)
+			times[c] = random.nextInt(DAYS) * 1440 + random.nextInt(SHIFT_HOURS * 60);
+		Arrays.sort(times);
+
+		out.println("# Callbacks");
+		out.println("# TaskID\tLocation\tTime\tPriority\tDuration");
+		for(int c = 0; c < callbacks; c++)
+			out.println((tasks + c + 1) + "\t" + (1 + random.nextInt(LOCATIONS)) + "\t" + times[c] + "\t2\t" + sampleDuration(random, 40));
+		out.println();
+
+		out.println("# Collaborations");
+		out.close();
+
+		return file;
+	}
+
+	private static int sampleDuration(Random random, double mean) {
+		int duration = (int) Math.round(-mean * Math.log(1.0 - random.nextDouble()));
+		return Math.max(5, Math.min(duration, SHIFT_HOURS * 60));
+	}
+}
@@ -0,0 +1,226 @@
+package problem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Distance and travel time matrices backed by a memory-mapped binary file, so
+ * they live off the heap and the number of locations comes from the file.
+ * 
+ * Binary layout (big-endian): magic, version, number of locations n, number of
+ * overflowing travel times m, then the n*n distance matrix as row-major ints,
+ * the n*n travel time matrix as row-major unsigned shorts, the same travel
+ * times column-major, and m (row-major cell index as a long, travel time as an
+ * int) pairs sorted by cell. A travel time of OVERFLOW or more is stored as
+ * OVERFLOW and looked up in the pairs. The column-major copy makes reading the
+ * times to a location as fast as reading the times from it.
+ * 
+ * Matrices are shared: every Instance that refers to the same file in this JVM
+ * reads from the same mapping, until the file is converted again or its size or
+ * modification time changes. A text matrix (origin, destination, distance,
+ * time per line) is converted once to a .bin file next to it and the binary
+ * copy is reused until the text file changes or was written by an older version.
+ */
+public final class CostMatrix {
+
+	static final int MAGIC = 0x4653454D;	// "FSEM"
+	static final int VERSION = 2;
+	static final int HEADER_BYTES = 16;
+	static final int OVERFLOW = 0xFFFF;
+
+	private static final ConcurrentHashMap<String, CostMatrix> mapped = new ConcurrentHashMap<String, CostMatrix>();
+
+	private final int locations;
+	private final IntBuffer distances;
+	private final CharBuffer times;
+	private final CharBuffer timesByColumn;
+	private final long[] overflowCells;
+	private final int[] overflowTimes;
+	private volatile long contentHash;
+	private final long fileLength;
+	private final long fileModified;
+
+	private CostMatrix(int locations, IntBuffer distances, CharBuffer times, CharBuffer timesByColumn,
+			long[] overflowCells, int[] overflowTimes, long fileLength, long fileModified) {
+		this.locations = locations;
+		this.distances = distances;
+		this.times = times;
+		this.timesByColumn = timesByColumn;
+		this.overflowCells = overflowCells;
+		this.overflowTimes = overflowTimes;
+		this.fileLength = fileLength;
+		this.fileModified = fileModified;
+	}
+
+	/** Returns the shared matrix for a text or binary matrix file, converting a text file on first use. */
+	public static CostMatrix load(String matrixFile) throws IOException {
+		File file = new File(matrixFile);
+		File binaryFile = file.getName().endsWith(".bin") ? file : CostMatrixConverter.binaryFileFor(file);
+		if(binaryFile != file && (!binaryFile.exists() || binaryFile.lastModified() < file.lastModified()
+				|| versionOf(binaryFile) != VERSION))
+			CostMatrixConverter.convert(file, binaryFile);
+
+		String key = binaryFile.getCanonicalPath();
+		CostMatrix matrix = mapped.get(key);
+		if(matrix == null || !matrix.isMappingOf(binaryFile)) {
+			synchronized(mapped) {
+				matrix = mapped.get(key);
+				if(matrix == null || !matrix.isMappingOf(binaryFile)) {
+					matrix = map(binaryFile);
+					mapped.put(key, matrix);
+				}
+			}
+		}
+		return matrix;
+	}
+
+	/** Drops the shared matrix of a binary file, e.g. after the file was replaced. */
+	static void forget(File binaryFile) throws IOException {
+		mapped.remove(binaryFile.getCanonicalPath());
+	}
+
+	// A mapping stays valid for the file it was made from; a replaced file has another size or time
+	private boolean isMappingOf(File binaryFile) {
+		return binaryFile.length() == fileLength && binaryFile.lastModified() == fileModified;
+	}
+
+	private static int versionOf(File binaryFile) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(binaryFile, "r");
+		try {
+			return file.length() < HEADER_BYTES || file.readInt() != MAGIC ? -1 : file.readInt();
+		} finally {
+			file.close();
+		}
+	}
+
+	// Each matrix gets its own mapping, as a single mapping cannot exceed 2 GB
+	private static CostMatrix map(File binaryFile) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(binaryFile, "r");
+		try {
+			long fileModified = binaryFile.lastModified();
+			FileChannel channel = file.getChannel();
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+
+			if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+				throw new IOException(binaryFile + " is not a version " + VERSION + " cost matrix file.");
+			int n = header.getInt(8);
+			int m = header.getInt(12);
+			long cells = (long) n * n;
+			long timesAt = HEADER_BYTES + 4 * cells;
+			long overflowAt = timesAt + 4 * cells;
+			if(channel.size() != overflowAt + 12L * m)
+				throw new IOException(binaryFile + " is truncated: expected " + n + "x" + n + " matrices.");
+
+			IntBuffer distances = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, 4 * cells).asIntBuffer();
+			CharBuffer times = channel.map(FileChannel.MapMode.READ_ONLY, timesAt, 2 * cells).asCharBuffer();
+			CharBuffer timesByColumn = channel.map(FileChannel.MapMode.READ_ONLY, timesAt + 2 * cells, 2 * cells).asCharBuffer();
+
+			long[] overflowCells = new long[m];
+			int[] overflowTimes = new int[m];
+			if(m > 0) {
+				ByteBuffer overflow = channel.map(FileChannel.MapMode.READ_ONLY, overflowAt, 12L * m);
+				for(int k = 0; k < m; k++) {
+					overflowCells[k] = overflow.getLong();
+					overflowTimes[k] = overflow.getInt();
+				}
+			}
+			return new CostMatrix(n, distances, times, timesByColumn, overflowCells, overflowTimes,
+					channel.size(), fileModified);
+		} finally {
+			file.close();
+		}
+	}
+
+	public int getLocations() {
+		return locations;
+	}
+
+	public int getDistance(int i, int j) {
+		return distances.get(i * locations + j);
+	}
+
+	public int getTravTime(int i, int j) {
+		int time = times.get(i * locations + j);
+		return time != OVERFLOW ? time : overflow(i, j);
+	}
+
+	public int[] getRowDistances(int i) {
+		return getRowDistances(i, new int[locations]);
+	}
+
+	/** Fills the array with the distances from location i and returns it. */
+	public int[] getRowDistances(int i, int[] row) {
+		IntBuffer view = distances.duplicate();
+		// Called on Buffer: the IntBuffer override only exists from Java 9
+		((Buffer) view).position(i * locations);
+		view.get(row, 0, locations);
+		return row;
+	}
+
+	public int[] getRowTimes(int i) {
+		return getRowTimes(i, new int[locations]);
+	}
+
+	/** Fills the array with the travel times from location i and returns it. */
+	public int[] getRowTimes(int i, int[] row) {
+		int offset = i * locations;
+		for(int j = 0; j < locations; j++) {
+			int time = times.get(offset + j);
+			row[j] = time != OVERFLOW ? time : overflow(i, j);
+		}
+		return row;
+	}
+
+	public int[] getColTimes(int j) {
+		return getColTimes(j, new int[locations]);
+	}
+
+	/** Fills the array with the travel times to location j and returns it. */
+	public int[] getColTimes(int j, int[] column) {
+		int offset = j * locations;
+		for(int i = 0; i < locations; i++) {
+			int time = timesByColumn.get(offset + i);
+			column[i] = time != OVERFLOW ? time : overflow(i, j);
+		}
+		return column;
+	}
+
+	private int overflow(int i, int j) {
+		return overflowTimes[Arrays.binarySearch(overflowCells, (long) i * locations + j)];
+	}
+
+	/** Hash of the matrix contents, for caches of data derived from the matrix. */
+	public long getContentHash() {
+		long hash = contentHash;
+		if(hash == 0) {
+			hash = ((long) crc(true) << 32) ^ crc(false) ^ locations;
+			if(hash == 0) hash = 1;
+			contentHash = hash;
+		}
+		return hash;
+	}
+
+	// CRC of the values as row-major big-endian ints, whatever their storage
+	private int crc(boolean distances) {
+		CRC32 crc = new CRC32();
+		int[] row = new int[locations];
+		ByteBuffer bytes = ByteBuffer.allocate(4 * locations);
+		for(int i = 0; i < locations; i++) {
+			if(distances) getRowDistances(i, row);
+			else getRowTimes(i, row);
+			((Buffer) bytes).clear();
+			bytes.asIntBuffer().put(row);
+			crc.update(bytes.array(), 0, 4 * locations);
+		}
+		return (int) crc.getValue();
+	}
+}
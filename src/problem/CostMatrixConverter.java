@@ -0,0 +1,187 @@
+package problem;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Converts a tab-separated cost matrix (origin, destination, distance, time;
+ * 1-based locations) into the binary format read by CostMatrix. Rows are
+ * written straight into the mapped output file, so only travel times too large
+ * for 16 bits are held on the heap. Every origin-destination pair up to the
+ * largest location must be given.
+ * 
+ * Usage: java problem.CostMatrixConverter instances/FSE_costmat.txt [instances/FSE_costmat.bin]
+ */
+public class CostMatrixConverter {
+
+	private static final int MISSING = -1;
+
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.err.println("Usage: CostMatrixConverter <matrix.txt> [matrix.bin]");
+			System.exit(1);
+		}
+		File textFile = new File(args[0]);
+		File binaryFile = args.length > 1 ? new File(args[1]) : binaryFileFor(textFile);
+		convert(textFile, binaryFile);
+		System.out.println("Wrote " + binaryFile);
+	}
+
+	public static File binaryFileFor(File textFile) {
+		String name = textFile.getName();
+		int dot = name.lastIndexOf('.');
+		return new File(textFile.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + ".bin");
+	}
+
+	public static void convert(File textFile, File binaryFile) throws IOException {
+		// First pass: the number of locations, so the output can be laid out before any cell is read
+		int locations = 0;
+		BufferedReader in = new BufferedReader(new FileReader(textFile));
+		try {
+			int[] entry = new int[4];
+			String line;
+			while((line = in.readLine()) != null) {
+				if(!parse(line, entry)) continue;
+				if(entry[0] < 1 || entry[1] < 1)
+					throw new IOException("Location " + Math.min(entry[0], entry[1]) + " out of range; locations start at 1.");
+				locations = Math.max(locations, Math.max(entry[0], entry[1]));
+			}
+		} finally {
+			in.close();
+		}
+		long cells = (long) locations * locations;
+		if(4 * cells > Integer.MAX_VALUE)
+			throw new IOException(locations + " locations do not fit in one mapping of the distance matrix.");
+
+		// Write to a file of our own next to the target and rename, so concurrent readers never map
+		// a partial file and concurrent converters never write into each other's
+		File tmpFile = File.createTempFile(binaryFile.getName(), ".tmp", binaryFile.getAbsoluteFile().getParentFile());
+		boolean written = false;
+		RandomAccessFile out = new RandomAccessFile(tmpFile, "rw");
+		try {
+			long timesAt = CostMatrix.HEADER_BYTES + 4 * cells;
+			long overflowAt = timesAt + 4 * cells;
+			out.setLength(overflowAt);
+			FileChannel channel = out.getChannel();
+			MappedByteBuffer distanceBytes = channel.map(FileChannel.MapMode.READ_WRITE, CostMatrix.HEADER_BYTES, 4 * cells);
+			MappedByteBuffer timeBytes = channel.map(FileChannel.MapMode.READ_WRITE, timesAt, 2 * cells);
+			MappedByteBuffer columnBytes = channel.map(FileChannel.MapMode.READ_WRITE, timesAt + 2 * cells, 2 * cells);
+			IntBuffer distances = distanceBytes.asIntBuffer();
+			CharBuffer times = timeBytes.asCharBuffer();
+			CharBuffer timesByColumn = columnBytes.asCharBuffer();
+
+			// Cells the text does not give keep this distance and are rejected below
+			for(int k = 0; k < cells; k++) distances.put(k, MISSING);
+
+			// Second pass: every line goes straight to its cells; only travel times too large
+			// for 16 bits are kept on the heap, in line order so the last one for a cell wins
+			long[] overflowCells = new long[16];
+			int[] overflowTimes = new int[16];
+			int overflowing = 0;
+			in = new BufferedReader(new FileReader(textFile));
+			try {
+				int[] entry = new int[4];
+				String line;
+				while((line = in.readLine()) != null) {
+					if(!parse(line, entry)) continue;
+					if(entry[2] < 0)
+						throw new IOException("Negative distance between " + entry[0] + " and " + entry[1] + ".");
+					if(entry[3] < 0)
+						throw new IOException("Negative travel time between " + entry[0] + " and " + entry[1] + ".");
+					int i = entry[0] - 1;
+					int j = entry[1] - 1;
+					char time = (char) Math.min(entry[3], CostMatrix.OVERFLOW);
+					distances.put(i * locations + j, entry[2]);
+					times.put(i * locations + j, time);
+					timesByColumn.put(j * locations + i, time);
+					if(entry[3] >= CostMatrix.OVERFLOW) {
+						if(overflowing == overflowCells.length) {
+							overflowCells = Arrays.copyOf(overflowCells, 2 * overflowing);
+							overflowTimes = Arrays.copyOf(overflowTimes, 2 * overflowing);
+						}
+						overflowCells[overflowing] = (long) i * locations + j;
+						overflowTimes[overflowing++] = entry[3];
+					}
+				}
+			} finally {
+				in.close();
+			}
+
+			for(int k = 0; k < cells; k++)
+				if(distances.get(k) == MISSING)
+					throw new IOException("No distance and travel time between " + (k / locations + 1) + " and "
+							+ (k % locations + 1) + " in " + textFile + ".");
+
+			// Overflow pairs sorted by cell, keeping the last time given for a cell and only
+			// where the cell still overflows
+			Integer[] order = new Integer[overflowing];
+			for(int k = 0; k < overflowing; k++) order[k] = k;
+			final long[] byCell = overflowCells;
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					int c = Long.compare(byCell[a], byCell[b]);
+					return c != 0 ? c : Integer.compare(a, b);
+				}
+			});
+			ByteArrayOutputStream pairs = new ByteArrayOutputStream();
+			DataOutputStream pairData = new DataOutputStream(pairs);
+			int kept = 0;
+			for(int k = 0; k < overflowing; k++) {
+				long cell = overflowCells[order[k]];
+				if(k + 1 < overflowing && overflowCells[order[k + 1]] == cell) continue;
+				if(times.get((int) cell) != CostMatrix.OVERFLOW) continue;
+				pairData.writeLong(cell);
+				pairData.writeInt(overflowTimes[order[k]]);
+				kept++;
+			}
+
+			distanceBytes.force();
+			timeBytes.force();
+			columnBytes.force();
+			out.seek(0);
+			out.writeInt(CostMatrix.MAGIC);
+			out.writeInt(CostMatrix.VERSION);
+			out.writeInt(locations);
+			out.writeInt(kept);
+			out.seek(overflowAt);
+			out.write(pairs.toByteArray());
+			out.close();
+			if(!tmpFile.renameTo(binaryFile)) {
+				binaryFile.delete();
+				if(!tmpFile.renameTo(binaryFile))
+					throw new IOException("Cannot write " + binaryFile);
+			}
+			CostMatrix.forget(binaryFile);
+			written = true;
+		} finally {
+			out.close();
+			if(!written) tmpFile.delete();
+		}
+	}
+
+	// Reads origin, destination, distance and time into the entry; false for a blank line
+	private static boolean parse(String line, int[] entry) throws IOException {
+		if(line.trim().isEmpty()) return false;
+		int start = 0;
+		for(int field = 0; field < 4; field++) {
+			int end = line.indexOf('\t', start);
+			if(end < 0) end = line.length();
+			if(start > line.length())
+				throw new IOException("Expected origin, destination, distance and time: " + line);
+			entry[field] = Integer.parseInt(line.substring(start, end).trim());
+			start = end + 1;
+		}
+		return true;
+	}
+}
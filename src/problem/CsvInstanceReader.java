@@ -0,0 +1,523 @@
+package problem;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds an Instance from a scenario in the CSV layout of the FSE_Scenario_N
+ * data sets: prefix_Tasks.csv, prefix_Callbacks.csv, prefix_Resources.csv,
+ * prefix_Collaboration.csv, prefix_Incompatibility.csv, prefix_Preference.csv,
+ * prefix_Skills.csv, prefix_Equipment.csv and prefix_Parameters.csv, where
+ * prefix is e.g. instances/FSE_Scenario_4.
+ * Missing files are read as empty.
+ *
+ * Files are streamed: each line is parsed and turned into the model as it is
+ * read, so no file is held in memory. They are read in stages, by what they
+ * refer to, and the files of a stage in parallel, each on its own fork-join
+ * task: Parameters, Skills and Equipment; then Resources, whose shifts give
+ * the working days; then Tasks and Callbacks; then Collaboration,
+ * Incompatibility and Preference, which refer to jobs and engineers.
+ *
+ * IDs come out the same as in the text scenarios: string job IDs ("M1",
+ * "C54") are interned to dense ints from 1, tasks first and then callbacks,
+ * each in file order, and resource IDs from 1 in order of appearance. A
+ * repeated job is skipped. As in the rest
+ * of the model, a timestamp becomes day * 1440 plus the minutes since the
+ * StartTime parameter's time of day (07:00), rounded to the nearest minute,
+ * where day counts the working days, those with a shift in the Resources file.
+ * "NA" and empty fields are missing values.
+ *
+ * Earliest and latest starts of tasks become their time window, as times of
+ * the day. A callback's Due.Time on its day of call gives its latest start:
+ * the due time less its duration.
+ *
+ * Skill and equipment names each get a bit, up to 64 of each; a category name
+ * stands for all the names in it. An engineer has the skills listed in the
+ * Resources file and those of the Skills categories that list them. A task
+ * requires the equipment it lists and, when its Job.Type names a skill or
+ * category, those skills. Equipment is kept at locations in these data sets,
+ * not carried by engineers, so every engineer counts as having all of it.
+ */
+public class CsvInstanceReader {
+
+	// Priorities of the text scenarios: maintenance tasks low, same-day callbacks medium and
+	// PIL (high-priority) callbacks high
+	static final int TASK_PRIORITY = 1;
+	static final int CALLBACK_PRIORITY = 2;
+	static final int URGENT_CALLBACK_PRIORITY = 3;
+
+	private final String prefix;
+
+	// Each is written by the task of one file only, and read once its stage is over
+	private long startTime = -1;
+	private final HashMap<String, Integer> skillBits = new HashMap<String, Integer>();
+	private final HashMap<String, Long> skillCategories = new HashMap<String, Long>();
+	private final HashMap<String, Long> technicianSkills = new HashMap<String, Long>();
+	private final HashMap<String, Integer> equipmentBits = new HashMap<String, Integer>();
+	private final HashMap<String, Long> equipmentCategories = new HashMap<String, Long>();
+
+	private final HashMap<String, Integer> resourceIDs = new HashMap<String, Integer>();
+	// Shifts of each resource as start and finish second and availability in minutes, -1 if not given
+	private final LinkedHashMap<Integer, ArrayList<long[]>> shifts = new LinkedHashMap<Integer, ArrayList<long[]>>();
+	private final HashMap<Integer, Long> resourceSkills = new HashMap<Integer, Long>();
+	private final TreeSet<Long> shiftDays = new TreeSet<Long>();
+	private int startSecondOfDay;
+	private long[] workingDays;
+
+	// Jobs with their string IDs; they get their int IDs once both files are read
+	private final ArrayList<String> taskKeys = new ArrayList<String>();
+	private final ArrayList<Task> tasks = new ArrayList<Task>();
+	private final HashSet<String> repeatedTasks = new HashSet<String>();
+	private final ArrayList<String> callbackKeys = new ArrayList<String>();
+	private final ArrayList<Task> callbacks = new ArrayList<Task>();
+	private final HashMap<String, Integer> jobIDs = new HashMap<String, Integer>();
+	private int duplicates;
+
+	private final ArrayList<int[]> collaborations = new ArrayList<int[]>();
+	private int unknownCollaborations;
+	private final ArrayList<int[]> incompatibilities = new ArrayList<int[]>();
+	private final ArrayList<int[]> preferences = new ArrayList<int[]>();
+
+	private CsvInstanceReader(String prefix) {
+		this.prefix = prefix;
+	}
+
+	public static Instance read(String prefix) throws IOException {
+		return read(prefix, Instance.DEFAULT_COST_MATRIX);
+	}
+
+	public static Instance read(String prefix, String costMatrixFile) throws IOException {
+		return new CsvInstanceReader(prefix).build(costMatrixFile);
+	}
+
+	private Instance build(String costMatrixFile) throws IOException {
+		readInParallel(
+				new FileTask("Parameters", false) {
+					@Override
+					void row(String[] row) {
+						parameter(row);
+					}
+				},
+				new FileTask("Skills") {
+					@Override
+					void row(String[] row) {
+						skill(row);
+					}
+				},
+				new FileTask("Equipment") {
+					@Override
+					void row(String[] row) {
+						equipment(row);
+					}
+				});
+
+		readInParallel(new FileTask("Resources") {
+			@Override
+			void row(String[] row) {
+				shift(row);
+			}
+		});
+		readCalendar();
+		ArrayList<Resource> resources = new ArrayList<Resource>();
+		int mandays = buildResources(resources);
+		int shiftDuration = resources.isEmpty() ? 0 : resources.get(0).getAvailability()[0];
+
+		readInParallel(
+				new FileTask("Tasks") {
+					@Override
+					void row(String[] row) {
+						task(row);
+					}
+				},
+				new FileTask("Callbacks") {
+					@Override
+					void row(String[] row) {
+						callback(row);
+					}
+				});
+		internJobs(taskKeys, tasks);
+		internJobs(callbackKeys, callbacks);
+		if(duplicates > 0)
+			System.out.println("Warning: " + duplicates + " repeated jobs in " + prefix + " were skipped.");
+
+		readInParallel(
+				new FileTask("Collaboration") {
+					@Override
+					void row(String[] row) {
+						collaboration(row);
+					}
+				},
+				new FileTask("Incompatibility") {
+					@Override
+					void row(String[] row) {
+						incompatibility(row);
+					}
+				},
+				new FileTask("Preference") {
+					@Override
+					void row(String[] row) {
+						preference(row);
+					}
+				});
+		if(unknownCollaborations > 0)
+			System.out.println("Warning: " + unknownCollaborations + " collaborations refer to jobs not in " + prefix
+					+ " and were skipped.");
+
+		return new Instance(prefix, costMatrixFile, resources, mandays, shiftDuration, tasks, callbacks, collaborations,
+				incompatibilities, preferences);
+	}
+
+	// Reads the files together, each on its own fork-join task, and throws the first read error
+	private static void readInParallel(final FileTask... files) throws IOException {
+		ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(files);
+			}
+		});
+		for(FileTask file : files)
+			if(file.error != null) throw file.error;
+	}
+
+	// Hands each row of a file to row() as it is read
+	private abstract class FileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+		private final boolean header;
+		private IOException error;
+
+		FileTask(String name) {
+			this(name, true);
+		}
+
+		FileTask(String name, boolean header) {
+			this.name = name;
+			this.header = header;
+		}
+
+		abstract void row(String[] row);
+
+		@Override
+		protected void compute() {
+			File file = new File(prefix + "_" + name + ".csv");
+			if(!file.exists()) return;
+			try {
+				readRows(file, header, this);
+			} catch(IOException e) {
+				error = e;
+			}
+		}
+	}
+
+	private void parameter(String[] row) {
+		if(startTime < 0 && row.length > 1 && row[0].equals("StartTime") && !missing(row, 1))
+			// Written by R as X2012.11.05.07.00.00
+			startTime = epochSecond(row[1].startsWith("X") ? row[1].substring(1) : row[1]);
+	}
+
+	// Category, skills in the category, technicians with these skills
+	private void skill(String[] row) {
+		if(missing(row, 0)) return;
+		long category = missing(row, 1) ? 0 : names(skillBits, skillCategories, row[1], "skills");
+		if(category == 0) category = names(skillBits, skillCategories, row[0], "skills");
+		skillCategories.put(row[0], category);
+		if(missing(row, 2)) return;
+		for(String technician : row[2].split("[,;|]")) {
+			technician = technician.trim();
+			if(technician.isEmpty()) continue;
+			Long known = technicianSkills.get(technician);
+			technicianSkills.put(technician, (known == null ? 0 : known) | category);
+		}
+	}
+
+	// Category, equipment in the category, location, availability start, availability finish
+	private void equipment(String[] row) {
+		if(missing(row, 0)) return;
+		long category = missing(row, 1) ? 0 : names(equipmentBits, equipmentCategories, row[1], "equipment");
+		if(category == 0) category = names(equipmentBits, equipmentCategories, row[0], "equipment");
+		Long known = equipmentCategories.get(row[0]);
+		equipmentCategories.put(row[0], (known == null ? 0 : known) | category);
+	}
+
+	// Resource.ID, start, finish, start location, finish location, skills, region, -, availability (h)
+	// The skills of every row are interned, so that a Job.Type can be matched against them
+	private void shift(String[] row) {
+		long skills = missing(row, 5) ? 0 : names(skillBits, skillCategories, row[5], "skills");
+		if(missing(row, 0) || missing(row, 1)) return;
+		long start = epochSecond(row[1]);
+		shiftDays.add(Math.floorDiv(start + 30, 86400L));
+		if(missing(row, 2)) return;
+		int id = intern(resourceIDs, row[0]);
+		if(!shifts.containsKey(id)) {
+			shifts.put(id, new ArrayList<long[]>());
+			Long listed = technicianSkills.get(row[0]);
+			resourceSkills.put(id, listed == null ? 0 : listed);
+		}
+		resourceSkills.put(id, resourceSkills.get(id) | skills);
+		long availability = missing(row, 8) ? -1 : Math.round(Double.parseDouble(row[8]) * 60);
+		shifts.get(id).add(new long[] {start, epochSecond(row[2]), availability});
+	}
+
+	// Job.ID, Location.ID, Job.Type, earliest start, latest start, duration, equipment, priority
+	private void task(String[] row) {
+		if(missing(row, 0)) return;
+		if(!repeatedTasks.add(row[0])) {
+			duplicates++;
+			return;
+		}
+		int priority = missing(row, 7) ? TASK_PRIORITY : parseInt(row[7]);
+		Task task = new Task(0, parseInt(row[1]) - 1, parseInt(row[5]), priority);
+		if(!missing(row, 3)) task.setEarliestStart(Math.max(timeOfDay(row[3]), 0));
+		if(!missing(row, 4)) task.setLatestStart(timeOfDay(row[4]));
+		if(!missing(row, 2)) task.setRequiredSkills(knownNames(skillBits, skillCategories, row[2]));
+		if(!missing(row, 6)) task.setRequiredEquipment(names(equipmentBits, equipmentCategories, row[6], "equipment"));
+		taskKeys.add(row[0]);
+		tasks.add(task);
+	}
+
+	// Job.ID, Location, Call.in.Time, Due.Time, Task.Duration, Call.back.Type
+	private void callback(String[] row) {
+		if(missing(row, 0)) return;
+		int priority = !missing(row, 5) && row[5].equals("PIL") ? URGENT_CALLBACK_PRIORITY : CALLBACK_PRIORITY;
+		Task callback = new Task(0, parseInt(row[1]) - 1, parseInt(row[4]), priority, minutes(epochSecond(row[2])));
+		// Due on the day of the call, when the callback is scheduled: it must be finished by then
+		if(!missing(row, 3) && Math.floorDiv(epochSecond(row[3]), 86400L) == Math.floorDiv(epochSecond(row[2]), 86400L))
+			callback.setLatestStart(timeOfDay(row[3]) - callback.getDuration());
+		callbackKeys.add(row[0]);
+		callbacks.add(callback);
+	}
+
+	// Gives the jobs their IDs in order, dropping those whose ID was already taken
+	private void internJobs(ArrayList<String> keys, ArrayList<Task> jobs) {
+		int kept = 0;
+		for(int i = 0; i < keys.size(); i++) {
+			if(jobIDs.containsKey(keys.get(i))) {
+				duplicates++;
+				continue;
+			}
+			Task job = jobs.get(i);
+			job.setTaskID(intern(jobIDs, keys.get(i)));
+			jobs.set(kept++, job);
+		}
+		jobs.subList(kept, jobs.size()).clear();
+		keys.clear();
+	}
+
+	// Tech.ID, JobID, duration, Time.Stamp, Supported.job
+	private void collaboration(String[] row) {
+		if(missing(row, 1) || missing(row, 4)) return;
+		Integer job = jobIDs.get(row[1]);
+		Integer supported = jobIDs.get(row[4]);
+		if(job == null || supported == null) unknownCollaborations++;
+		else collaborations.add(new int[] {supported, job});
+	}
+
+	// Job.ID, Field.Technician.ID
+	private void incompatibility(String[] row) {
+		int[] pair = jobAndResource(row);
+		if(pair != null) incompatibilities.add(pair);
+	}
+
+	// Job.ID, Resource.ID, Weight
+	private void preference(String[] row) {
+		int[] pair = jobAndResource(row);
+		if(pair != null)
+			preferences.add(new int[] {pair[0], pair[1], missing(row, 2) ? 1 : (int) Math.round(Double.parseDouble(row[2]))});
+	}
+
+	// Rows of a resource are its shifts, one per day. As in the text scenarios, a new shift group
+	// starts with each resource whose first shift starts at a different time than the previous one.
+	private int buildResources(ArrayList<Resource> resources) {
+		int mandays = 0;
+		int shift = 0;
+		int shiftRefTime = -1;
+		for(Map.Entry<Integer, ArrayList<long[]>> entry : shifts.entrySet()) {
+			ArrayList<long[]> days = entry.getValue();
+			int[] startShift = new int[days.size()];
+			int[] endShift = new int[days.size()];
+			int[] availability = new int[days.size()];
+			for(int d = 0; d < days.size(); d++) {
+				startShift[d] = minutes(days.get(d)[0]);
+				endShift[d] = minutes(days.get(d)[1]);
+				availability[d] = days.get(d)[2] < 0 ? endShift[d] - startShift[d] : (int) days.get(d)[2];
+			}
+			mandays += days.size();
+			if(shift == 0 || startShift[0] != shiftRefTime) {
+				shiftRefTime = startShift[0];
+				shift++;
+			}
+			Resource resource = new Resource(entry.getKey(), startShift, endShift, availability, shift);
+			resource.setSkills(resourceSkills.get(entry.getKey()));
+			resource.setEquipment(-1L);
+			resources.add(resource);
+		}
+		return mandays;
+	}
+
+	private int[] jobAndResource(String[] row) {
+		if(missing(row, 0) || missing(row, 1)) return null;
+		Integer job = jobIDs.get(row[0]);
+		Integer resource = resourceIDs.get(row[1]);
+		if(job == null || resource == null) return null;
+		return new int[] {job, resource};
+	}
+
+	private void readCalendar() {
+		long start = startTime;
+		if(start < 0)
+			start = shiftDays.isEmpty() ? 0 : shiftDays.first() * 86400;
+		startSecondOfDay = (int) Math.floorMod(start, 86400L);
+		if(shiftDays.isEmpty() || shiftDays.first() > Math.floorDiv(start, 86400L)) shiftDays.add(Math.floorDiv(start, 86400L));
+
+		workingDays = new long[shiftDays.size()];
+		int d = 0;
+		for(long day : shiftDays) workingDays[d++] = day;
+	}
+
+	// A time on a day without shifts counts from the start of the next working day
+	private int minutes(long second) {
+		long day = Math.floorDiv(second, 86400L);
+		int index = Arrays.binarySearch(workingDays, day);
+		if(index < 0) {
+			index = -index - 1;
+			if(index == workingDays.length)
+				index += (int) (day - workingDays[workingDays.length - 1] - 1);
+			else
+				return index * 1440;
+		}
+		return index * 1440 + (int) Math.floorDiv(Math.floorMod(second, 86400L) - startSecondOfDay + 30, 60L);
+	}
+
+	// Minutes since the StartTime's time of day, on the timestamp's own day. Time windows are
+	// times of the day, since routes are only given their day once they are built.
+	private int timeOfDay(String timestamp) {
+		return (int) Math.floorDiv(Math.floorMod(epochSecond(timestamp), 86400L) - startSecondOfDay + 30, 60L);
+	}
+
+	// Bits of a list of names and category names, new names getting the next free bit
+	private static long names(HashMap<String, Integer> bits, HashMap<String, Long> categories, String list, String what) {
+		long mask = 0;
+		for(String name : list.split("[,;|]")) {
+			name = name.trim();
+			if(name.isEmpty() || name.equals("NA")) continue;
+			Long category = categories.get(name);
+			if(category != null) {
+				mask |= category;
+				continue;
+			}
+			int bit = intern(bits, name) - 1;
+			if(bit >= 64)
+				throw new IllegalArgumentException("More than 64 different " + what + " in " + list);
+			mask |= 1L << bit;
+		}
+		return mask;
+	}
+
+	// Bits of the names of the list that are already known; others require nothing
+	private static long knownNames(HashMap<String, Integer> bits, HashMap<String, Long> categories, String list) {
+		long mask = 0;
+		for(String name : list.split("[,;|]")) {
+			name = name.trim();
+			Long category = categories.get(name);
+			Integer bit = bits.get(name);
+			if(category != null) mask |= category;
+			else if(bit != null) mask |= 1L << (bit - 1);
+		}
+		return mask;
+	}
+
+	private static int intern(HashMap<String, Integer> ids, String key) {
+		Integer id = ids.get(key);
+		if(id == null) {
+			id = ids.size() + 1;
+			ids.put(key, id);
+		}
+		return id;
+	}
+
+	private static boolean missing(String[] row, int field) {
+		return field >= row.length || row[field].isEmpty() || row[field].equals("NA");
+	}
+
+	private static int parseInt(String value) {
+		return (int) Math.round(Double.parseDouble(value));
+	}
+
+	// Seconds since 1970-01-01 of a yyyy-MM-dd HH:mm:ss timestamp in any separators, read digit by digit
+	static long epochSecond(String timestamp) {
+		int[] fields = new int[6];
+		int field = -1;
+		boolean inNumber = false;
+		for(int i = 0; i < timestamp.length() && field < 6; i++) {
+			char c = timestamp.charAt(i);
+			if(c >= '0' && c <= '9') {
+				if(!inNumber) {
+					if(++field == 6) break;
+					inNumber = true;
+				}
+				fields[field] = 10 * fields[field] + (c - '0');
+			} else {
+				inNumber = false;
+			}
+		}
+		if(field < 2)
+			throw new IllegalArgumentException("Not a timestamp: " + timestamp);
+		return epochDay(fields[0], fields[1], fields[2]) * 86400L + fields[3] * 3600L + fields[4] * 60L + fields[5];
+	}
+
+	// Days since 1970-01-01 in the proleptic Gregorian calendar
+	private static long epochDay(int year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = Math.floorDiv(y, 400L);
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	// Comma-separated fields; quotes are removed and may enclose commas
+	private static void readRows(File file, boolean header, FileTask rows) throws IOException {
+		BufferedReader in = new BufferedReader(new FileReader(file), 1 << 16);
+		try {
+			ArrayList<String> fields = new ArrayList<String>();
+			StringBuilder field = new StringBuilder();
+			String line;
+			if(header) in.readLine();
+			while((line = in.readLine()) != null) {
+				if(line.isEmpty()) continue;
+				fields.clear();
+				field.setLength(0);
+				boolean quoted = false;
+				for(int i = 0; i < line.length(); i++) {
+					char c = line.charAt(i);
+					if(c == '"') {
+						quoted = !quoted;
+					} else if(c == ',' && !quoted) {
+						fields.add(field.toString().trim());
+						field.setLength(0);
+					} else {
+						field.append(c);
+					}
+				}
+				fields.add(field.toString().trim());
+				rows.row(fields.toArray(new String[fields.size()]));
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -4,36 +4,102 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.Scanner;
 
 public class Instance {
+	public static final String DEFAULT_COST_MATRIX = "instances/FSE_costmat.txt";
+	
 	private String instanceName;
+	private String costMatrixFile;
 	
-	private int locations = 251;
+	private int locations;
 	
-	private int[][] distMatrix;
-	private int[][] timeMatrix;
+	private CostMatrix costMatrix;
 	
 	private ArrayList<Resource> resources;
 	private int mandays = 0;
 	private int shiftDuration = 0;
 	
-	private Hashtable<Integer,Task> tasks;
-	private Hashtable<Integer,Task> callbacks;
-	private Hashtable<Integer, Integer> collaborations;
+	private static final byte NONE = 0;
+	private static final byte TASK = 1;
+	private static final byte CALLBACK = 2;
+	
+//	Dense task store indexed by task ID. Maintenance tasks and callbacks share the ID
+//	space, so a route position resolves to its data without knowing its kind. The arrays
+//	are filled once while reading and never modified afterwards.
+	private Task[] taskStore;
+	private byte[] kind;
+	private int[] location;
+	private int[] duration;
+	private int[] priority;
+	private int[] timeEvent;
+	private int[] earliestStart;
+	private int[] latestStart;
+	private int[] collabPartner;
+	private int[] taskIDs;
+	private int[] callbackIDs;
+	
+	private ArrayList<Task> parsedTasks;
+	private ArrayList<Task> parsedCallbacks;
+	private ArrayList<int[]> parsedCollaborations;
+	
+//	(task, resource) pairs that must not be assigned and (task, resource, weight) preferences,
+//	only given by the CSV data sets
+	private ArrayList<int[]> incompatibilities = new ArrayList<int[]>();
+	private ArrayList<int[]> preferences = new ArrayList<int[]>();
+	
+//	Engineers with the same skills and equipment form a class; a task's compatibility has a bit
+//	for each class with an engineer that can do it and a route's for each class that can do all
+//	its tasks, so whether an engineer, task or route go together is a single AND. With more
+//	than 64 classes, classes share bits. The bits are then only a filter, as they are with
+//	incompatible jobs, and isCompatible makes the exact check for one engineer.
+	public static final long ALL_RESOURCES = -1L;
+	private int[] resourceClass;
+	private long[] compatibility;
+	private long[] classSkills;
+	private long[] classEquipment;
+	private boolean exactClasses;
+	private int[][] incompatibleTasks;
 	
 	public Instance(String instanceName) {
+		this(instanceName, DEFAULT_COST_MATRIX);
+	}
+	
+	public Instance(String instanceName, String costMatrixFile) {
 		this.instanceName = instanceName;
-		this.distMatrix = new int[locations][locations];
-		this.timeMatrix = new int[locations][locations];
+		this.costMatrixFile = costMatrixFile;
 		
 		this.resources = new ArrayList<Resource>();
-		this.tasks = new Hashtable<Integer, Task>();
-		this.callbacks = new Hashtable<Integer, Task>();
-		this.collaborations = new Hashtable<Integer, Integer>();
+		this.parsedTasks = new ArrayList<Task>();
+		this.parsedCallbacks = new ArrayList<Task>();
+		this.parsedCollaborations = new ArrayList<int[]>();
 		
 		readInstance();
+		buildTaskStore();
+		buildCompatibility();
+	}
+	
+//	Instance already parsed by CsvInstanceReader
+	Instance(String instanceName, String costMatrixFile, ArrayList<Resource> resources, int mandays, int shiftDuration,
+			ArrayList<Task> tasks, ArrayList<Task> callbacks, ArrayList<int[]> collaborations,
+			ArrayList<int[]> incompatibilities, ArrayList<int[]> preferences) {
+		this.instanceName = instanceName;
+		this.costMatrixFile = costMatrixFile;
+		
+		this.resources = resources;
+		this.mandays = mandays;
+		this.shiftDuration = shiftDuration;
+		this.parsedTasks = tasks;
+		this.parsedCallbacks = callbacks;
+		this.parsedCollaborations = collaborations;
+		this.incompatibilities = incompatibilities;
+		this.preferences = preferences;
+		
+		readCostMatrix();
+		buildTaskStore();
+		buildCompatibility();
 	}
 	
 	
@@ -47,36 +113,45 @@ public class Instance {
 	}
 
 
-	public int[][] getDistMatrix() {
-		return distMatrix;
+	public String getCostMatrixFile() {
+		return costMatrixFile;
 	}
 	
-	public int[] getRowDistMatrix(int i) {
-		return distMatrix[i];
+	public CostMatrix getCostMatrix() {
+		return costMatrix;
 	}
 	
-	public int getDistance(int i, int j) {
-		return distMatrix[i][j];
+	public int[] getRowDistMatrix(int i) {
+		return costMatrix.getRowDistances(i);
 	}
-
 	
-	public int[][] getTimeMatrix() {
-		return timeMatrix;
+	public int getDistance(int i, int j) {
+		return costMatrix.getDistance(i, j);
 	}
 
 	public int[] getRowTimeMatrix(int i) {
-		return timeMatrix[i];
+		return costMatrix.getRowTimes(i);
 	}
 	
 	public int[] getColTimeMatrix(int j) {
-		int[] column = new int[locations];
-		for(int i = 0; i < locations; i++)
-			column[i] = timeMatrix[i][j]; 
-		return column;
+		return costMatrix.getColTimes(j);
+	}
+	
+//	Variants filling a caller's array of getLocations() ints, for scans over many locations
+	public int[] getRowDistMatrix(int i, int[] row) {
+		return costMatrix.getRowDistances(i, row);
+	}
+	
+	public int[] getRowTimeMatrix(int i, int[] row) {
+		return costMatrix.getRowTimes(i, row);
+	}
+	
+	public int[] getColTimeMatrix(int j, int[] column) {
+		return costMatrix.getColTimes(j, column);
 	}
 	
 	public int getTravTime(int i, int j) {
-		return timeMatrix[i][j];
+		return costMatrix.getTravTime(i, j);
 	}
 	
 
@@ -110,34 +185,133 @@ public class Instance {
 	}
 
 
-	public Hashtable<Integer, Task> getTasks() {
-		return tasks;
+	public int getNumberTasks() {
+		return taskIDs.length;
 	}
 	
-	public Task getTask(int i) {
-		return tasks.get(i);
+	public int getNumberCallbacks() {
+		return callbackIDs.length;
 	}
-
-
-	public Hashtable<Integer, Task> getCallbacks() {
-		return callbacks;
+	
+//	Exclusive upper bound of task and callback IDs, for arrays indexed by ID
+	public int getIDBound() {
+		return kind.length;
+	}
+	
+//	ID of the i-th task or callback, 0 <= i < getNumberTasks() or getNumberCallbacks(), in
+//	the order they were read
+	public int getTaskID(int i) {
+		return taskIDs[i];
+	}
+	
+	public int getCallbackID(int i) {
+		return callbackIDs[i];
+	}
+	
+	public boolean isTask(int i) {
+		return i >= 0 && i < kind.length && kind[i] == TASK;
+	}
+	
+	public boolean isCallback(int i) {
+		return i >= 0 && i < kind.length && kind[i] == CALLBACK;
+	}
+	
+	public Task getTask(int i) {
+		return isTask(i) ? taskStore[i] : null;
 	}
 	
 	public Task getCallback(int i) {
-		return callbacks.get(i);
+		return isCallback(i) ? taskStore[i] : null;
 	}
-
-
-	public Hashtable<Integer, Integer> getCollaborations() {
-		return collaborations;
+	
+	public Task getTaskOrCallback(int i) {
+		return (i >= 0 && i < kind.length) ? taskStore[i] : null;
+	}
+	
+	public int getLocation(int i) {
+		return location[i];
+	}
+	
+	public int getDuration(int i) {
+		return duration[i];
+	}
+	
+	public int getPriority(int i) {
+		return priority[i];
+	}
+	
+	public int getTimeEvent(int i) {
+		return timeEvent[i];
+	}
+	
+//	Hard time window on the start of the task, in minutes of the day like route times
+	public int getEarliestStart(int i) {
+		return earliestStart[i];
 	}
 	
-	public int getCollabPair(int i) {
-		return collaborations.get(i);
+	public int getLatestStart(int i) {
+		return latestStart[i];
+	}
+	
+	public boolean hasTimeWindow(int i) {
+		return earliestStart[i] > 0 || latestStart[i] != Task.NO_DEADLINE;
+	}
+	
+//	Partner task of a collaborative job, -1 if the task is not collaborative
+	public int getCollabPartner(int i) {
+		return collabPartner[i];
 	}
 	
 	public boolean isCollaboration(int i) {
-		return collaborations.containsKey(i);
+		return i >= 0 && i < kind.length && collabPartner[i] >= 0;
+	}
+	
+//	Classes of the engineers that can do the task
+	public long getCompatibility(int i) {
+		return compatibility[i];
+	}
+	
+//	Class bit of the engineer at the index in getResources()
+	public long getResourceBit(int resource) {
+		return 1L << (resourceClass[resource] & 63);
+	}
+	
+//	Classes that can do the task, also one outside the instance such as a generated callback,
+//	whose only requirements are its skills and equipment
+	public long getCompatibility(Task task) {
+		int id = task.getTaskID();
+		if(id >= 0 && id < kind.length && taskStore[id] != null) return compatibility[id];
+		long classes = 0;
+		for(int c = 0; c < classSkills.length; c++)
+			if((task.getRequiredSkills() & ~classSkills[c]) == 0 && (task.getRequiredEquipment() & ~classEquipment[c]) == 0)
+				classes |= 1L << (c & 63);
+		return classes;
+	}
+	
+//	Whether the class bits alone tell if an engineer can do a task: at most 64 classes and no
+//	incompatible jobs
+	public boolean hasExactClasses() {
+		return exactClasses;
+	}
+	
+//	Whether the engineer at the index in getResources() can do the task. Tasks outside the
+//	instance, such as generated callbacks, are checked by their class bits only.
+	public boolean isCompatible(int i, int resource) {
+		if(i < 0 || i >= kind.length || taskStore[i] == null) return true;
+		if((compatibility[i] & getResourceBit(resource)) == 0) return false;
+		if(exactClasses) return true;
+		Resource engineer = resources.get(resource);
+		return (taskStore[i].getRequiredSkills() & ~engineer.getSkills()) == 0
+				&& (taskStore[i].getRequiredEquipment() & ~engineer.getEquipment()) == 0
+				&& Arrays.binarySearch(incompatibleTasks[resource], i) < 0;
+	}
+	
+	public ArrayList<int[]> getIncompatibilities() {
+		return incompatibilities;
+	}
+	
+	public ArrayList<int[]> getPreferences() {
+		return preferences;
 	}
 
 
@@ -166,26 +340,8 @@ public class Instance {
 	
 	private void readCostMatrix() {
 		try {
-			FileInputStream file = new FileInputStream("instances/FSE_costmat.txt");
-			Scanner in = new Scanner(file);
-			
-			while(in.hasNextLine()) {
-				String[] line = in.nextLine().split("\t");
-				
-				int i = Integer.valueOf(line[0].trim()).intValue() - 1;
-				int j = Integer.valueOf(line[1].trim()).intValue() - 1;
-				int dist = Integer.valueOf(line[2].trim()).intValue();
-				int time = Integer.valueOf(line[3].trim()).intValue();
-				
-				distMatrix[i][j] = dist;
-				timeMatrix[i][j] = time;
-			}
-			
-			in.close();
-			file.close();
-		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			costMatrix = CostMatrix.load(costMatrixFile);
+			locations = costMatrix.getLocations();
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -267,7 +423,7 @@ public class Instance {
 				int fieldPriority = Integer.valueOf(fields[2]).intValue();
 				int fieldDuration = Integer.valueOf(fields[3]).intValue();
 				
-				tasks.put(fieldID, new Task(fieldID, fieldLocation - 1, fieldDuration, fieldPriority));
+				parsedTasks.add(new Task(fieldID, fieldLocation - 1, fieldDuration, fieldPriority));
 			} else break;
 		}
 	}
@@ -287,7 +443,7 @@ public class Instance {
 				int fieldPriority = Integer.valueOf(fields[3]).intValue();
 				int fieldDuration = Integer.valueOf(fields[4]).intValue();
 				
-				callbacks.put(fieldID, new Task(fieldID, fieldLocation - 1, fieldDuration, fieldPriority, fieldTime));
+				parsedCallbacks.add(new Task(fieldID, fieldLocation - 1, fieldDuration, fieldPriority, fieldTime));
 			} else break;
 		}
 	}
@@ -302,9 +458,125 @@ public class Instance {
 				int task1 = Integer.valueOf(fields[0]).intValue();
 				int task2 = Integer.valueOf(fields[1]).intValue();
 				
-				collaborations.put(task1, task2);
-				collaborations.put(task2,  task1);
+				parsedCollaborations.add(new int[] {task1, task2});
 			} else break;
 		}
 	}
+	
+	private void buildTaskStore() {
+		int bound = 0;
+		for(Task task : parsedTasks) bound = Math.max(bound, task.getTaskID() + 1);
+		for(Task task : parsedCallbacks) bound = Math.max(bound, task.getTaskID() + 1);
+		
+		taskStore = new Task[bound];
+		kind = new byte[bound];
+		location = new int[bound];
+		duration = new int[bound];
+		priority = new int[bound];
+		timeEvent = new int[bound];
+		earliestStart = new int[bound];
+		latestStart = new int[bound];
+		collabPartner = new int[bound];
+		Arrays.fill(location, -1);
+		Arrays.fill(latestStart, Task.NO_DEADLINE);
+		Arrays.fill(collabPartner, -1);
+		
+		taskIDs = new int[parsedTasks.size()];
+		for(int i = 0; i < taskIDs.length; i++) {
+			taskIDs[i] = parsedTasks.get(i).getTaskID();
+			store(parsedTasks.get(i), TASK);
+		}
+		callbackIDs = new int[parsedCallbacks.size()];
+		for(int i = 0; i < callbackIDs.length; i++) {
+			callbackIDs[i] = parsedCallbacks.get(i).getTaskID();
+			store(parsedCallbacks.get(i), CALLBACK);
+		}
+		Arrays.sort(taskIDs);
+		Arrays.sort(callbackIDs);
+		
+		for(int[] pair : parsedCollaborations) {
+			collabPartner[pair[0]] = pair[1];
+			collabPartner[pair[1]] = pair[0];
+		}
+		
+		parsedTasks = null;
+		parsedCallbacks = null;
+		parsedCollaborations = null;
+	}
+	
+	private void buildCompatibility() {
+		Hashtable<Integer, Integer> indexOfResource = new Hashtable<Integer, Integer>();
+		for(int r = 0; r < resources.size(); r++) indexOfResource.put(resources.get(r).getResourceID(), r);
+		ArrayList<ArrayList<Integer>> incompatible = new ArrayList<ArrayList<Integer>>();
+		for(int r = 0; r < resources.size(); r++) incompatible.add(new ArrayList<Integer>());
+		for(int[] pair : incompatibilities) {
+			Integer r = indexOfResource.get(pair[1]);
+			if(r != null && pair[0] >= 0 && pair[0] < kind.length) incompatible.get(r).add(pair[0]);
+		}
+		incompatibleTasks = new int[resources.size()][];
+		boolean anyIncompatible = false;
+		for(int r = 0; r < resources.size(); r++) {
+			int[] tasks = new int[incompatible.get(r).size()];
+			for(int k = 0; k < tasks.length; k++) tasks[k] = incompatible.get(r).get(k);
+			Arrays.sort(tasks);
+			incompatibleTasks[r] = tasks;
+			anyIncompatible |= tasks.length > 0;
+		}
+		
+		resourceClass = new int[resources.size()];
+		ArrayList<Integer> representatives = new ArrayList<Integer>();
+		Hashtable<String, Integer> classes = new Hashtable<String, Integer>();
+		for(int r = 0; r < resources.size(); r++) {
+			Resource resource = resources.get(r);
+			String key = resource.getSkills() + "/" + resource.getEquipment();
+			Integer c = classes.get(key);
+			if(c == null) {
+				c = classes.size();
+				classes.put(key, c);
+				representatives.add(r);
+			}
+			resourceClass[r] = c;
+		}
+		exactClasses = representatives.size() <= 64 && !anyIncompatible;
+		
+		classSkills = new long[representatives.size()];
+		classEquipment = new long[representatives.size()];
+		for(int c = 0; c < representatives.size(); c++) {
+			classSkills[c] = resources.get(representatives.get(c)).getSkills();
+			classEquipment[c] = resources.get(representatives.get(c)).getEquipment();
+		}
+		
+		// A task gets the bit of a class when one of its engineers can do it
+		compatibility = new long[kind.length];
+		for(int r = 0; r < resources.size(); r++) {
+			Resource resource = resources.get(r);
+			long bit = getResourceBit(r);
+			int[] excluded = incompatibleTasks[r];
+			int next = 0;
+			for(int i = 0; i < kind.length; i++) {
+				while(next < excluded.length && excluded[next] < i) next++;
+				if(taskStore[i] == null || (compatibility[i] & bit) != 0) continue;
+				if(next < excluded.length && excluded[next] == i) continue;
+				if((taskStore[i].getRequiredSkills() & ~resource.getSkills()) == 0
+						&& (taskStore[i].getRequiredEquipment() & ~resource.getEquipment()) == 0)
+					compatibility[i] |= bit;
+			}
+		}
+	}
+	
+	// Tasks and callbacks share one ID space, so an ID may be used once only
+	private void store(Task task, byte taskKind) {
+		int id = task.getTaskID();
+		if(taskStore[id] != null)
+			throw new IllegalArgumentException((taskKind == TASK ? "Task " : "Callback ") + id + " has the ID of "
+					+ (kind[id] == TASK ? "task " : "callback ") + id + " already read.");
+		taskStore[id] = task;
+		kind[id] = taskKind;
+		location[id] = task.getLocation();
+		duration[id] = task.getDuration();
+		priority[id] = task.getPriority();
+		timeEvent[id] = task.getTimeEvent();
+		earliestStart[id] = task.getEarliestStart();
+		latestStart[id] = task.getLatestStart();
+	}
 }
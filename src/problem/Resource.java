@@ -10,6 +10,10 @@ public class Resource implements Comparable<Resource>{
 	private int[] availability;
 	private int shift;
 	
+//	Bit sets of skills and equipment, one bit per name
+	private long skills = 0;
+	private long equipment = 0;
+	
 	public Resource(int resourceID, int[] startShift, int[] endShift, int[] availability, int shift) {
 		this.resourceID = resourceID;
 		this.startShift = startShift;
@@ -56,6 +60,22 @@ public class Resource implements Comparable<Resource>{
 		return availability;
 	}
 	
+	public long getSkills() {
+		return skills;
+	}
+	
+	public long getEquipment() {
+		return equipment;
+	}
+	
+	public void setSkills(long skills) {
+		this.skills = skills;
+	}
+	
+	public void setEquipment(long equipment) {
+		this.equipment = equipment;
+	}
+	
 	public int getTotalAvailability() {
 		int sum = 0;
 		for(int i = 0; i < availability.length; i++) sum += availability[i];
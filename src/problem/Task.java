@@ -2,12 +2,23 @@ package problem;
 
 
 public class Task implements Comparable<Task> {
+//	Latest start of a task without a deadline
+	public static final int NO_DEADLINE = Integer.MAX_VALUE;
+	
 	private int taskID;
 	private int location;
 	private int duration;
 	private int priority;
 	private int timeEvent;
 	
+//	Hard time window on the start, in minutes of the day like route times
+	private int earliestStart = 0;
+	private int latestStart = NO_DEADLINE;
+	
+//	Skills and equipment the engineer must have, as bit sets like those of Resource
+	private long requiredSkills = 0;
+	private long requiredEquipment = 0;
+	
 	public Task() {
 		super();
 	}
@@ -46,6 +57,26 @@ public class Task implements Comparable<Task> {
 	public int getTimeEvent() {
 		return timeEvent;
 	}
+	
+	public int getEarliestStart() {
+		return earliestStart;
+	}
+	
+	public int getLatestStart() {
+		return latestStart;
+	}
+	
+	public long getRequiredSkills() {
+		return requiredSkills;
+	}
+	
+	public long getRequiredEquipment() {
+		return requiredEquipment;
+	}
+	
+	public boolean hasTimeWindow() {
+		return earliestStart > 0 || latestStart != NO_DEADLINE;
+	}
 
 	public void setTaskID(int taskID) {
 		this.taskID = taskID;
@@ -66,6 +97,22 @@ public class Task implements Comparable<Task> {
 	public void setTimeEvent(int time) {
 		this.timeEvent = time;
 	}
+	
+	public void setEarliestStart(int earliestStart) {
+		this.earliestStart = earliestStart;
+	}
+	
+	public void setLatestStart(int latestStart) {
+		this.latestStart = latestStart;
+	}
+	
+	public void setRequiredSkills(long requiredSkills) {
+		this.requiredSkills = requiredSkills;
+	}
+	
+	public void setRequiredEquipment(long requiredEquipment) {
+		this.requiredEquipment = requiredEquipment;
+	}
 
 //	Comparison defined this way to obtain decreasing order
 	public int compareTo(Task t) {
@@ -0,0 +1,43 @@
+package run;
+
+import java.io.IOException;
+
+import problem.CsvInstanceReader;
+import problem.Instance;
+import solver.Insertion;
+import solver.LargeNeighbourhoodSearch;
+import solver.Solution;
+
+public class RunReplanning {
+
+	private static String instanceFile = "instances/scenario1.txt";
+	private static long budgetSeconds = 60;
+	private static int workers = Runtime.getRuntime().availableProcessors();
+	private static long seed = 12345;
+
+//	Arguments (all optional): instance file, time budget in seconds, number of worker threads
+//	and seed. The distance heuristic gives the starting solution for the whole horizon. An
+//	instance not ending in .txt is a CSV scenario prefix, e.g. instances/FSE_Scenario_4.
+	public static void main(String[] args) throws IOException {
+		if(args.length > 0) instanceFile = args[0];
+		if(args.length > 1) budgetSeconds = Long.parseLong(args[1]);
+		if(args.length > 2) workers = Integer.parseInt(args[2]);
+		if(args.length > 3) seed = Long.parseLong(args[3]);
+
+		Instance instance = instanceFile.endsWith(".txt") ? new Instance(instanceFile) : CsvInstanceReader.read(instanceFile);
+		Insertion insertion = new Insertion(instance);
+		insertion.setVerbose(false);
+		Solution solution = insertion.solveByDistance();
+		System.out.println("Initial cost:\t" + solution.getTotalCost());
+
+		long start = System.currentTimeMillis();
+		LargeNeighbourhoodSearch search = new LargeNeighbourhoodSearch(instance);
+		search.setWorkers(workers);
+		Solution replanned = search.solve(solution, budgetSeconds * 1000, seed);
+		long end = System.currentTimeMillis();
+
+		replanned.printSolution();
+		System.out.println("CPU: " + (end - start)/1000.0);
+	}
+
+}
@@ -0,0 +1,43 @@
+package run;
+
+import problem.Instance;
+import simulation.Replications;
+import solver.Insertion;
+import solver.Solution;
+
+public class RunReplications {
+	
+	private static String instanceFile = "instances/scenario1.txt";
+	private static int replications = 100;
+	private static long seed = 12345;
+	private static double callbacksPerDay = 0;
+	private static int bestRouteCandidates = -1;
+
+//	Arguments (all optional): instance file, number of replications, seed, the mean number
+//	of generated callbacks per day (callbacks are read from the instance if not given), and
+//	the number of closest routes tried for each callback in best-route mode (0 for every
+//	route of the day; callbacks go to the closest engineer if not given)
+	public static void main(String[] args) {
+		if(args.length > 0) instanceFile = args[0];
+		if(args.length > 1) replications = Integer.parseInt(args[1]);
+		if(args.length > 2) seed = Long.parseLong(args[2]);
+		if(args.length > 3) callbacksPerDay = Double.parseDouble(args[3]);
+		if(args.length > 4) bestRouteCandidates = Integer.parseInt(args[4]);
+
+		Instance instance = new Instance(instanceFile);
+		Insertion insertion = new Insertion(instance);
+		insertion.setVerbose(false);
+		Solution solution = insertion.solveByDistance();
+		
+		long start = System.currentTimeMillis();
+		Replications runner = new Replications(instance, solution, seed);
+		runner.setGeneratedCallbacks(callbacksPerDay);
+		if(bestRouteCandidates >= 0) runner.setBestRouteEvaluation(bestRouteCandidates);
+		runner.run(replications);
+		long end = System.currentTimeMillis();
+		
+		runner.printSummary();
+		System.out.println("CPU: " + (end - start)/1000.0);
+	}
+
+}
@@ -4,19 +4,32 @@ import problem.Instance;
 import problem.Resource;
 import simulation.*;
 import solver.Insertion;
+import solver.LocalSearch;
 import solver.Solution;
 
 public class RunTest {
 	
 	private static String instanceFile = "instances/scenario1.txt";
+	private static int randomStarts = -1;
+	private static long seed = 12345;
+	private static long localSearchMillis = 0;
 
+//	Arguments (all optional): instance file, the number of randomised starts and seed for the
+//	construction portfolio (the distance heuristic alone if not given or negative), and the
+//	time budget in milliseconds for improving the plan by local search before the simulation
 	public static void main(String[] args) {
+		if(args.length > 0) instanceFile = args[0];
+		if(args.length > 1) randomStarts = Integer.parseInt(args[1]);
+		if(args.length > 2) seed = Long.parseLong(args[2]);
+		if(args.length > 3) localSearchMillis = Long.parseLong(args[3]);
 
 		Instance instance = new Instance(instanceFile);
 		Insertion insertion = new Insertion(instance);
 		
 		long start = System.currentTimeMillis();
-		Solution solution = insertion.solveByDistance();
+		Solution solution = randomStarts >= 0 ? insertion.solvePortfolio(randomStarts, seed) : insertion.solveByDistance();
+		if(localSearchMillis > 0)
+			new LocalSearch(instance).improve(solution, localSearchMillis);
 		
 //		solution.printSolution();
 		
@@ -0,0 +1,199 @@
+package simulation;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import problem.Instance;
+import problem.Task;
+
+//	Lazily generated callbacks: arrivals follow a non-homogeneous Poisson process over the
+//	working minutes of each day (sampled by thinning), locations and priorities are drawn from
+//	weights and durations from an exponential or gamma distribution. Nothing is kept once a
+//	callback has been returned, so the stream can be as long as needed.
+public class CallbackGenerator implements Iterator<Task> {
+
+	private Instance instance;
+	private Distributions distributions;
+
+	private double callbacksPerDay;
+	private int days;
+	private int shiftDuration;
+	private int limit;
+
+//	Relative arrival rates by hour of the shift and by day, mean rate given by callbacksPerDay
+	private double[] hourlyProfile;
+	private double[] dailyProfile;
+	private double maxRate;
+
+	private double[] cumLocationWeights;
+	private double[] cumPriorityWeights;
+
+	private double durationAlpha;
+	private double durationBeta;
+	private double durationShift;
+
+	private double clock;
+	private int nextID;
+	private int generated;
+	private Task next;
+	private boolean started;
+
+	public CallbackGenerator(Instance instance, Distributions distributions, double callbacksPerDay) {
+		this.instance = instance;
+		this.distributions = distributions;
+		this.callbacksPerDay = callbacksPerDay;
+		this.days = instance.getResources().get(0).getStartShift().length;
+		this.shiftDuration = instance.getShiftDuration();
+		this.limit = Integer.MAX_VALUE;
+
+		this.hourlyProfile = new double[] {1};
+		this.dailyProfile = new double[] {1};
+		setLocationWeights(null);
+		setPriorityWeights(new double[] {0, 1, 0});
+		setExponentialDurations(45);
+
+		this.clock = 0;
+		this.nextID = instance.getIDBound();
+		this.generated = 0;
+	}
+
+	public void setDays(int days) {
+		checkNotStarted();
+		this.days = days;
+	}
+
+	public void setLimit(int limit) {
+		checkNotStarted();
+		this.limit = limit;
+	}
+
+	public void setHourlyProfile(double[] hourlyProfile) {
+		checkNotStarted();
+		this.hourlyProfile = normalise(hourlyProfile);
+	}
+
+	public void setDailyProfile(double[] dailyProfile) {
+		checkNotStarted();
+		this.dailyProfile = normalise(dailyProfile);
+	}
+
+//	Null gives all locations the same weight
+	public void setLocationWeights(double[] weights) {
+		checkNotStarted();
+		if(weights == null) {
+			weights = new double[instance.getLocations()];
+			Arrays.fill(weights, 1);
+		}
+		this.cumLocationWeights = cumulative(weights);
+	}
+
+//	Weight of priorities 1, 2, 3, ...
+	public void setPriorityWeights(double[] weights) {
+		checkNotStarted();
+		this.cumPriorityWeights = cumulative(weights);
+	}
+
+	public void setExponentialDurations(double mean) {
+		setGammaDurations(1, mean, 0);
+	}
+
+//	Gamma with mean alpha*beta+lambda, see Distributions.sampleGamma
+	public void setGammaDurations(double alpha, double beta, double lambda) {
+		checkNotStarted();
+		this.durationAlpha = alpha;
+		this.durationBeta = beta;
+		this.durationShift = lambda;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if(next == null) next = generate();
+		return next != null;
+	}
+
+	@Override
+	public Task next() {
+		if(!hasNext()) throw new NoSuchElementException();
+		Task callback = next;
+		next = null;
+		return callback;
+	}
+
+//	The clock runs over working minutes only: day d covers [d*shiftDuration, (d+1)*shiftDuration)
+	private Task generate() {
+		if(!started) {
+			started = true;
+			maxRate = callbacksPerDay / shiftDuration * max(hourlyProfile) * max(dailyProfile);
+		}
+		if(generated >= limit || maxRate <= 0) return null;
+
+		double horizon = (double) days * shiftDuration;
+		do {
+			clock += -Math.log(1 - distributions.sampleUniform()) / maxRate;
+			if(clock >= horizon) return null;
+		} while(distributions.sampleUniform() * maxRate > rate(clock));
+
+		int day = (int) (clock / shiftDuration);
+		int minute = (int) (clock - (double) day * shiftDuration);
+		int location = draw(cumLocationWeights);
+		int priority = draw(cumPriorityWeights) + 1;
+		int duration = Math.max((int) Math.round(distributions.sampleGamma(durationAlpha, durationBeta, durationShift)), 1);
+
+		generated++;
+		return new Task(nextID++, location, duration, priority, day * 1440 + minute);
+	}
+
+	private double rate(double time) {
+		int day = (int) (time / shiftDuration);
+		int hour = (int) ((time - (double) day * shiftDuration) / 60);
+		return callbacksPerDay / shiftDuration
+				* hourlyProfile[Math.min(hour, hourlyProfile.length - 1)]
+				* dailyProfile[day % dailyProfile.length];
+	}
+
+	private int draw(double[] cumWeights) {
+		double u = distributions.sampleUniform() * cumWeights[cumWeights.length - 1];
+		int index = Arrays.binarySearch(cumWeights, u);
+		if(index < 0) index = -index - 1;
+		else index++;
+		return Math.min(index, cumWeights.length - 1);
+	}
+
+	private void checkNotStarted() {
+		if(started) throw new IllegalStateException("Generator already started.");
+	}
+
+	private static double[] cumulative(double[] weights) {
+		double[] cum = new double[weights.length];
+		double sum = 0;
+		for(int i = 0; i < weights.length; i++) {
+			if(weights[i] < 0) throw new IllegalArgumentException("Weights must be non-negative.");
+			sum += weights[i];
+			cum[i] = sum;
+		}
+		if(sum <= 0) throw new IllegalArgumentException("At least one weight must be positive.");
+		return cum;
+	}
+
+//	Scales a profile to mean 1
+	private static double[] normalise(double[] profile) {
+		double sum = 0;
+		for(double value : profile) {
+			if(value < 0) throw new IllegalArgumentException("Profile values must be non-negative.");
+			sum += value;
+		}
+		if(sum <= 0) throw new IllegalArgumentException("At least one profile value must be positive.");
+		double[] normalised = new double[profile.length];
+		for(int i = 0; i < profile.length; i++)
+			normalised[i] = profile[i] * profile.length / sum;
+		return normalised;
+	}
+
+	private static double max(double[] values) {
+		double max = 0;
+		for(double value : values)
+			if(value > max) max = value;
+		return max;
+	}
+}
@@ -1,17 +1,31 @@
 package simulation;
 
-import java.util.Random;
+import java.util.SplittableRandom;
 
+//	Not thread-safe: each thread or replication should work on its own stream obtained with split()
 public class Distributions {
 
-	private Random random;
+	private SplittableRandom random;
+	
+//	Second normal deviate of the last polar pair, used by the next call
+	private double nextNormal;
+	private boolean hasNextNormal;
 	
 	public Distributions() {
-		this.random = new Random();
+		this.random = new SplittableRandom();
 	}
 	
 	public Distributions(long seed) {
-		this.random = new Random(seed);
+		this.random = new SplittableRandom(seed);
+	}
+	
+	private Distributions(SplittableRandom random) {
+		this.random = random;
+	}
+	
+//	Independent child stream; splitting in the same order from the same seed gives the same streams
+	public Distributions split() {
+		return new Distributions(random.split());
 	}
 	
 	public double sampleUniform() {
@@ -22,12 +36,26 @@ public class Distributions {
 		return (upper - lower) * random.nextDouble() + lower;
 	}
 	
+//	Marsaglia polar method
 	public double sampleNormal() {
-		return random.nextGaussian();
+		if(hasNextNormal) {
+			hasNextNormal = false;
+			return nextNormal;
+		}
+		double v1, v2, s;
+		do {
+			v1 = 2 * random.nextDouble() - 1;
+			v2 = 2 * random.nextDouble() - 1;
+			s = v1 * v1 + v2 * v2;
+		} while(s >= 1 || s == 0);
+		double multiplier = Math.sqrt(-2 * Math.log(s) / s);
+		nextNormal = v2 * multiplier;
+		hasNextNormal = true;
+		return v1 * multiplier;
 	}
 	
 	public double sampleNormal(double mean, double stdev) {
-		return mean - random.nextGaussian() * stdev;
+		return mean - sampleNormal() * stdev;
 	}
 	
 //	Very naive truncated normal distribution	
@@ -35,7 +63,7 @@ public class Distributions {
 		double genNumber;
 		
 		do {
-			genNumber = mean - random.nextGaussian() * variance;
+			genNumber = mean - sampleNormal() * variance;
 		} while(genNumber < lb || genNumber > ub);
 		
 		return genNumber;
@@ -51,39 +79,14 @@ public class Distributions {
 	
 	/** Return a random double drawn from a Gamma distribution with mean alpha*beta+lamba and variance alpha*beta^2. */
 	  public double sampleGamma(double alpha,double beta,double lambda) {
-	    double gamma=0;
 	    if (alpha <= 0 || beta <= 0) {
 	      throw new IllegalArgumentException ("alpha and beta must be strictly positive.");
 	    }
-	    if (alpha < 1) {
-	      double b,p;
-	      boolean flag=false;
-	      b=1+alpha*Math.exp(-1);
-	      while(!flag) {
-	        p=b*sampleUniform();
-	        if (p>1) {
-	          gamma=-Math.log((b-p)/alpha);
-	          if (sampleUniform()<=Math.pow(gamma,alpha-1)) flag=true;
-	        }
-	        else {
-	          gamma=Math.pow(p,1/alpha);
-	          if (sampleUniform()<=Math.exp(-gamma)) flag=true;
-	        }
-	      }
-	    }
-	    else if (alpha == 1) {
-	      gamma = -Math.log (sampleUniform ());
-	    } else {
-	      double y = -Math.log (sampleUniform ());
-	      while (sampleUniform () > Math.pow (y * Math.exp (1 - y), alpha - 1))
-	        y = -Math.log (sampleUniform ());
-	      gamma = alpha * y;
-	    }
-	    return beta*gamma+lambda;
+	    return beta*standardGamma(alpha, 1+alpha*Math.exp(-1), 1/alpha)+lambda;
 	  }
 	  
 	  /** Return a random double drawn from a Beta distribution with mean a/(a+b) and variance ab/((a+b+1)(a+b)^2).  */
-	  public synchronized double sampleBeta(double alpha,double beta) {
+	  public double sampleBeta(double alpha,double beta) {
 	    if (alpha <= 0 || beta <= 0) {
 	      throw new IllegalArgumentException ("alpha and beta must be strictly positive.");
 	    }
@@ -92,34 +95,131 @@ public class Distributions {
 	    } else if (alpha >= 1 && beta >= 1) {
 	      double A = alpha - 1,
 	              B = beta - 1,
-	              C = A + B,
-	              L = C * Math.log (C),
-	              mu = A / C,
-	              sigma = 0.5 / Math.sqrt (C);
-	      double y = sampleNormal(), x = sigma * y + mu;
-	      while (x < 0 || x > 1) {
-	        y = sampleNormal();
-	        x = sigma * y + mu;
-	      }
-	      double u = sampleUniform();
-	      while (Math.log (u) >= A * Math.log (x / A) + B * Math.log ((1 - x) / B) + L + 0.5 * y * y) {
-	        y = sampleNormal();
-	        x = sigma * y + mu;
-	        while (x < 0 || x > 1) {
-	          y = sampleNormal();
-	          x = sigma * y + mu;
-	        }
-	        u = sampleUniform();
-	      }
-	      return x;
+	              C = A + B;
+	      return betaByNormal(A, B, C * Math.log (C), A / C, 0.5 / Math.sqrt (C));
 	    } else {
-	      double v1 = Math.pow (sampleUniform(), 1 / alpha),
-	              v2 = Math.pow (sampleUniform(), 1 / beta);
-	      while (v1 + v2 > 1) {
-	        v1 = Math.pow (sampleUniform(), 1 / alpha);
-	        v2 = Math.pow (sampleUniform(), 1 / beta);
-	      }
-	      return v1 / (v1 + v2);
+	      return betaByPowers(1 / alpha, 1 / beta);
 	    }
 	  }
+	  
+//	Gamma with shape alpha and scale 1; b = 1+alpha/e and inverseAlpha = 1/alpha are only used when alpha < 1
+	private double standardGamma(double alpha, double b, double inverseAlpha) {
+		double gamma = 0;
+		if(alpha < 1) {
+			boolean flag = false;
+			while(!flag) {
+				double p = b * sampleUniform();
+				if(p > 1) {
+					gamma = -Math.log((b - p) / alpha);
+					if(sampleUniform() <= Math.pow(gamma, alpha - 1)) flag = true;
+				} else {
+					gamma = Math.pow(p, inverseAlpha);
+					if(sampleUniform() <= Math.exp(-gamma)) flag = true;
+				}
+			}
+		} else if(alpha == 1) {
+			gamma = -Math.log(sampleUniform());
+		} else {
+			double y = -Math.log(sampleUniform());
+			while(sampleUniform() > Math.pow(y * Math.exp(1 - y), alpha - 1))
+				y = -Math.log(sampleUniform());
+			gamma = alpha * y;
+		}
+		return gamma;
+	}
+	
+//	Beta for alpha, beta >= 1 by a normal proposal, with A = alpha-1, B = beta-1, L = C log C,
+//	mu = A/C and sigma = 0.5/sqrt(C) for C = A+B
+	private double betaByNormal(double A, double B, double L, double mu, double sigma) {
+		double y = sampleNormal(), x = sigma * y + mu;
+		while(x < 0 || x > 1) {
+			y = sampleNormal();
+			x = sigma * y + mu;
+		}
+		double u = sampleUniform();
+		while(Math.log(u) >= A * Math.log(x / A) + B * Math.log((1 - x) / B) + L + 0.5 * y * y) {
+			y = sampleNormal();
+			x = sigma * y + mu;
+			while(x < 0 || x > 1) {
+				y = sampleNormal();
+				x = sigma * y + mu;
+			}
+			u = sampleUniform();
+		}
+		return x;
+	}
+	
+//	Beta for other shapes by Johnk's method, with the inverses of alpha and beta
+	private double betaByPowers(double inverseAlpha, double inverseBeta) {
+		double v1 = Math.pow(sampleUniform(), inverseAlpha),
+				v2 = Math.pow(sampleUniform(), inverseBeta);
+		while(v1 + v2 > 1) {
+			v1 = Math.pow(sampleUniform(), inverseAlpha);
+			v2 = Math.pow(sampleUniform(), inverseBeta);
+		}
+		return v1 / (v1 + v2);
+	}
+	  
+//	Bulk sampling: fill the whole array, computing the distribution constants once
+	public void fillUniform(double[] samples) {
+		for(int i = 0; i < samples.length; i++)
+			samples[i] = random.nextDouble();
+	}
+	
+	public void fillTruncatedNormal(double[] samples, double mean, double variance, double lb, double ub) {
+		for(int i = 0; i < samples.length; i++)
+			samples[i] = sampleTruncatedNormal(mean, variance, lb, ub);
+	}
+	
+	public void fillTruncatedNormal(int[] samples, double mean, double variance, double lb, double ub) {
+		for(int i = 0; i < samples.length; i++)
+			samples[i] = (int) Math.round(sampleTruncatedNormal(mean, variance, lb, ub));
+	}
+	
+	public void fillLogNormal(double[] samples, double mean, double stdev) {
+		double ess = Math.log(1.0 + (stdev * stdev / (mean * mean)));
+		double mu = Math.log(mean) - (0.5 * ess * ess);
+		for(int i = 0; i < samples.length; i++)
+			samples[i] = Math.exp(mu + (ess * sampleNormal()));
+	}
+	
+	public void fillLogNormal(int[] samples, double mean, double stdev) {
+		double ess = Math.log(1.0 + (stdev * stdev / (mean * mean)));
+		double mu = Math.log(mean) - (0.5 * ess * ess);
+		for(int i = 0; i < samples.length; i++)
+			samples[i] = (int) Math.round(Math.exp(mu + (ess * sampleNormal())));
+	}
+	
+	public void fillGamma(double[] samples, double alpha, double beta, double lambda) {
+		if(alpha <= 0 || beta <= 0)
+			throw new IllegalArgumentException("alpha and beta must be strictly positive.");
+		double b = 1 + alpha * Math.exp(-1), inverseAlpha = 1 / alpha;
+		for(int i = 0; i < samples.length; i++)
+			samples[i] = beta * standardGamma(alpha, b, inverseAlpha) + lambda;
+	}
+	
+	public void fillGamma(int[] samples, double alpha, double beta, double lambda) {
+		if(alpha <= 0 || beta <= 0)
+			throw new IllegalArgumentException("alpha and beta must be strictly positive.");
+		double b = 1 + alpha * Math.exp(-1), inverseAlpha = 1 / alpha;
+		for(int i = 0; i < samples.length; i++)
+			samples[i] = (int) Math.round(beta * standardGamma(alpha, b, inverseAlpha) + lambda);
+	}
+	
+	public void fillBeta(double[] samples, double alpha, double beta) {
+		if(alpha <= 0 || beta <= 0)
+			throw new IllegalArgumentException("alpha and beta must be strictly positive.");
+		if(alpha == 1 && beta == 1) {
+			fillUniform(samples);
+		} else if(alpha >= 1 && beta >= 1) {
+			double A = alpha - 1, B = beta - 1, C = A + B;
+			double L = C * Math.log(C), mu = A / C, sigma = 0.5 / Math.sqrt(C);
+			for(int i = 0; i < samples.length; i++)
+				samples[i] = betaByNormal(A, B, L, mu, sigma);
+		} else {
+			double inverseAlpha = 1 / alpha, inverseBeta = 1 / beta;
+			for(int i = 0; i < samples.length; i++)
+				samples[i] = betaByPowers(inverseAlpha, inverseBeta);
+		}
+	}
 }
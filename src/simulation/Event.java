@@ -0,0 +1,30 @@
+package simulation;
+
+import problem.Task;
+
+//	Simulation event. Instances are pooled by the EventQueue and reused once handled, so
+//	handlers must not keep references to them.
+class Event {
+
+//	Types in the order they are handled when they share the same time
+	static final int SHIFT_START = 0;
+	static final int TASK_COMPLETION = 1;
+	static final int CALLBACK_ARRIVAL = 2;
+	static final int SHIFT_END = 3;
+	
+	int type;
+	int time;
+	int day;
+	int route;
+	int position;
+	Task callback;
+	
+	void reset() {
+		type = 0;
+		time = 0;
+		day = 0;
+		route = -1;
+		position = -1;
+		callback = null;
+	}
+}
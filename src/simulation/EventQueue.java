@@ -0,0 +1,128 @@
+package simulation;
+
+import java.util.Arrays;
+
+//	Binary min-heap of events keyed by a primitive long: time, then event type, then insertion
+//	order, so events at the same time are handled by type and otherwise first in, first out.
+//	Handled events go back to a free list and are reused by obtain.
+//	Key layout: time in the top 30 bits (so times must be below 2^29 minutes, about a thousand
+//	years, keeping keys positive), type in the next 2 and the insertion sequence in the low 32.
+//	Each run has its own queue; should one run push 2^32 events, the queued events are
+//	renumbered in order and the sequence starts again after them.
+class EventQueue {
+
+	static final int MAX_TIME = (1 << 29) - 1;
+	static final int MAX_TYPE = 3;
+	private static final long SEQUENCE_LIMIT = 1L << 32;
+
+	private long[] keys;
+	private Event[] events;
+	private int size;
+	private long sequence;
+	
+	private Event[] pool;
+	private int pooled;
+	
+	private static final int INITIAL_CAPACITY = 64;
+	
+	EventQueue() {
+		this.keys = new long[INITIAL_CAPACITY];
+		this.events = new Event[INITIAL_CAPACITY];
+		this.size = 0;
+		this.sequence = 0;
+		this.pool = new Event[INITIAL_CAPACITY];
+		this.pooled = 0;
+	}
+	
+//	Queue whose insertion sequence starts at the given number, to reach the renumbering in tests
+	EventQueue(long sequence) {
+		this();
+		this.sequence = sequence;
+	}
+	
+	Event obtain(int type, int time) {
+		Event event = pooled > 0 ? pool[--pooled] : new Event();
+		event.reset();
+		event.type = type;
+		event.time = time;
+		return event;
+	}
+	
+	void release(Event event) {
+		event.callback = null;
+		if(pooled == pool.length) pool = Arrays.copyOf(pool, 2 * pool.length);
+		pool[pooled++] = event;
+	}
+	
+	void push(Event event) {
+		if(event.time < 0 || event.time > MAX_TIME)
+			throw new IllegalArgumentException("Event time " + event.time + " is outside [0, " + MAX_TIME + "].");
+		if(event.type < 0 || event.type > MAX_TYPE)
+			throw new IllegalArgumentException("Unknown event type " + event.type + ".");
+		if(sequence == SEQUENCE_LIMIT) renumber();
+		if(size == keys.length) {
+			keys = Arrays.copyOf(keys, 2 * size);
+			events = Arrays.copyOf(events, 2 * size);
+		}
+		long key = ((long) event.time << 34) | ((long) event.type << 32) | sequence++;
+		
+		int i = size++;
+		while(i > 0) {
+			int parent = (i - 1) >>> 1;
+			if(keys[parent] <= key) break;
+			keys[i] = keys[parent];
+			events[i] = events[parent];
+			i = parent;
+		}
+		keys[i] = key;
+		events[i] = event;
+	}
+	
+	// Gives the queued events sequence numbers 0 to size-1 in key order. Keys keep their order,
+	// so the heap stays valid as it is.
+	private void renumber() {
+		long[] sorted = Arrays.copyOf(keys, size);
+		Arrays.sort(sorted);
+		for(int i = 0; i < size; i++)
+			keys[i] = (keys[i] & ~0xFFFFFFFFL) | Arrays.binarySearch(sorted, keys[i]);
+		sequence = size;
+	}
+	
+	Event peek() {
+		return size == 0 ? null : events[0];
+	}
+	
+	Event poll() {
+		if(size == 0) return null;
+		Event first = events[0];
+		
+		size--;
+		long key = keys[size];
+		Event event = events[size];
+		events[size] = null;
+		
+		int i = 0;
+		int half = size >>> 1;
+		while(i < half) {
+			int child = 2 * i + 1;
+			if(child + 1 < size && keys[child + 1] < keys[child]) child++;
+			if(key <= keys[child]) break;
+			keys[i] = keys[child];
+			events[i] = events[child];
+			i = child;
+		}
+		if(size > 0) {
+			keys[i] = key;
+			events[i] = event;
+		}
+		return first;
+	}
+	
+	boolean isEmpty() {
+		return size == 0;
+	}
+	
+	int size() {
+		return size;
+	}
+}
@@ -0,0 +1,146 @@
+package simulation;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import problem.Instance;
+import solver.Insertion;
+import solver.Solution;
+
+public class Replications {
+
+	private Instance instance;
+	private Solution solution;
+	private long seed;
+	private double durationVariation;
+	
+//	When positive, callbacks are generated at this mean rate instead of read from the instance
+	private double callbacksPerDay;
+	
+//	Shared by all replications: callback state is kept with each solution
+	private Insertion insertion;
+	
+	private Distributions[] streams;
+	private int[] totalCost;
+	private int[] workingTime;
+	private int[] numberRoutes;
+	private int[] displacedTasks;
+	private int[] extraRoutes;
+	
+	private static final double DEFAULT_DURATION_VARIATION = 0.25;
+	
+	public Replications(Instance instance, Solution solution, long seed) {
+		this(instance, solution, seed, DEFAULT_DURATION_VARIATION);
+	}
+	
+	public Replications(Instance instance, Solution solution, long seed, double durationVariation) {
+		this.instance = instance;
+		this.solution = solution;
+		this.seed = seed;
+		this.durationVariation = durationVariation;
+		this.insertion = new Insertion(instance);
+		this.insertion.setVerbose(false);
+	}
+	
+	public void setGeneratedCallbacks(double callbacksPerDay) {
+		this.callbacksPerDay = callbacksPerDay;
+	}
+	
+//	Callbacks go to the best of the given number of closest routes (0 for every route of the day)
+//	instead of to the closest engineer. Every candidate is evaluated, with no time budget, since
+//	candidates skipped by a budget would make the results depend on timing.
+	public void setBestRouteEvaluation(int candidates) {
+		insertion.setBestRouteEvaluation(true, candidates, Long.MAX_VALUE / 4);
+	}
+	
+//	Each replication simulates the callbacks on its own copy of the solution. Random streams are
+//	split up front so the results do not depend on how replications are spread over the threads.
+	public void run(int replications) {
+		Distributions root = new Distributions(seed);
+		this.streams = new Distributions[replications];
+		for(int r = 0; r < replications; r++)
+			streams[r] = root.split();
+		
+		this.totalCost = new int[replications];
+		this.workingTime = new int[replications];
+		this.numberRoutes = new int[replications];
+		this.displacedTasks = new int[replications];
+		this.extraRoutes = new int[replications];
+		
+		ForkJoinPool.commonPool().invoke(new ReplicationTask(0, replications));
+	}
+	
+	private void runReplication(int r) {
+		Simulation simulation = new Simulation(instance, new Solution(solution), insertion,
+				streams[r], durationVariation);
+		simulation.setVerbose(false);
+		if(callbacksPerDay > 0)
+			simulation.run(new CallbackGenerator(instance, streams[r].split(), callbacksPerDay));
+		else
+			simulation.run();
+		
+		totalCost[r] = simulation.getSolution().getTotalCost();
+		workingTime[r] = simulation.getSolution().getWorkingTime();
+		numberRoutes[r] = simulation.getSolution().getNumberRoutes();
+		displacedTasks[r] = simulation.getDisplacedTasks();
+		extraRoutes[r] = simulation.getExtraRoutes();
+		streams[r] = null;
+	}
+	
+	private class ReplicationTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private int from;
+		private int to;
+		
+		ReplicationTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if(to - from == 1) {
+				runReplication(from);
+			} else if(to > from) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new ReplicationTask(from, mid), new ReplicationTask(mid, to));
+			}
+		}
+	}
+	
+	public int[] getTotalCost() {
+		return totalCost;
+	}
+	
+	public int[] getWorkingTime() {
+		return workingTime;
+	}
+	
+	public int[] getNumberRoutes() {
+		return numberRoutes;
+	}
+	
+	public int[] getDisplacedTasks() {
+		return displacedTasks;
+	}
+	
+	public int[] getExtraRoutes() {
+		return extraRoutes;
+	}
+	
+	public void printSummary() {
+		System.out.println("Replications:\t" + totalCost.length);
+		System.out.println("\tMean\tStdDev\tMin\tMax");
+		printRow("Total Cost", totalCost);
+		printRow("Working Time", workingTime);
+		printRow("Routes", numberRoutes);
+		printRow("Displaced", displacedTasks);
+		printRow("Extra Routes", extraRoutes);
+	}
+	
+	private void printRow(String name, int[] data) {
+		System.out.println(name + ":\t" + String.format("%.2f\t%.2f\t%.0f\t%.0f", 
+				Statistics.getMean(data), Statistics.getStdDev(data), Statistics.getMin(data), Statistics.getMax(data)));
+	}
+}
@@ -1,10 +1,12 @@
 package simulation;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Iterator;
 
 import problem.Instance;
 import problem.Task;
+import solver.CallbackResult;
 import solver.Insertion;
 import solver.Route;
 import solver.Solution;
@@ -14,99 +16,273 @@ public class Simulation {
 	private Instance instance;
 	private Solution solution;
 	private Insertion insertion;
+	
+//	When set, callback durations are sampled around their nominal value instead of taken as is
+	private Distributions distributions;
+	private double durationVariation;
+	
+	private int displacedTasks;
+	private int extraRoutes;
+	
+//	Event engine state: next position to complete on each route and whether a completion
+//	event is pending for it
+	private int[] nextToComplete;
+	private boolean[] completionPending;
+	private long processedEvents;
+	private int completedTasks;
+	private int overtime;
+	
+	private boolean verbose = true;
 
 	public Simulation(Instance instance, Solution solution) {
+		this(instance, solution, new Insertion(instance));
+	}
+	
+	public Simulation(Instance instance, Solution solution, Insertion insertion) {
 		this.instance = instance;
 		this.solution = solution;
-		this.insertion = new Insertion(instance);
+		this.insertion = insertion;
+	}
+	
+	public Simulation(Instance instance, Solution solution, Insertion insertion, Distributions distributions, double durationVariation) {
+		this(instance, solution, insertion);
+		this.distributions = distributions;
+		this.durationVariation = durationVariation;
+	}
+
+	public Solution getSolution() {
+		return solution;
+	}
+	
+	public int getDisplacedTasks() {
+		return displacedTasks;
+	}
+	
+	public int getExtraRoutes() {
+		return extraRoutes;
+	}
+	
+	public long getProcessedEvents() {
+		return processedEvents;
+	}
+	
+	public int getCompletedTasks() {
+		return completedTasks;
+	}
+	
+//	Minutes worked past the end of the shift, summed over routes and days, taken once each
+//	day is over
+	public int getOvertime() {
+		return overtime;
+	}
+	
+	public boolean isVerbose() {
+		return verbose;
+	}
+	
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
 	}
 
+//	Callbacks from the instance, handled in order of arrival time
 	public void run() {
-		ArrayList<Integer> callbackKeys = new ArrayList<Integer>(Collections.list(instance.getCallbacks().keys()));
-		Collections.sort(callbackKeys);
+		EventQueue queue = new EventQueue();
+		for (int c = 0; c < instance.getNumberCallbacks(); c++) {
+			int i = instance.getCallbackID(c);
+			Event event = queue.obtain(Event.CALLBACK_ARRIVAL, instance.getTimeEvent(i));
+			event.callback = instance.getCallback(i);
+			queue.push(event);
+		}
+		simulate(queue, null);
+	}
+	
+//	Callbacks from a stream in arrival order, e.g. a CallbackGenerator. Only the next arrival
+//	is queued at any time, so the stream is never materialised.
+	public void run(Iterator<Task> callbacks) {
+		EventQueue queue = new EventQueue();
+		pushNextCallback(queue, callbacks);
+		simulate(queue, callbacks);
+	}
+	
+//	Discrete-event loop. Day d runs from d*1440, route times being relative to the start of
+//	the day, with shift boundaries and task completions queued alongside callback arrivals.
+	private void simulate(EventQueue queue, Iterator<Task> callbacks) {
+		int numberRoutes = solution.size();
+		nextToComplete = new int[numberRoutes];
+		completionPending = new boolean[numberRoutes];
+		
+		for (int day = 0; day < solution.getRoutesByDay().size(); day++) {
+			Event start = queue.obtain(Event.SHIFT_START, day * 1440);
+			start.day = day;
+			queue.push(start);
+			// At the last minute of the day rather than the end of the shift: callbacks arriving
+			// after the shift still extend the day's routes, and are handled before this event
+			Event end = queue.obtain(Event.SHIFT_END, day * 1440 + 1439);
+			end.day = day;
+			queue.push(end);
+		}
+		
+		while (!queue.isEmpty()) {
+			Event event = queue.poll();
+			processedEvents++;
+			switch (event.type) {
+			case Event.SHIFT_START:
+				startShift(queue, event.day);
+				break;
+			case Event.TASK_COMPLETION:
+				completeTask(queue, event);
+				break;
+			case Event.CALLBACK_ARRIVAL:
+				if (callbacks != null) pushNextCallback(queue, callbacks);
+				Task callback = callbacks == null ? sampleCallback(event.callback) : event.callback;
+				int selectedRoute = handleCallback(callback);
+				resumeCompletions(queue, selectedRoute, callback.getTimeEvent() / 1440, event.time);
+				break;
+			case Event.SHIFT_END:
+				endShift(event.day);
+				break;
+			}
+			queue.release(event);
+		}
+	}
+	
+	private void pushNextCallback(EventQueue queue, Iterator<Task> callbacks) {
+		if (!callbacks.hasNext()) return;
+		Task callback = callbacks.next();
+		Event event = queue.obtain(Event.CALLBACK_ARRIVAL, callback.getTimeEvent());
+		event.callback = callback;
+		queue.push(event);
+	}
+	
+	private void startShift(EventQueue queue, int day) {
+		ArrayList<Integer> routes = solution.getRoutesByDay(day);
+		if (routes == null) return;
+		for (int r : routes)
+			resumeCompletions(queue, r, day, day * 1440);
+	}
+	
+	private void endShift(int day) {
+		ArrayList<Integer> routes = solution.getRoutesByDay(day);
+		if (routes == null) return;
+		for (int r : routes)
+			overtime += Math.max(solution.getRoute(r).getTotalTime() - solution.getRoute(r).getCapacityTime(), 0);
+	}
+	
+//	Queues the completion of the next position of the route if none is pending, e.g. when a
+//	callback is appended to a route whose tasks had all been completed
+	private void resumeCompletions(EventQueue queue, int r, int day, int now) {
+		if (r < 0 || r >= solution.size()) return;
+		if (r >= nextToComplete.length) {
+			nextToComplete = Arrays.copyOf(nextToComplete, solution.size());
+			completionPending = Arrays.copyOf(completionPending, solution.size());
+		}
+		if (completionPending[r]) return;
+		Route route = solution.getRoute(r);
+		int position = nextToComplete[r];
+		if (position >= route.size()) return;
+		
+		Event event = queue.obtain(Event.TASK_COMPLETION, Math.max(now, day * 1440 + route.getEndTime(position)));
+		event.day = day;
+		event.route = r;
+		event.position = position;
+		queue.push(event);
+		completionPending[r] = true;
+	}
+	
+//	Routes may have been repaired since the event was queued: if the position now ends later
+//	the event is queued again, otherwise the position is completed and the next one queued
+	private void completeTask(EventQueue queue, Event event) {
+		int r = event.route;
+		Route route = solution.getRoute(r);
+		completionPending[r] = false;
+		if (event.position >= route.size()) return;
+		
+		int due = event.day * 1440 + route.getEndTime(event.position);
+		if (due <= event.time) {
+			completedTasks++;
+			nextToComplete[r] = event.position + 1;
+		}
+		resumeCompletions(queue, r, event.day, event.time);
+	}
 
-		for (Integer i : callbackKeys) {
-			Task callback = instance.getCallback(i);
-			int timeEvent = callback.getTimeEvent();
-			int dayEvent = (int)(timeEvent / 1440);
-			System.out.println(callback.getTaskID() + " - Day: " + dayEvent);
+//	Returns the route the callback went into
+	private int handleCallback(Task callback) {
+		int timeEvent = callback.getTimeEvent();
+		int dayEvent = timeEvent / 1440;
+		if(verbose) System.out.println(callback.getTaskID() + " - Day: " + dayEvent);
 
-			ArrayList<Integer> tasksToSchedule = insertion.scheduleCallback(solution, callback, timeEvent, dayEvent);
-			int selectedRoute = insertion.getLastSelectedRoute();
+		CallbackResult result = insertion.scheduleCallback(solution, callback, timeEvent, dayEvent);
+		ArrayList<Integer> tasksToSchedule = result.getDisplacedTasks();
+		int selectedRoute = result.getSelectedRoute();
 
-			// Handle displaced tasks that couldn't fit in the same route
-			if(!tasksToSchedule.isEmpty()) {
-				System.out.println("Handling " + tasksToSchedule.size() + " displaced tasks...");
+		// Handle displaced tasks that couldn't fit in the same route
+		if(!tasksToSchedule.isEmpty()) {
+			displacedTasks += tasksToSchedule.size();
+			if(verbose) System.out.println("Handling " + tasksToSchedule.size() + " displaced tasks...");
 
-				// Find which resource owns the selected route
-				int resource = 0;
-				while(resource < solution.getResourceDayRoute().length &&
-					  solution.getResourceDayRoute()[resource][dayEvent] != selectedRoute) {
-					resource++;
-				}
+			// Resource that owns the selected route
+			int resource = solution.getDayOf(selectedRoute) == dayEvent ? solution.getResourceOf(selectedRoute) : -1;
 
-				if(resource < solution.getResourceDayRoute().length) {
-					// Try to fit displaced tasks in subsequent days for the same resource
-					int day = dayEvent + 1;
-					while(!tasksToSchedule.isEmpty() && day < solution.getResourceDayRoute()[resource].length) {
-						int checkedRoute = solution.getResourceDayRoute()[resource][day];
-						if(checkedRoute >= 0 && checkedRoute < solution.getRoutes().size()) {
-							Route routeToExtend = solution.getRoutes().get(checkedRoute);
-							// Iterate backwards to avoid index issues when removing
-							for(int j = tasksToSchedule.size() - 1; j >= 0; j--) {
-								int taskId = tasksToSchedule.get(j);
-								Task task = instance.getTask(taskId);
-								if(task != null) {
-									int lastTaskIndex = routeToExtend.getRouteTasks().get(routeToExtend.getRouteTasks().size() - 1);
-									Task lastTask = getTaskOrCallback(lastTaskIndex);
-									if(lastTask != null) {
-										int travTime = instance.getTravTime(lastTask.getLocation(), task.getLocation());
-										if(travTime + task.getDuration() <= routeToExtend.getAvailableTime()) {
-											int distance = instance.getDistance(lastTask.getLocation(), task.getLocation());
-											routeToExtend.addTask(taskId, distance, travTime, 0, task.getDuration());
-											tasksToSchedule.remove(j);
-											System.out.println("  Task " + taskId + " rescheduled to day " + day);
-										}
-									}
+			if(resource >= 0) {
+				// Try to fit displaced tasks in subsequent days for the same resource
+				int day = dayEvent + 1;
+				while(!tasksToSchedule.isEmpty() && day < solution.getResourceDayRoute()[resource].length) {
+					int checkedRoute = solution.getResourceDayRoute()[resource][day];
+					if(checkedRoute >= 0 && checkedRoute < solution.getRoutes().size()) {
+						Route routeToExtend = solution.getRoutes().get(checkedRoute);
+						// Iterate backwards to avoid index issues when removing
+						for(int j = tasksToSchedule.size() - 1; j >= 0; j--) {
+							int taskId = tasksToSchedule.get(j);
+							if(instance.isTask(taskId)) {
+								int lastLocation = routeToExtend.getLastLocation();
+								if(routeToExtend.canInsert(instance, routeToExtend.size(), taskId)) {
+									int travTime = instance.getTravTime(lastLocation, instance.getLocation(taskId));
+									int distance = instance.getDistance(lastLocation, instance.getLocation(taskId));
+									routeToExtend.addTask(instance, taskId, distance, travTime, instance.getDuration(taskId));
+									tasksToSchedule.remove(j);
+									if(verbose) System.out.println("  Task " + taskId + " rescheduled to day " + day);
 								}
 							}
 						}
-						day++;
 					}
+					day++;
 				}
+			}
 
-				// If still tasks remaining, create extra route(s)
-				if(!tasksToSchedule.isEmpty()) {
-					System.out.println("Creating extra route for " + tasksToSchedule.size() + " remaining tasks");
-					Route extraRoute = new Route(instance.getShiftDuration());
-					Task firstTask = instance.getTask(tasksToSchedule.get(0));
-					extraRoute.addTask(tasksToSchedule.get(0), 0, 0, 0, firstTask.getDuration());
-					tasksToSchedule.remove(0);
+			// If still tasks remaining, create extra route(s)
+			if(!tasksToSchedule.isEmpty()) {
+				extraRoutes++;
+				if(verbose) System.out.println("Creating extra route for " + tasksToSchedule.size() + " remaining tasks");
+				Route extraRoute = new Route(instance.getShiftDuration());
+				extraRoute.addTask(instance, tasksToSchedule.get(0), 0, 0, instance.getDuration(tasksToSchedule.get(0)));
+				tasksToSchedule.remove(0);
 
-					for(int j = 0; j < tasksToSchedule.size(); j++) {
-						int taskId = tasksToSchedule.get(j);
-						Task task = instance.getTask(taskId);
-						int lastTaskIndex = extraRoute.getRouteTasks().get(extraRoute.getRouteTasks().size() - 1);
-						Task lastTask = instance.getTask(lastTaskIndex);
-						int distance = instance.getDistance(lastTask.getLocation(), task.getLocation());
-						int travTime = instance.getTravTime(lastTask.getLocation(), task.getLocation());
-						extraRoute.addTask(taskId, distance, travTime, 0, task.getDuration());
-					}
-					tasksToSchedule.clear();
-					solution.getRoutes().add(extraRoute);
+				for(int j = 0; j < tasksToSchedule.size(); j++) {
+					int taskId = tasksToSchedule.get(j);
+					int distance = instance.getDistance(extraRoute.getLastLocation(), instance.getLocation(taskId));
+					int travTime = instance.getTravTime(extraRoute.getLastLocation(), instance.getLocation(taskId));
+					extraRoute.addTask(instance, taskId, distance, travTime, instance.getDuration(taskId));
 				}
+				tasksToSchedule.clear();
+				solution.addRoute(extraRoute);
+				// Given to an engineer free on a later day, if any, so later callbacks and shifts see it
+				int day = insertion.mapRoute(solution, solution.size() - 1, dayEvent + 1);
+				if(verbose) System.out.println(day < 0 ? "  No engineer free for the extra route" : "  Extra route assigned to day " + day);
 			}
 		}
+		return selectedRoute;
 	}
-
-	// Helper method to get a task whether it's a regular task or callback
-	private Task getTaskOrCallback(int taskId) {
-		if(instance.getTasks().containsKey(taskId)) {
-			return instance.getTask(taskId);
-		} else if(instance.getCallbacks().containsKey(taskId)) {
-			return instance.getCallback(taskId);
-		}
-		return null;
+	
+//	Lognormal duration with the nominal duration as mean, at least one minute
+	private Task sampleCallback(Task callback) {
+		if(distributions == null || callback.getDuration() <= 0) return callback;
+		int duration = (int) Math.round(distributions.sampleLogNormal(callback.getDuration(), durationVariation * callback.getDuration()));
+		Task sampled = new Task(callback.getTaskID(), callback.getLocation(), Math.max(duration, 1), callback.getPriority(), callback.getTimeEvent());
+		sampled.setEarliestStart(callback.getEarliestStart());
+		sampled.setLatestStart(callback.getLatestStart());
+		sampled.setRequiredSkills(callback.getRequiredSkills());
+		sampled.setRequiredEquipment(callback.getRequiredEquipment());
+		return sampled;
 	}
 
 }
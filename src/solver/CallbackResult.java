@@ -0,0 +1,26 @@
+package solver;
+
+import java.util.ArrayList;
+
+/**
+ * Outcome of inserting a callback: the route it went into and the tasks
+ * displaced from that route that could not be put back in it.
+ */
+public class CallbackResult {
+
+	private final int selectedRoute;
+	private final ArrayList<Integer> displacedTasks;
+
+	CallbackResult(int selectedRoute, ArrayList<Integer> displacedTasks) {
+		this.selectedRoute = selectedRoute;
+		this.displacedTasks = displacedTasks;
+	}
+
+	public int getSelectedRoute() {
+		return selectedRoute;
+	}
+
+	public ArrayList<Integer> getDisplacedTasks() {
+		return displacedTasks;
+	}
+}
@@ -0,0 +1,117 @@
+package solver;
+
+import problem.Instance;
+
+/**
+ * Lazily walks a nearest-neighbour ranking and yields the unscheduled tasks
+ * that fit in a time budget, in rank order. A forward cursor ranks locations
+ * by travel time from the current location (nearestTimeFrom), a backward
+ * cursor by travel time to it (nearestTimeTo). A task is feasible when travel
+ * plus its duration fits in the budget, so the walk stops at the first
+ * location that is too far to reach at all. On a granular ranking, the walk
+ * carries on over the full row once the kept neighbours are used up.
+ * 
+ * A task with a time window is feasible when, leaving the origin at the given
+ * time and waiting for its earliest start if needed, it starts by its latest
+ * start and still ends within the budget. Without a time, as for the backward
+ * walk whose start times are only known once the route is laid out, tasks with
+ * a time window are skipped. Tasks are also restricted to those that an
+ * engineer of the given compatibility classes can do, with a single AND.
+ * 
+ * Cursors are reset and reused across steps of a route completion, so the
+ * completion loops do not allocate.
+ */
+public class CandidateCursor {
+
+	private final Instance instance;
+	private final Ranking ranking;
+	private final int[][] tasksAtLocation;
+	private final boolean forward;
+
+	private TaskSet tasks;
+	private int origin;
+	private int budget;
+	private int time;
+	private long compatibility;
+	private int[] ranked;
+	private int rank;
+	private int slot;
+	private int travel;
+
+	CandidateCursor(Instance instance, Ranking ranking, int[][] tasksAtLocation, boolean forward) {
+		this.instance = instance;
+		this.ranking = ranking;
+		this.tasksAtLocation = tasksAtLocation;
+		this.forward = forward;
+	}
+
+	/**
+	 * Restarts the walk from a location. tasks restricts candidates to the
+	 * unscheduled set; null accepts every task.
+	 */
+	public CandidateCursor reset(TaskSet tasks, int origin, int budget) {
+		return reset(tasks, origin, -1, budget, Instance.ALL_RESOURCES);
+	}
+
+	/** Restarts a forward walk leaving the origin at the given time of the route. */
+	public CandidateCursor reset(TaskSet tasks, int origin, int time, int budget) {
+		return reset(tasks, origin, time, budget, Instance.ALL_RESOURCES);
+	}
+
+	/**
+	 * Restarts the walk for a route that engineers of the given classes can do;
+	 * a negative time for a backward walk.
+	 */
+	public CandidateCursor reset(TaskSet tasks, int origin, int time, int budget, long compatibility) {
+		this.tasks = tasks;
+		this.origin = origin;
+		this.time = time;
+		this.budget = budget;
+		this.compatibility = compatibility;
+		this.ranked = ranking.row(origin);
+		this.rank = -1;
+		this.slot = 0;
+		this.travel = 0;
+		return this;
+	}
+
+	/** Next feasible task in rank order, or -1 when no further task fits. */
+	public int next() {
+		if (rank >= ranking.size())
+			return -1;
+		int[] candidates = rank >= 0 ? tasksAtLocation[ranked[rank]] : null;
+
+		while (true) {
+			if (candidates == null || slot >= candidates.length) {
+				if (++rank >= ranked.length) {
+					if (ranked.length < ranking.size())
+						ranked = ranking.fullRow(origin);
+					if (rank >= ranked.length)
+						return -1;
+				}
+				int location = ranked[rank];
+				travel = forward ? instance.getTravTime(origin, location) : instance.getTravTime(location, origin);
+				if (travel > budget) {
+					rank = ranking.size();
+					return -1;
+				}
+				candidates = tasksAtLocation[location];
+				slot = 0;
+				continue;
+			}
+
+			int task = candidates[slot++];
+			if (travel + instance.getDuration(task) <= budget && (tasks == null || tasks.contains(task))
+					&& (instance.getCompatibility(task) & compatibility) != 0
+					&& (!instance.hasTimeWindow(task) || fitsWindow(task)))
+				return task;
+		}
+	}
+
+	private boolean fitsWindow(int task) {
+		if (time < 0)
+			return false;
+		int start = Math.max(time + travel, instance.getEarliestStart(task));
+		return start <= instance.getLatestStart(task) && start - time + instance.getDuration(task) <= budget;
+	}
+}
@@ -1,8 +1,12 @@
 package solver;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import problem.*;
 
@@ -10,32 +14,42 @@ public class Insertion {
 	private Instance instance;
 	private int numLocations;
 
-	private int[][] nearestDist;
-	private int[][] nearestTimeFrom;
-	private int[][] nearestTimeTo;
+	private Ranking nearestDist;
+	private Ranking nearestTimeFrom;
+	private Ranking nearestTimeTo;
 
-	private Hashtable<Integer, ArrayList<Integer>> tasksByLocation;
-	private ArrayList<Integer> tasksByDuration;
+	private int[][] tasksByLocation;
+	private List<Integer> tasksByDuration;
+	private int[] durationRank;
 	private int[] locationsByDemand;
+	private ResourceAssignment resourceAssignment;
 
 	public Insertion(Instance instance) {
+		this(instance, Preprocessing.of(instance));
+	}
+
+	// Preprocessed data is read-only and shared by every Insertion over the same instance
+	public Insertion(Instance instance, Preprocessing preprocessing) {
+		preprocessing.checkInstance(instance);
 		this.instance = instance;
 		this.numLocations = instance.getLocations();
 
-		this.nearestDist = new int[numLocations][numLocations - 1];
-		this.nearestTimeFrom = new int[numLocations][numLocations - 1];
-		this.nearestTimeTo = new int[numLocations][numLocations - 1];
-		this.tasksByLocation = new Hashtable<Integer, ArrayList<Integer>>(numLocations);
-		this.tasksByDuration = new ArrayList<Integer>();
-		this.locationsByDemand = new int[numLocations];
-
-		init();
+		this.nearestDist = preprocessing.getNearestDist();
+		this.nearestTimeFrom = preprocessing.getNearestTimeFrom();
+		this.nearestTimeTo = preprocessing.getNearestTimeTo();
+		this.tasksByLocation = preprocessing.getTasksByLocation();
+		this.tasksByDuration = preprocessing.getTasksByDuration();
+		this.durationRank = preprocessing.getDurationRank();
+		this.locationsByDemand = preprocessing.getLocationsByDemand();
+		this.resourceAssignment = new ResourceAssignment(instance);
 	}
 
 	public Solution solveByDuration() {
 		Solution insertionSolution = new Solution(instance.getMandays(), instance.getShiftDuration());
 
-		ArrayList<Integer> tasksToSchedule = new ArrayList<Integer>(tasksByDuration);
+		TaskSet tasksToSchedule = new TaskSet(instance.getIDBound(), tasksByDuration);
+		CandidateCursor cursor = forwardCursor();
+		int nextByDuration = 0;
 
 		int usedRoutes = 0;
 		int currentPosition = 0;
@@ -44,50 +58,60 @@ public class Insertion {
 
 		while (!tasksToSchedule.isEmpty() && usedRoutes <= instance.getMandays()) {
 
-			if (route.getRouteTasks().isEmpty()) {
+			if (route.isEmpty()) {
 				usedRoutes++;
-				int task = tasksToSchedule.get(0);
-				if (instance.getTask(task).getDuration() <= route.getAvailableTime()) {
-					route.addTask(task, 0, 0, 0, instance.getTask(task).getDuration());
+				while (!tasksToSchedule.contains(tasksByDuration.get(nextByDuration)))
+					nextByDuration++;
+				int task = tasksByDuration.get(nextByDuration);
+				if (route.canInsert(instance, 0, task)) {
+					route.addTask(instance, task, 0, 0, instance.getDuration(task));
 
-					currentPosition = instance.getTask(task).getLocation();
+					currentPosition = instance.getLocation(task);
 
-					tasksToSchedule.remove(0);
+					tasksToSchedule.remove(task);
 				} else {
-					System.out.println("Error: Task " + task + " duration is longer than scheduled shifts.");
+					if (verbose) System.out.println("Error: Task " + task + " fits no engineer's shift.");
+					insertionSolution.addUnschedulableTask(task);
+					tasksToSchedule.remove(task);
+					usedRoutes--;
 				}
 			} else {
-				ArrayList<Integer> feasibleTasks = getFeasibleTasksToSchedule(tasksToSchedule, currentPosition,
-						route.getTotalTime(), route.getCapacityTime());
-				if (!feasibleTasks.isEmpty()) {
-					int task = feasibleTasks.get(0);
+				int task = cursor.reset(tasksToSchedule, currentPosition, route.getLastEndTime(),
+						route.getCapacityTime() - route.getTotalTime(), route.getCompatibility()).next();
+				if (task != -1) {
 
-					int distance = instance.getDistance(currentPosition, instance.getTask(task).getLocation());
-					int travTime = instance.getTravTime(currentPosition, instance.getTask(task).getLocation());
+					int distance = instance.getDistance(currentPosition, instance.getLocation(task));
+					int travTime = instance.getTravTime(currentPosition, instance.getLocation(task));
 
-					route.addTask(task, distance, travTime, 0, instance.getTask(task).getDuration());
+					route.addTask(instance, task, distance, travTime, instance.getDuration(task));
 
-					currentPosition = instance.getTask(task).getLocation();
+					currentPosition = instance.getLocation(task);
 
-					tasksToSchedule.remove((Integer) task);
+					tasksToSchedule.remove(task);
 				} else {
-					insertionSolution.getRoutes().add(route);
+					insertionSolution.addRoute(route);
 					route = new Route(instance.getShiftDuration());
 				}
 			}
 
 		}
 
-		insertionSolution.getRoutes().add(route);
+		insertionSolution.addRoute(route);
 
 		return insertionSolution;
 	}
 
 	public Solution solveByDistance() {
+		return solveByDistance(locationsByDemand, null);
+	}
+
+	// Routes are seeded from locations in the given order; with a random generator, seed tasks
+	// of equal duration are picked at random instead of by tasksByDuration order
+	private Solution solveByDistance(int[] locationsByDemand, SplittableRandom random) {
 
 		Solution insertionSolution = new Solution(instance.getMandays(), instance.getShiftDuration());
 
-		ArrayList<Integer> tasksToSchedule = new ArrayList<Integer>(tasksByDuration);
+		TaskSet tasksToSchedule = new TaskSet(instance.getIDBound(), tasksByDuration);
 
 		int usedRoutes = 0;
 		int currentPosition = 0;
@@ -98,734 +122,644 @@ public class Insertion {
 		while (!tasksToSchedule.isEmpty() && usedRoutes <= instance.getMandays()
 				&& currentLocationIndex < numLocations) {
 
-			if (route.getRouteTasks().isEmpty()) {
+			if (route.isEmpty()) {
 				usedRoutes++;
 
 				int selectedLocation = locationsByDemand[currentLocationIndex];
-				boolean foundTask = false;
-				int task;
-				do {
-					int i = 0;
-
-					do {
-						task = tasksToSchedule.get(i++);
-						if (instance.getTask(task).getLocation() == selectedLocation) {
-							foundTask = true;
-							break;
-						}
-					} while (i < tasksToSchedule.size());
-
-					if (!foundTask)
-						selectedLocation = locationsByDemand[++currentLocationIndex];
-
-				} while (!foundTask);
+				int task = longestTaskAt(selectedLocation, tasksToSchedule, random);
+				while (task == -1) {
+					selectedLocation = locationsByDemand[++currentLocationIndex];
+					task = longestTaskAt(selectedLocation, tasksToSchedule, random);
+				}
 
-				if (instance.getTask(task).getDuration() <= route.getAvailableTime()) {
-					route.addTask(task, 0, 0, 0, instance.getTask(task).getDuration());
+				if (route.canInsert(instance, 0, task)) {
+					route.addTask(instance, task, 0, 0, instance.getDuration(task));
 
-					currentPosition = instance.getTask(task).getLocation();
+					currentPosition = instance.getLocation(task);
 
-					tasksToSchedule.remove((Integer) task);
+					tasksToSchedule.remove(task);
 
-					if (instance.getCollaborations().contains(task)) {
+					if (instance.isCollaboration(task)) {
 						route.setCollaborative(true);
-						int supportTask = instance.getCollabPair(task);
+						int supportTask = instance.getCollabPartner(task);
 						Route supportRoute = new Route(instance.getShiftDuration());
 						completeRouteBackwards(supportRoute, tasksToSchedule, supportTask, route.getLastEndTime());
 						completeRouteForward(insertionSolution, supportRoute, tasksToSchedule, currentPosition);
 						supportRoute.setCollaborative(true);
-						insertionSolution.getRoutes().add(supportRoute);
+						insertionSolution.addRoute(supportRoute);
 					}
 				} else {
-					System.out.println("Error: Task " + task + " duration is longer than scheduled shifts.");
+					if (verbose) System.out.println("Error: Task " + task + " fits no engineer's shift.");
+					insertionSolution.addUnschedulableTask(task);
+					tasksToSchedule.remove(task);
+					usedRoutes--;
 				}
 			} else {
 				completeRouteForward(insertionSolution, route, tasksToSchedule, currentPosition);
-				insertionSolution.getRoutes().add(route);
+				insertionSolution.addRoute(route);
 				route = new Route(instance.getShiftDuration());
 			}
 
 		}
 
-		insertionSolution.getRoutes().add(route);
+		insertionSolution.addRoute(route);
 
-		mappingResourcesToRoutes(insertionSolution, instance.getResources());
+		mappingResourcesToRoutes(insertionSolution);
 
 		return insertionSolution;
 	}
 
-	private void completeRouteBackwards(Route supportRoute, ArrayList<Integer> tasksToSchedule, int supportTask,
+	// First remaining task at the location in tasksByDuration order, -1 if none. With a random
+	// generator, one of the remaining tasks of the longest duration chosen uniformly.
+	private int longestTaskAt(int location, TaskSet tasksToSchedule, SplittableRandom random) {
+		int task = -1;
+		int ties = 0;
+		for (int candidate : tasksByLocation[location]) {
+			if (!tasksToSchedule.contains(candidate))
+				continue;
+			if (random != null && task != -1 && instance.getDuration(candidate) == instance.getDuration(task)) {
+				if (random.nextInt(++ties) == 0)
+					task = candidate;
+			} else if (task == -1 || durationRank[candidate] < durationRank[task]) {
+				task = candidate;
+				ties = 1;
+			}
+		}
+		return task;
+	}
+
+	private int firstNonCollaborative(CandidateCursor cursor) {
+		int task = cursor.next();
+		while (task != -1 && instance.isCollaboration(task))
+			task = cursor.next();
+		return task;
+	}
+
+	private void completeRouteBackwards(Route supportRoute, TaskSet tasksToSchedule, int supportTask,
 			int endTime) {
 		ArrayList<Integer> previousTasks = new ArrayList<Integer>();
-		ArrayList<Integer> localTasksToSchedule = new ArrayList<Integer>(tasksToSchedule);
+		TaskSet localTasksToSchedule = new TaskSet(tasksToSchedule);
 
 		previousTasks.add(supportTask);
-		localTasksToSchedule.remove((Integer) supportTask);
+		localTasksToSchedule.remove(supportTask);
 
-		int currentPosition = instance.getTask(supportTask).getLocation();
-		int duration = instance.getTask(supportTask).getDuration();
+		int currentPosition = instance.getLocation(supportTask);
+		int duration = instance.getDuration(supportTask);
 		int endPrevTime = endTime;
 
-		ArrayList<Integer> feasibleTasks = getFeasiblePreviousTasks(localTasksToSchedule, currentPosition, endTime,
-				duration);
+		long compatibility = instance.getCompatibility(supportTask);
+		CandidateCursor cursor = backwardCursor();
+		int task = firstNonCollaborative(cursor.reset(localTasksToSchedule, currentPosition, -1, endTime - duration,
+				compatibility));
 
-		while (!feasibleTasks.isEmpty()) {
-			int task;
-			int i = 0;
-			do {
-				task = feasibleTasks.get(i++);
-			} while (instance.getCollaborations().contains(task) && i < feasibleTasks.size());
+		while (task != -1) {
 
-			if (instance.getCollaborations().contains(task))
-				break;
-
-			int travTime = instance.getTravTime(instance.getTask(task).getLocation(), currentPosition);
+			int travTime = instance.getTravTime(instance.getLocation(task), currentPosition);
 			endPrevTime = endPrevTime - duration - travTime;
-			duration = instance.getTask(task).getDuration();
-			currentPosition = instance.getTask(task).getLocation();
+			duration = instance.getDuration(task);
+			currentPosition = instance.getLocation(task);
 
 			previousTasks.add(task);
-			localTasksToSchedule.remove((Integer) task);
+			localTasksToSchedule.remove(task);
+			compatibility &= instance.getCompatibility(task);
 
-			feasibleTasks = getFeasiblePreviousTasks(localTasksToSchedule, currentPosition, endPrevTime, duration);
+			task = firstNonCollaborative(cursor.reset(localTasksToSchedule, currentPosition, -1, endPrevTime - duration,
+					compatibility));
 		}
 
 		int distance = 0;
 		int travTime = 0;
 		int waitTime = 0;
 		if (previousTasks.size() > 1) {
-			supportRoute.addTask(previousTasks.get(previousTasks.size() - 1), 0, 0, 0,
-					instance.getTask(previousTasks.get(previousTasks.size() - 1)).getDuration());
-			tasksToSchedule.remove(previousTasks.get(previousTasks.size() - 1));
+			int first = previousTasks.get(previousTasks.size() - 1);
+			supportRoute.addTask(instance, first, 0, 0, instance.getDuration(first));
+			tasksToSchedule.remove(first);
 			for (int i = previousTasks.size() - 2; i > 0; i--) {
-				distance = instance.getDistance(instance.getTask(previousTasks.get(i + 1)).getLocation(),
-						instance.getTask(previousTasks.get(i)).getLocation());
-				travTime = instance.getTravTime(instance.getTask(previousTasks.get(i + 1)).getLocation(),
-						instance.getTask(previousTasks.get(i)).getLocation());
-				supportRoute.addTask(previousTasks.get(i), distance, travTime, 0,
-						instance.getTask(previousTasks.get(i)).getDuration());
+				distance = instance.getDistance(instance.getLocation(previousTasks.get(i + 1)),
+						instance.getLocation(previousTasks.get(i)));
+				travTime = instance.getTravTime(instance.getLocation(previousTasks.get(i + 1)),
+						instance.getLocation(previousTasks.get(i)));
+				supportRoute.addTask(instance, previousTasks.get(i), distance, travTime,
+						instance.getDuration(previousTasks.get(i)));
 				tasksToSchedule.remove(previousTasks.get(i));
 			}
-			distance = instance.getDistance(instance.getTask(previousTasks.get(1)).getLocation(),
-					instance.getTask(supportTask).getLocation());
-			travTime = instance.getTravTime(instance.getTask(previousTasks.get(1)).getLocation(),
-					instance.getTask(supportTask).getLocation());
-			waitTime = endTime - instance.getTask(supportTask).getDuration() - supportRoute.getLastEndTime() - travTime;
+			distance = instance.getDistance(instance.getLocation(previousTasks.get(1)),
+					instance.getLocation(supportTask));
+			travTime = instance.getTravTime(instance.getLocation(previousTasks.get(1)),
+					instance.getLocation(supportTask));
+			waitTime = endTime - instance.getDuration(supportTask) - supportRoute.getLastEndTime() - travTime;
 		} else {
-			waitTime = endTime - instance.getTask(supportTask).getDuration();
+			waitTime = endTime - instance.getDuration(supportTask);
 		}
 
-		supportRoute.addTask(supportTask, distance, travTime, waitTime, instance.getTask(supportTask).getDuration());
-		tasksToSchedule.remove((Integer) supportTask);
+		supportRoute.addTask(instance, supportTask, distance, travTime, waitTime, instance.getDuration(supportTask));
+		tasksToSchedule.remove(supportTask);
 
 	}
 
-	private void completeRouteForward(Solution insertionSolution, Route route, ArrayList<Integer> tasksToSchedule,
+	private void completeRouteForward(Solution insertionSolution, Route route, TaskSet tasksToSchedule,
 			int currentPosition) {
 
-		ArrayList<Integer> feasibleTasks = getFeasibleTasksToSchedule(tasksToSchedule, currentPosition,
-				route.getTotalTime(), route.getCapacityTime());
-		while (!feasibleTasks.isEmpty()) {
-			int task = feasibleTasks.get(0);
+		CandidateCursor cursor = forwardCursor();
+		int task = cursor.reset(tasksToSchedule, currentPosition, route.getLastEndTime(),
+				route.getCapacityTime() - route.getTotalTime(), route.getCompatibility()).next();
+		while (task != -1) {
 
-			int distance = instance.getDistance(currentPosition, instance.getTask(task).getLocation());
-			int travTime = instance.getTravTime(currentPosition, instance.getTask(task).getLocation());
+			int distance = instance.getDistance(currentPosition, instance.getLocation(task));
+			int travTime = instance.getTravTime(currentPosition, instance.getLocation(task));
 
-			route.addTask(task, distance, travTime, 0, instance.getTask(task).getDuration());
+			route.addTask(instance, task, distance, travTime, instance.getDuration(task));
 
-			currentPosition = instance.getTask(task).getLocation();
+			currentPosition = instance.getLocation(task);
 
-			tasksToSchedule.remove((Integer) task);
+			tasksToSchedule.remove(task);
 
-			if (instance.getCollaborations().contains(task)) {
+			if (instance.isCollaboration(task)) {
 				route.setCollaborative(true);
-				int supportTask = instance.getCollabPair(task);
+				int supportTask = instance.getCollabPartner(task);
 				Route supportRoute = new Route(instance.getShiftDuration());
 
 				completeRouteBackwards(supportRoute, tasksToSchedule, supportTask, route.getLastEndTime());
 				completeRouteForward(insertionSolution, supportRoute, tasksToSchedule, currentPosition);
 				supportRoute.setCollaborative(true);
-				insertionSolution.getRoutes().add(supportRoute);
+				insertionSolution.addRoute(supportRoute);
 			}
 
-			feasibleTasks = getFeasibleTasksToSchedule(tasksToSchedule, currentPosition, route.getTotalTime(),
-					route.getCapacityTime());
+			task = cursor.reset(tasksToSchedule, currentPosition, route.getLastEndTime(),
+					route.getCapacityTime() - route.getTotalTime(), route.getCompatibility()).next();
 		}
 	}
 	
-	private void completeRouteBackwardsCallback(Route supportRoute, ArrayList<Integer> tasksToSchedule, int supportTask,
-			int endTime) {
-		ArrayList<Integer> previousTasks = new ArrayList<Integer>();
-		ArrayList<Integer> localTasksToSchedule = new ArrayList<Integer>(tasksToSchedule);
+	public void completeRouteForwardCallback(Route route, TaskSet tasksToSchedule,
+			int currentPosition) { 
 
-		previousTasks.add(supportTask);
-		localTasksToSchedule.remove((Integer) supportTask);
-		
-		Task supportTaskData = new Task();
-		if(instance.getTasks().containsKey(supportTask)) supportTaskData = instance.getTask(supportTask);
-		else if(instance.getCallbacks().containsKey(supportTask)) supportTaskData = instance.getCallback(supportTask);
-		else System.err.println("Task " + supportTask + " not found.");
+		CandidateCursor cursor = forwardCursor();
+		int task = cursor.reset(tasksToSchedule, currentPosition, route.getLastEndTime(),
+				route.getCapacityTime() - route.getTotalTime(), route.getCompatibility()).next();
+		while (task != -1) {
 
-		int currentPosition = supportTaskData.getLocation();
-		int duration = supportTaskData.getDuration();
-		int endPrevTime = endTime;
+			int distance = instance.getDistance(currentPosition, instance.getLocation(task));
+			int travTime = instance.getTravTime(currentPosition, instance.getLocation(task));
 
-		ArrayList<Integer> feasibleTasks = getFeasiblePreviousTasks(localTasksToSchedule, currentPosition, endTime,
-				duration);
-
-		while (!feasibleTasks.isEmpty()) {
-			int task;
-			int i = 0;
-			do {
-				task = feasibleTasks.get(i++);
-			} while (instance.getCollaborations().contains(task) && i < feasibleTasks.size());
-
-			if (instance.getCollaborations().contains(task))
-				break;
-			
-			Task taskData = new Task();
-			if(instance.getTasks().containsKey(task)) taskData = instance.getTask(task);
-			else if(instance.getCallbacks().containsKey(task)) taskData = instance.getCallback(task);
-			else System.err.println("Task " + task + " not found.");
-
-			int travTime = instance.getTravTime(taskData.getLocation(), currentPosition);
-			endPrevTime = endPrevTime - duration - travTime;
-			duration = taskData.getDuration();
-			currentPosition = taskData.getLocation();
+			route.addTask(instance, task, distance, travTime, instance.getDuration(task));
 
-			previousTasks.add(task);
-			localTasksToSchedule.remove((Integer) task);
+			currentPosition = instance.getLocation(task);
 
-			feasibleTasks = getFeasiblePreviousTasks(localTasksToSchedule, currentPosition, endPrevTime, duration);
-		}
+			tasksToSchedule.remove(task);
 
-		int distance = 0;
-		int travTime = 0;
-		int waitTime = 0;
-		if (previousTasks.size() > 1) {
-			if(instance.getTasks().containsKey(previousTasks.get(previousTasks.size() - 1))) {
-				supportRoute.addTask(previousTasks.get(previousTasks.size() - 1), 0, 0, 0,
-						instance.getTask(previousTasks.get(previousTasks.size() - 1)).getDuration());
-				tasksToSchedule.remove(previousTasks.get(previousTasks.size() - 1));
-			} else if(instance.getCallbacks().containsKey(previousTasks.get(previousTasks.size() - 1))) {
-				supportRoute.addTask(previousTasks.get(previousTasks.size() - 1), 0, 0, 0,
-						instance.getCallback(previousTasks.get(previousTasks.size() - 1)).getDuration());
-				tasksToSchedule.remove(previousTasks.get(previousTasks.size() - 1));
-			}
-			for (int i = previousTasks.size() - 2; i > 0; i--) {
-				if(instance.getTasks().containsKey(previousTasks.get(previousTasks.get(i)))) {
-					if(instance.getTasks().containsKey(previousTasks.get(i + 1))) {
-						distance = instance.getDistance(instance.getTask(previousTasks.get(i + 1)).getLocation(),
-								instance.getTask(previousTasks.get(i)).getLocation());
-						travTime = instance.getTravTime(instance.getTask(previousTasks.get(i + 1)).getLocation(),
-								instance.getTask(previousTasks.get(i)).getLocation());
-						supportRoute.addTask(previousTasks.get(i), distance, travTime, 0,
-								instance.getTask(previousTasks.get(i)).getDuration());
-						tasksToSchedule.remove(previousTasks.get(i));
-					} else if(instance.getCallbacks().containsKey(previousTasks.get(i + 1))) {
-						distance = instance.getDistance(instance.getCallback(previousTasks.get(i + 1)).getLocation(),
-								instance.getTask(previousTasks.get(i)).getLocation());
-						travTime = instance.getTravTime(instance.getCallback(previousTasks.get(i + 1)).getLocation(),
-								instance.getTask(previousTasks.get(i)).getLocation());
-						supportRoute.addTask(previousTasks.get(i), distance, travTime, 0,
-								instance.getTask(previousTasks.get(i)).getDuration());
-						tasksToSchedule.remove(previousTasks.get(i));
-					}
-				} else if(instance.getCallbacks().containsKey(previousTasks.get(previousTasks.get(i)))) {
-					if(instance.getTasks().containsKey(previousTasks.get(i + 1))) {
-						distance = instance.getDistance(instance.getTask(previousTasks.get(i + 1)).getLocation(),
-							instance.getCallback(previousTasks.get(i)).getLocation());
-						travTime = instance.getTravTime(instance.getTask(previousTasks.get(i + 1)).getLocation(),
-							instance.getCallback(previousTasks.get(i)).getLocation());
-						supportRoute.addTask(previousTasks.get(i), distance, travTime, 0,
-							instance.getCallback(previousTasks.get(i)).getDuration());
-						tasksToSchedule.remove(previousTasks.get(i));
-					} else if(instance.getCallbacks().containsKey(previousTasks.get(i + 1))) {
-						distance = instance.getDistance(instance.getCallback(previousTasks.get(i + 1)).getLocation(),
-								instance.getCallback(previousTasks.get(i)).getLocation());
-						travTime = instance.getTravTime(instance.getCallback(previousTasks.get(i + 1)).getLocation(),
-								instance.getCallback(previousTasks.get(i)).getLocation());
-						supportRoute.addTask(previousTasks.get(i), distance, travTime, 0,
-								instance.getCallback(previousTasks.get(i)).getDuration());
-						tasksToSchedule.remove(previousTasks.get(i));
-					}
-				}
-			}
-			if(instance.getTasks().containsKey(previousTasks.get(1))) {
-				distance = instance.getDistance(instance.getTask(previousTasks.get(1)).getLocation(),
-					supportTaskData.getLocation());
-				travTime = instance.getTravTime(instance.getTask(previousTasks.get(1)).getLocation(),
-					supportTaskData.getLocation());
-				waitTime = endTime - supportTaskData.getDuration() - supportRoute.getLastEndTime() - travTime;
-			} else if(instance.getCallbacks().containsKey(previousTasks.get(1))) {
-				distance = instance.getDistance(instance.getCallback(previousTasks.get(1)).getLocation(),
-						supportTaskData.getLocation());
-					travTime = instance.getTravTime(instance.getCallback(previousTasks.get(1)).getLocation(),
-						supportTaskData.getLocation());
-					waitTime = endTime - supportTaskData.getDuration() - supportRoute.getLastEndTime() - travTime;
-			}
-		} else {
-			waitTime = endTime - supportTaskData.getDuration();
+			task = cursor.reset(tasksToSchedule, currentPosition, route.getLastEndTime(),
+					route.getCapacityTime() - route.getTotalTime(), route.getCompatibility()).next();
 		}
-
-		supportRoute.addTask(supportTask, distance, travTime, waitTime, supportTaskData.getDuration());
-		tasksToSchedule.remove((Integer) supportTask);
-
 	}
 	
-	public void completeRouteForwardCallback(Route route, ArrayList<Integer> tasksToSchedule,
-			int currentPosition) { 
+	// Callback insertion tries several routes and keeps the best, within a time budget per callback
+	private boolean bestRouteEvaluation = false;
+	private int evaluationCandidates = 0;
+	private long evaluationBudget = Long.MAX_VALUE / 4;
 
-		ArrayList<Integer> feasibleTasks = getFeasibleTasksToSchedule(tasksToSchedule, currentPosition,
-				route.getTotalTime(), route.getCapacityTime());
-		while (!feasibleTasks.isEmpty()) {
-			int task = feasibleTasks.get(0);
+	// Route traces printed while repairing callbacks; benchmarks switch them off
+	private boolean verbose = true;
 
-			Task taskData = new Task();
-			if(instance.getTasks().containsKey(task)) taskData = instance.getTask(task);
-			else if(instance.getCallbacks().containsKey(task)) taskData = instance.getCallback(task);
-			else System.err.println("Task " + task + " not found.");
-			
-			int distance = instance.getDistance(currentPosition, taskData.getLocation());
-			int travTime = instance.getTravTime(currentPosition, taskData.getLocation());
-
-			route.addTask(task, distance, travTime, 0, taskData.getDuration());
-
-			currentPosition = taskData.getLocation();
-
-			tasksToSchedule.remove((Integer) task);
-
-			feasibleTasks = getFeasibleTasksToSchedule(tasksToSchedule, currentPosition, route.getTotalTime(),
-					route.getCapacityTime());
-		}
+	public boolean isVerbose() {
+		return verbose;
 	}
-	
-	// Store last selected route for use by Simulation
-	private int lastSelectedRoute = -1;
 
-	public int getLastSelectedRoute() {
-		return lastSelectedRoute;
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
 	}
 
-	public ArrayList<Integer> scheduleCallback(Solution solution, Task callback, int timeEvent, int dayEvent) {
+	public CallbackResult scheduleCallback(Solution solution, Task callback, int timeEvent, int dayEvent) {
 		ArrayList<Integer> tasksToSchedule = new ArrayList<Integer>();
 		ArrayList<Integer> affectedRoutes = new ArrayList<Integer>();
 
 		affectedRoutes = solution.getRoutesByDay(dayEvent);
 
 
-		int selectedRoute = selectedRoute(solution, affectedRoutes, timeEvent, callback.getLocation());
-		this.lastSelectedRoute = selectedRoute;  // Store for Simulation to access
-		int currentTask = solution.getRoutes().get(selectedRoute).getTaskAtTime(timeEvent);
+		// Route times are relative to the start of the day
+		int timeInDay = timeEvent - dayEvent * 1440;
+		if(bestRouteEvaluation)
+			return scheduleCallbackBestRoute(solution, callback, affectedRoutes, dayEvent, timeInDay);
 
+		int selectedRoute = selectedRoute(solution, affectedRoutes, dayEvent, timeInDay, callback.getLocation());
+		if(fit(solution.getRoute(selectedRoute), timeInDay, callback) != ON_TIME)
+			selectedRoute = fittestRoute(solution, affectedRoutes, dayEvent, timeInDay, callback, selectedRoute);
 		Route route = solution.getRoutes().get(selectedRoute);
-		int indexInRoute = route.getRouteTasks().indexOf(currentTask);
 
-		Task current = getTaskOrCallback(currentTask);
-		int currentPosition = current.getLocation();
-		int travel = instance.getTravTime(currentPosition, callback.getLocation());
+		if(verbose) System.out.println(route.printRoute());
 
-		System.out.println(route.printRoute());
+		tasksToSchedule = repairWithCallback(route, route.getPositionAtTime(timeInDay), callback);
+		positionIndex(solution, dayEvent).update(selectedRoute);
 
-			ArrayList<Integer> tempRoute = new ArrayList<Integer>(route.getRouteTasks());
-			route.clear();
+		if(verbose) System.out.println(route.printRoute());
 
-			for(int i = 0; i <= indexInRoute; i++) {
-				if(route.getRouteTasks().isEmpty()) {
-					route.addTask(tempRoute.get(i), 0, 0, 0, getTaskOrCallback(tempRoute.get(i)).getDuration());
-				} else {
-					int distance = instance.getDistance(getTaskOrCallback(tempRoute.get(i-1)).getLocation(), getTaskOrCallback(tempRoute.get(i)).getLocation());
-					int travTime = instance.getTravTime(getTaskOrCallback(tempRoute.get(i-1)).getLocation(), getTaskOrCallback(tempRoute.get(i)).getLocation());
-					route.addTask(tempRoute.get(i), distance, travTime, 0, getTaskOrCallback(tempRoute.get(i)).getDuration());
-				}
+		if(verbose && !tasksToSchedule.isEmpty()) System.out.println("Displaced tasks remaining: " + tasksToSchedule);
+
+		return new CallbackResult(selectedRoute, tasksToSchedule);
+	}
+
+	// How well a route of the day can take the callback: ON_TIME if its engineer can do it and
+	// reaches it by its latest start, LATE if only the first holds, INCOMPATIBLE otherwise
+	private static final int ON_TIME = 0;
+	private static final int LATE = 1;
+	private static final int INCOMPATIBLE = 2;
+
+	// Closest route of the day that fits the callback best; the given route if none fits better
+	private int fittestRoute(Solution solution, ArrayList<Integer> affectedRoutes, int dayEvent, int timeInDay,
+			Task callback, int closest) {
+		int[] candidates = new int[affectedRoutes.size()];
+		int count = positionIndex(solution, dayEvent).nearest(callback.getLocation(), timeInDay, candidates.length, candidates);
+		int selected = closest;
+		int selectedFit = fit(solution.getRoute(closest), timeInDay, callback);
+		for(int i = 0; i < count && selectedFit != ON_TIME; i++) {
+			int candidateFit = fit(solution.getRoute(candidates[i]), timeInDay, callback);
+			if(candidateFit < selectedFit) {
+				selected = candidates[i];
+				selectedFit = candidateFit;
 			}
+		}
+		if(verbose && selectedFit == LATE) System.out.println("Callback " + callback.getTaskID() + " cannot start by its due time.");
+		if(verbose && selectedFit == INCOMPATIBLE) System.out.println("No engineer of the day can do callback " + callback.getTaskID() + ".");
+		return selected;
+	}
 
-			for(int i = indexInRoute + 1; i < tempRoute.size(); i++) {
-				if(instance.getCallbacks().containsKey(tempRoute.get(i))) {
-					// This is a previously scheduled callback - keep it in the route
-					int lastTaskIndex = route.getRouteTasks().get(route.getRouteTasks().size() - 1);
-					Task lastTask = getTaskOrCallback(lastTaskIndex);
-					Task callbackTask = instance.getCallback(tempRoute.get(i));
-					int distance = instance.getDistance(lastTask.getLocation(), callbackTask.getLocation());
-					int travTime = instance.getTravTime(lastTask.getLocation(), callbackTask.getLocation());
-					route.addTask(tempRoute.get(i), distance, travTime, 0, callbackTask.getDuration());
-				} else {
-					// Regular task - add to displaced tasks list
-					tasksToSchedule.add(tempRoute.get(i));
-				}
+	// Lateness follows the repair below: the callback comes after the task in progress and the
+	// callbacks already scheduled after it
+	private int fit(Route route, int timeInDay, Task callback) {
+		if((route.getCompatibility() & instance.getCompatibility(callback)) == 0) return INCOMPATIBLE;
+		if(route.getAssignedResource() >= 0 && !instance.hasExactClasses()
+				&& !instance.isCompatible(callback.getTaskID(), route.getAssignedResource())) return INCOMPATIBLE;
+		if(!callback.hasTimeWindow()) return ON_TIME;
+		int position = route.getPositionAtTime(timeInDay);
+		int time = route.getEndTime(position);
+		int location = route.getLocation(position);
+		for(int i = position + 1; i < route.size(); i++) {
+			int task = route.getRouteTask(i);
+			if(instance.isTask(task)) continue;
+			time = Math.max(time + instance.getTravTime(location, route.getLocation(i)), route.getEarliestStart(i))
+					+ route.getEndTime(i) - route.getStartTime(i);
+			location = route.getLocation(i);
+		}
+		int start = Math.max(time + instance.getTravTime(location, callback.getLocation()), callback.getEarliestStart());
+		return start > callback.getLatestStart() ? LATE : ON_TIME;
+	}
+
+	// Cuts the route after the task in progress, keeps later callbacks, appends the new callback
+	// and refills the route with the displaced tasks; those that do not fit are returned
+	private ArrayList<Integer> repairWithCallback(Route route, int indexInRoute, Task callback) {
+		ArrayList<Integer> tasksToSchedule = new ArrayList<Integer>();
+
+		// Callbacks need not be in the instance (generated ones are not), so they are read from
+		// the route and the Task rather than by ID
+		Route previous = new Route(route);
+		route.truncate(indexInRoute);
+
+		for(int i = indexInRoute + 1; i < previous.size(); i++) {
+			if(!instance.isTask(previous.getRouteTask(i))) {
+				// This is a previously scheduled callback - keep it in the route
+				int distance = instance.getDistance(route.getLastLocation(), previous.getLocation(i));
+				int travTime = instance.getTravTime(route.getLastLocation(), previous.getLocation(i));
+				route.addTask(previous, i, distance, travTime);
+			} else {
+				// Regular task - add to displaced tasks list
+				tasksToSchedule.add(previous.getRouteTask(i));
 			}
+		}
 
-			int lastTaskIndex = route.getRouteTasks().get(route.getRouteTasks().size() - 1);
-			Task lastTask = getTaskOrCallback(lastTaskIndex);
-			int distance = instance.getDistance(lastTask.getLocation(), callback.getLocation());
-			travel = instance.getTravTime(lastTask.getLocation(), callback.getLocation());
-			route.addTask(callback.getTaskID(), distance, travel, 0, callback.getDuration());
-			completeRouteForwardCallback(route, tasksToSchedule, currentPosition);
+		int distance = instance.getDistance(route.getLastLocation(), callback.getLocation());
+		int travel = instance.getTravTime(route.getLastLocation(), callback.getLocation());
+		route.addTask(instance, callback, distance, travel);
+		// The refill starts where the route now ends, after the callback
+		return completeWithDisplaced(route, tasksToSchedule, route.getLastLocation());
+	}
+
+	// Best-route mode: the repair is tried on a copy of each candidate route of the day, closest
+	// engineer first, in parallel. The winner has an engineer who can do the callback and starts
+	// it by its latest start, as far as any does, then has the lowest score (see Repair), then is
+	// the closest; only its copy replaces the route.
+	// Candidates not started when the latency budget runs out are skipped, but the closest is
+	// always evaluated.
+	private CallbackResult scheduleCallbackBestRoute(Solution solution, Task callback,
+			ArrayList<Integer> affectedRoutes, int dayEvent, int timeInDay) {
+		int k = evaluationCandidates > 0 ? Math.min(evaluationCandidates, affectedRoutes.size()) : affectedRoutes.size();
+		int[] candidates = new int[k];
+		int count = positionIndex(solution, dayEvent).nearest(callback.getLocation(), timeInDay, k, candidates);
+		if(count == 0) {
+			candidates[0] = scanSelectedRoute(solution, affectedRoutes, timeInDay, callback.getLocation());
+			count = 1;
+		}
 
-			System.out.println(route.printRoute());
+		CallbackEvaluation evaluation = new CallbackEvaluation(solution, callback, timeInDay, candidates,
+				System.nanoTime() + evaluationBudget);
+		evaluation.evaluate(0);
+		if(count > 1)
+			ForkJoinPool.commonPool().invoke(evaluation.new EvaluationTask(1, count));
+
+		int best = 0;
+		for(int i = 1; i < count; i++) {
+			Repair repair = evaluation.repairs[i];
+			if(repair == null) continue;
+			if(repair.fit < evaluation.repairs[best].fit
+					|| (repair.fit == evaluation.repairs[best].fit && repair.score < evaluation.repairs[best].score))
+				best = i;
+		}
 
-			if(!tasksToSchedule.isEmpty()) System.out.println("Displaced tasks remaining: " + tasksToSchedule);
+		Repair repair = evaluation.repairs[best];
+		int selectedRoute = candidates[best];
+		if(verbose) System.out.println(solution.getRoute(selectedRoute).printRoute());
+		solution.replaceRoute(selectedRoute, repair.route);
+		positionIndex(solution, dayEvent).update(selectedRoute);
+		if(verbose) System.out.println(repair.route.printRoute());
 
-		return tasksToSchedule;
+		ArrayList<Integer> tasksToSchedule = repair.displaced;
+		if(verbose && !tasksToSchedule.isEmpty()) System.out.println("Displaced tasks remaining: " + tasksToSchedule);
+		return new CallbackResult(selectedRoute, tasksToSchedule);
 	}
 
-	// Helper method to get a task whether it's a regular task or callback
-	private Task getTaskOrCallback(int taskId) {
-		if(instance.getTasks().containsKey(taskId)) {
-			return instance.getTask(taskId);
-		} else if(instance.getCallbacks().containsKey(taskId)) {
-			return instance.getCallback(taskId);
+	// A candidate route repaired with the callback, on a copy. Its score is the cost it adds
+	// (travel plus waiting), the overtime it adds past the shift, and the work it displaces:
+	// the summed duration of its displaced tasks, which another route or day has to make up.
+	// All three are minutes, so a displaced task weighs as much as the time it takes.
+	private static class Repair {
+		final Route route;
+		final ArrayList<Integer> displaced;
+		final int fit;
+		final int score;
+
+		Repair(Route original, Route route, ArrayList<Integer> displaced, int displacedWork, int fit) {
+			this.route = route;
+			this.displaced = displaced;
+			this.fit = fit;
+			int overtime = Math.max(route.getTotalTime() - route.getCapacityTime(), 0)
+					- Math.max(original.getTotalTime() - original.getCapacityTime(), 0);
+			this.score = route.getTravelTime() + route.getWaitingTime() - original.getTravelTime() - original.getWaitingTime()
+					+ overtime + displacedWork;
 		}
-		System.err.println("Task/Callback " + taskId + " not found!");
-		return null;
 	}
-	
-	public ArrayList<Integer> insertAfter(Solution solution, int selectedRoute, int currentTask, Task callback) {
-		ArrayList<Integer> tasksToSchedule;
-		
-		Route route = solution.getRoutes().get(selectedRoute);
-		
-		int indexInRoute = route.getRouteTasks().indexOf(currentTask);
-		int currentLocation = instance.getTask(currentTask).getLocation();
-		
-		int distance = instance.getDistance(currentLocation, callback.getLocation());
-		int travTime = instance.getTravTime(currentLocation, callback.getLocation());
-		route.getRouteTasks().add(indexInRoute+1, callback.getTaskID());
-		route.getStartTimes().add(indexInRoute+1, route.getEndTimes().get(indexInRoute) + travTime);
-		route.getEndTimes().add(indexInRoute+1, route.getStartTimes().get(indexInRoute+1) + callback.getDuration());
-		route.setValuesToPosition(indexInRoute+1, instance);
-		
-		ArrayList<Integer> tempRoute = new ArrayList<Integer>(route.getRouteTasks().subList(0, indexInRoute + 1));
-		
-		tasksToSchedule = new ArrayList<Integer>(route.getRouteTasks().subList(indexInRoute+2, route.getRouteTasks().size()));
-		
-		route.getRouteTasks().clear();
-		route.getStartTimes().clear();
-		route.getEndTimes().clear();
-		
-		route.addTask(tempRoute.get(0), 0, 0, 0, instance.getTask(tempRoute.get(0)).getDuration());
-		for(int j = 1; j < tempRoute.size(); j++) {
-			int dist = instance.getDistance(instance.getTask(tempRoute.get(j-1)).getLocation(), instance.getTask(tempRoute.get(j)).getLocation());
-			int trav = instance.getTravTime(instance.getTask(tempRoute.get(j-1)).getLocation(), instance.getTask(tempRoute.get(j)).getLocation());
-			route.addTask(tempRoute.get(j), dist, trav, 0, instance.getTask(tempRoute.get(j)).getDuration());
+
+	private class CallbackEvaluation {
+		private final Solution solution;
+		private final Task callback;
+		private final int timeInDay;
+		private final int[] candidates;
+		private final long deadline;
+
+		// Filled by index from several threads; null for candidates skipped by the budget
+		private final Repair[] repairs;
+
+		CallbackEvaluation(Solution solution, Task callback, int timeInDay, int[] candidates, long deadline) {
+			this.solution = solution;
+			this.callback = callback;
+			this.timeInDay = timeInDay;
+			this.candidates = candidates;
+			this.deadline = deadline;
+			this.repairs = new Repair[candidates.length];
 		}
-		
-		for(Integer task : tasksToSchedule) {
-			if(instance.getCallbacks().containsKey(task)) {
-				route.addTask(task, 
-						instance.getDistance(callback.getLocation(), instance.getCallback(task).getLocation()), 
-						instance.getTravTime(callback.getLocation(), instance.getCallback(task).getLocation()), 
-						0, instance.getCallback(task).getDuration());
-				tasksToSchedule.remove((Integer) task);
+
+		void evaluate(int i) {
+			Route route = solution.getRoute(candidates[i]);
+			Route copy = new Route(route);
+			int fit = fit(route, timeInDay, callback);
+			ArrayList<Integer> displaced = repairWithCallback(copy, copy.getPositionAtTime(timeInDay), callback);
+			int displacedWork = 0;
+			for(int task : displaced) displacedWork += instance.getDuration(task);
+			repairs[i] = new Repair(route, copy, displaced, displacedWork, fit);
+		}
+
+		private class EvaluationTask extends RecursiveAction {
+			private static final long serialVersionUID = 1L;
+
+			private final int from;
+			private final int to;
+
+			EvaluationTask(int from, int to) {
+				this.from = from;
+				this.to = to;
+			}
+
+			@Override
+			protected void compute() {
+				if (to - from == 1) {
+					if (System.nanoTime() < deadline)
+						evaluate(from);
+				} else if (to > from) {
+					int mid = (from + to) >>> 1;
+					invokeAll(new EvaluationTask(from, mid), new EvaluationTask(mid, to));
+				}
 			}
 		}
-		
-//		for(Integer taskToRemove : tasksToSchedule) {
-//			if(!instance.getCallbacks().containsKey(taskToRemove)) {
-//				int i = route.getRouteTasks().indexOf(taskToRemove);
-//				route.getRouteTasks().remove(i);
-//				route.getStartTimes().remove(i);
-//				route.getEndTimes().remove(i);
-//			} else {
-//				Task formerCallback = instance.getCallback((Integer) taskToRemove);
-//				int i = route.getRouteTasks().indexOf(taskToRemove);
-//				route.getRouteTasks().remove(i);
-//				route.getStartTimes().remove(i);
-//				route.getEndTimes().remove(i);
-//				
-//				route.addTask(formerCallback.getTaskID(), 
-//						instance.getDistance(callback.getLocation(), formerCallback.getLocation()), 
-//						instance.getTravTime(callback.getLocation(), formerCallback.getLocation()), 
-//						0, formerCallback.getDuration());
-//				tasksToSchedule.remove((Integer) taskToRemove);
-//			}
-//		}
-		
-		completeRouteForwardCallback(route, tasksToSchedule, callback.getLocation());
-		
-		return tasksToSchedule;
 	}
 
-	private void mappingResourcesToRoutes(Solution solution, ArrayList<Resource> resources) {
-		Hashtable<Integer,ArrayList<Integer>> resourcesByShift = instance.getResourcesByShift();
-		Hashtable<Integer, ArrayList<Integer>> routesByDay = solution.getRoutesByDay();
-		
-		for(int i = 0; i < instance.getResources().get(0).getStartShift().length; i++)
-			routesByDay.put(i, new ArrayList<Integer>());
+	public boolean isBestRouteEvaluation() {
+		return bestRouteEvaluation;
+	}
+
+	// Number of closest routes tried in best-route mode; 0 tries every route of the day. With a
+	// finite budget, which candidates are evaluated depends on timing, so results may differ
+	// between runs; Long.MAX_VALUE / 4 evaluates them all.
+	public void setBestRouteEvaluation(boolean bestRouteEvaluation, int candidates, long budgetNanos) {
+		this.bestRouteEvaluation = bestRouteEvaluation;
+		this.evaluationCandidates = candidates;
+		this.evaluationBudget = budgetNanos;
+	}
+	
+	public ArrayList<Integer> insertAfter(Solution solution, int selectedRoute, int currentTask, Task callback) {
+		ArrayList<Integer> tasksToSchedule = new ArrayList<Integer>();
 		
-		int[][] assignmentMatrix = new int[instance.getResources().size()][instance.getResources().get(0).getStartShift().length];
-		for(int i = 0; i < assignmentMatrix.length; i++)
-			for(int j = 0; j < assignmentMatrix[0].length; j++)
-				assignmentMatrix[i][j] = -1;
+		Route route = solution.getRoutes().get(selectedRoute);
 		
-		ArrayList<Integer> routesToAssign = new ArrayList<Integer>();
-		for(int i = 0; i < solution.getNumberRoutes(); i++)
-			routesToAssign.add(i);
+		int indexInRoute = route.indexOf(currentTask);
+		Route previous = new Route(route);
 		
-		ArrayList<Integer> indexes = new ArrayList<Integer>();
-		for(int j = 0; j < resourcesByShift.get(1).size(); j++)
-			for(int i = 0; i < resourcesByShift.size(); i++)
-				indexes.add(resourcesByShift.get(i+1).get(j) - 1);
+		route.truncate(indexInRoute);
+		route.addTask(instance, callback, 
+				instance.getDistance(route.getLastLocation(), callback.getLocation()), 
+				instance.getTravTime(route.getLastLocation(), callback.getLocation()));
 		
-		while(!routesToAssign.isEmpty()) {
-			int routeIndex = routesToAssign.get(0);
-			boolean assigned = false;
-			
-			for(Integer i : indexes) {
-//			for(int i = 0; i < assignmentMatrix.length; i++) {
-				for(int j = 0; j < assignmentMatrix[0].length; j++) {
-
-					if(assignmentMatrix[i][j] == -1) {
-						assignmentMatrix[i][j] = routeIndex;
-						routesToAssign.remove((Integer) routeIndex);
-						if(solution.getRoutes().get(routeIndex).isCollaborative()) {
-							ArrayList<Integer> relatedRoutes = new ArrayList<Integer>();
-							for(int k = 0; k < routesToAssign.size(); k++) {
-								if(solution.getRoutes().get(routeIndex).isRelated(instance, solution.getRoutes().get(routesToAssign.get(k)))) {
-									relatedRoutes.add(routesToAssign.get(k));
-								}
-							}
-							
-							for(int t = 0; t < relatedRoutes.size(); t++) {
-								for(int k = 0; k < routesToAssign.size(); k++) {
-									if(solution.getRoutes().get(relatedRoutes.get(t)).isRelated(instance, solution.getRoutes().get(routesToAssign.get(k))) 
-											&& !relatedRoutes.contains(routesToAssign.get(k))) {
-										relatedRoutes.add(routesToAssign.get(k));
-									}
-								}
-							}
-							
-							int auxi = 1;
-							for(Integer relRouteIndex : relatedRoutes) {
-									assignmentMatrix[i+auxi][j] = relRouteIndex;
-									routesToAssign.remove((Integer) relRouteIndex);
-									auxi++;
-							}							
-						}
-
-						assigned = true;
-						break;
-					}
-				}
-				if(assigned) break;
+		for(int j = indexInRoute + 1; j < previous.size(); j++) {
+			if(!instance.isTask(previous.getRouteTask(j))) {
+				route.addTask(previous, j, 
+						instance.getDistance(route.getLastLocation(), previous.getLocation(j)), 
+						instance.getTravTime(route.getLastLocation(), previous.getLocation(j)));
+			} else {
+				tasksToSchedule.add(previous.getRouteTask(j));
 			}
 		}
 		
-		solution.setResourceDayRoute(assignmentMatrix);
-		
-		for(int j = 0; j < assignmentMatrix[0].length; j++) {
-			for(int i = 0; i < assignmentMatrix.length; i++) {
-				if(assignmentMatrix[i][j] != -1) routesByDay.get(j).add(assignmentMatrix[i][j]);
-			}
-		}
-			
-	}
-
-	private void init() {
-		calcNearestDist();
-		calcNearestTimeFrom();
-		calcNearestTimeTo();
-		sortTasksByLocation();
-		sortTasksByDuration();
-		sortLocationsByDemand();
-	}
-
-	private void calcNearestDist() {
-		int index = 0;
-		int lb = 0;
-		int ub = Integer.MAX_VALUE;
-		ArrayList<Integer> assigned = new ArrayList<Integer>();
-
-		for (int i = 0; i < numLocations; i++) {
-			int[] row = instance.getRowDistMatrix(i);
-			for (int t = 0; t < numLocations - 1; t++) {
-				for (int j = 0; j < numLocations; j++) {
-					if (row[j] < ub && row[j] >= lb && j != i && !assigned.contains(j)) {
-						ub = row[j];
-						index = j;
-					}
-				}
-				lb = row[index];
-				ub = Integer.MAX_VALUE;
-				nearestDist[i][t] = index;
-				assigned.add(index);
-			}
-
-			lb = 0;
-			ub = Integer.MAX_VALUE;
-			assigned.clear();
-		}
-
+		return completeWithDisplaced(route, tasksToSchedule, route.getLastLocation());
 	}
 
-	private void calcNearestTimeFrom() {
-		int index = 0;
-		int lb = 0;
-		int ub = Integer.MAX_VALUE;
-		ArrayList<Integer> assigned = new ArrayList<Integer>();
-
-		for (int i = 0; i < numLocations; i++) {
-			int[] row = instance.getRowTimeMatrix(i);
-			for (int t = 0; t < numLocations - 1; t++) {
-				for (int j = 0; j < numLocations; j++) {
-					if (row[j] < ub && row[j] >= lb && j != i && !assigned.contains(j)) {
-						ub = row[j];
-						index = j;
-					}
-				}
-				lb = row[index];
-				ub = Integer.MAX_VALUE;
-				nearestTimeFrom[i][t] = index;
-				assigned.add(index);
-			}
+	// Completes the route with displaced tasks; those left over are returned in their original order
+	private ArrayList<Integer> completeWithDisplaced(Route route, ArrayList<Integer> displaced, int currentPosition) {
+		TaskSet remaining = new TaskSet(instance.getIDBound(), displaced);
+		completeRouteForwardCallback(route, remaining, currentPosition);
 
-			lb = 0;
-			ub = Integer.MAX_VALUE;
-			assigned.clear();
-		}
+		ArrayList<Integer> leftOver = new ArrayList<Integer>(remaining.size());
+		for (int task : displaced)
+			if (remaining.contains(task))
+				leftOver.add(task);
+		return leftOver;
+	}
 
+	// Routes no engineer is left for stay unassigned; they are reported when verbose
+	void mappingResourcesToRoutes(Solution solution) {
+		ArrayList<Integer> unassigned = resourceAssignment.assign(solution);
+		if (verbose)
+			for (int route : unassigned)
+				System.out.println("Error: No engineer left can do route " + route + ".");
 	}
 
-	private void calcNearestTimeTo() {
-		int index = 0;
-		int lb = 0;
-		int ub = Integer.MAX_VALUE;
-		ArrayList<Integer> assigned = new ArrayList<Integer>();
+	/**
+	 * Maps a route added to the solution after the mapping, e.g. an extra route of the
+	 * simulation, to an engineer on the first day from fromDay on that has room for it.
+	 * Returns the day, or -1 if the route stays unassigned.
+	 */
+	public int mapRoute(Solution solution, int route, int fromDay) {
+		return resourceAssignment.assign(solution, route, fromDay);
+	}
 
-		for (int j = 0; j < numLocations; j++) {
-			int[] column = instance.getColTimeMatrix(j);
-			for (int t = 0; t < numLocations - 1; t++) {
-				for (int i = 0; i < numLocations; i++) {
-					if (column[i] < ub && column[i] >= lb && i != j && !assigned.contains(i)) {
-						ub = column[i];
-						index = i;
-					}
+	// Builds solutions by distance, by duration and from randomStarts randomised variants of
+	// the distance heuristic, concurrently, and returns the best: most tasks scheduled, then
+	// lowest total cost, then fewest routes, then the earliest variant
+	public Solution solvePortfolio(int randomStarts, long seed) {
+		final int variants = 2 + randomStarts;
+		final Solution[] solutions = new Solution[variants];
+		final SplittableRandom[] randoms = new SplittableRandom[variants];
+		SplittableRandom root = new SplittableRandom(seed);
+		for (int v = 2; v < variants; v++)
+			randoms[v] = root.split();
+
+		ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				RecursiveAction[] starts = new RecursiveAction[variants];
+				for (int v = 0; v < variants; v++) {
+					final int variant = v;
+					starts[v] = new RecursiveAction() {
+						private static final long serialVersionUID = 1L;
+
+						@Override
+						protected void compute() {
+							solutions[variant] = solveVariant(variant, randoms[variant]);
+						}
+					};
 				}
-				lb = column[index];
-				ub = Integer.MAX_VALUE;
-				nearestTimeTo[j][t] = index;
-				assigned.add(index);
+				invokeAll(starts);
 			}
-
-			lb = 0;
-			ub = Integer.MAX_VALUE;
-			assigned.clear();
-		}
-
+		});
+
+		int best = 0;
+		for (int v = 1; v < variants; v++)
+			if (isBetter(solutions[v], solutions[best]))
+				best = v;
+		if (verbose) System.out.println("Portfolio: variant " + best + " of " + variants);
+		return solutions[best];
 	}
 
-	private void sortTasksByLocation() {
-		for (int i = 0; i < numLocations; i++) {
-			ArrayList<Integer> tasksList = new ArrayList<Integer>();
-			for (int j = 1; j <= instance.getTasks().size(); j++)
-				if (instance.getTask(j).getLocation() == i)
-					tasksList.add(j);
-			tasksByLocation.put(i, tasksList);
+	private Solution solveVariant(int variant, SplittableRandom random) {
+		if (variant == 0)
+			return solveByDistance();
+		if (variant == 1) {
+			Solution solution = solveByDuration();
+			mappingResourcesToRoutes(solution);
+			return solution;
 		}
-
+		return solveByDistance(perturbedLocations(random), random);
 	}
 
-	private void sortTasksByDuration() {
-		ArrayList<Task> tasks = new ArrayList<Task>();
-		for (int i = 1; i <= instance.getTasks().size(); i++)
-			tasks.add(instance.getTask(i));
+	// Demand order with each location moved up to PERTURBATION places away: locations are
+	// sorted by their place plus a random offset in [0, PERTURBATION], ties kept in order, so
+	// none passes a location more than PERTURBATION places ahead or behind
+	private int[] perturbedLocations(SplittableRandom random) {
+		long[] keys = new long[locationsByDemand.length];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = ((long) (i + random.nextInt(PERTURBATION + 1)) << 32) | i;
+		Arrays.sort(keys);
+		int[] locations = new int[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			locations[i] = locationsByDemand[(int) keys[i]];
+		return locations;
+	}
 
-		Collections.sort(tasks);
+	private static final int PERTURBATION = 3;
 
-		for (Task task : tasks)
-			tasksByDuration.add(task.getTaskID());
+	private boolean isBetter(Solution solution, Solution incumbent) {
+		int scheduled = scheduledTasks(solution);
+		int incumbentScheduled = scheduledTasks(incumbent);
+		if (scheduled != incumbentScheduled)
+			return scheduled > incumbentScheduled;
+		if (solution.getTotalCost() != incumbent.getTotalCost())
+			return solution.getTotalCost() < incumbent.getTotalCost();
+		return solution.getNumberRoutes() < incumbent.getNumberRoutes();
+	}
 
+	private int scheduledTasks(Solution solution) {
+		int scheduled = 0;
+		for (Route route : solution.getRoutes())
+			scheduled += route.size();
+		return scheduled;
 	}
 
-	private void sortLocationsByDemand() {
-		ArrayList<Integer> indexes = new ArrayList<Integer>();
-		int minSize = 0;
-		int indexMin = 0;
-		for (int i = 0; i < numLocations; i++) {
-			if (tasksByLocation.get(i).size() <= minSize) {
-				indexMin = i;
-			}
-		}
+	public CandidateCursor forwardCursor() {
+		return new CandidateCursor(instance, nearestTimeFrom, tasksByLocation, true);
+	}
 
-		for (int i = 0; i < numLocations; i++) {
-			int maxindex = indexMin;
-			for (int j = 0; j < numLocations; j++) {
-				if (tasksByLocation.get(j).size() >= tasksByLocation.get(maxindex).size() && !indexes.contains(j)) {
-					maxindex = j;
-				}
-			}
-			locationsByDemand[i] = maxindex;
-			indexes.add(maxindex);
-		}
+	public CandidateCursor backwardCursor() {
+		return new CandidateCursor(instance, nearestTimeTo, tasksByLocation, false);
 	}
 
 	public ArrayList<Integer> getFeasibleTasks(int currentLocation, int consumedTime, int availability) {
-		ArrayList<Integer> feasibleJobs = new ArrayList<Integer>();
-
-		int[] rankedLocations = nearestTimeFrom[currentLocation];
-		for (int i = 0; i < rankedLocations.length; i++) {
-			ArrayList<Integer> candidateTasks = tasksByLocation.get(rankedLocations[i]);
-			for (int j = 0; j < candidateTasks.size(); j++) {
-				if (consumedTime + instance.getTravTime(currentLocation, rankedLocations[i])
-						+ instance.getTask(candidateTasks.get(j)).getDuration() <= availability) {
-					feasibleJobs.add(candidateTasks.get(j));
-				}
-			}
-		}
-
-		return feasibleJobs;
+		return collect(forwardCursor().reset(null, currentLocation, consumedTime, availability - consumedTime));
 	}
 
-	public ArrayList<Integer> getFeasibleTasksToSchedule(ArrayList<Integer> tasksToSchedule, int currentLocation,
+	public ArrayList<Integer> getFeasibleTasksToSchedule(TaskSet tasksToSchedule, int currentLocation,
 			int consumedTime, int availability) {
-		ArrayList<Integer> feasibleJobs = new ArrayList<Integer>();
-
-		int[] rankedLocations = nearestTimeFrom[currentLocation];
-		for (int i = 0; i < rankedLocations.length; i++) {
-			ArrayList<Integer> candidateTasks = tasksByLocation.get(rankedLocations[i]);
-			for (int j = 0; j < candidateTasks.size(); j++) {
-				if (consumedTime + instance.getTravTime(currentLocation, rankedLocations[i])
-						+ instance.getTask(candidateTasks.get(j)).getDuration() <= availability
-						&& tasksToSchedule.contains(candidateTasks.get(j))) {
-					feasibleJobs.add(candidateTasks.get(j));
-				}
-			}
-		}
-
-		return feasibleJobs;
+		return collect(forwardCursor().reset(tasksToSchedule, currentLocation, consumedTime, availability - consumedTime));
 	}
 
-	public ArrayList<Integer> getFeasiblePreviousTasks(ArrayList<Integer> tasksToSchedule, int currentLocation,
+	public ArrayList<Integer> getFeasiblePreviousTasks(TaskSet tasksToSchedule, int currentLocation,
 			int endColTime, int durationCol) {
-		int availability = endColTime - durationCol;
-		ArrayList<Integer> feasibleJobs = new ArrayList<Integer>();
-
-		int[] rankedLocations = nearestTimeTo[currentLocation];
-		for (int i = 0; i < rankedLocations.length; i++) {
-			ArrayList<Integer> candidateTasks = tasksByLocation.get(rankedLocations[i]);
-			for (int j = 0; j < candidateTasks.size(); j++) {
-				if (instance.getTravTime(rankedLocations[i], currentLocation)
-						+ instance.getTask(candidateTasks.get(j)).getDuration() <= availability
-						&& tasksToSchedule.contains(candidateTasks.get(j))) {
-					feasibleJobs.add(candidateTasks.get(j));
-				}
-			}
-		}
+		return collect(backwardCursor().reset(tasksToSchedule, currentLocation, endColTime - durationCol));
+	}
 
+	private ArrayList<Integer> collect(CandidateCursor cursor) {
+		ArrayList<Integer> feasibleJobs = new ArrayList<Integer>();
+		for (int task = cursor.next(); task != -1; task = cursor.next())
+			feasibleJobs.add(task);
 		return feasibleJobs;
 	}
 	
-	private int selectedRoute(Solution solution, ArrayList<Integer> affectedRoutes, int timeEvent, int callbackLocation) {
+	// Engineer positions are kept with the solution for the day of its last callback, and reused
+	// while callbacks arrive in time order
+	public PositionIndex positionIndex(Solution solution, int day) {
+		PositionIndex positionIndex = solution.getPositionIndex();
+		if (positionIndex == null || positionIndex.getDay() != day) {
+			positionIndex = new PositionIndex(instance, nearestTimeTo, solution, day);
+			solution.setPositionIndex(positionIndex);
+		}
+		return positionIndex;
+	}
+
+	// Closest engineer of the day to the callback; the first of the day's routes on ties
+	private int selectedRoute(Solution solution, ArrayList<Integer> affectedRoutes, int dayEvent, int timeEvent, int callbackLocation) {
+		int[] nearestRoute = new int[1];
+		if(positionIndex(solution, dayEvent).nearest(callbackLocation, timeEvent, 1, nearestRoute) > 0)
+			return nearestRoute[0];
+		return scanSelectedRoute(solution, affectedRoutes, timeEvent, callbackLocation);
+	}
+
+	private int scanSelectedRoute(Solution solution, ArrayList<Integer> affectedRoutes, int timeEvent, int callbackLocation) {
 		int selectedRoute = affectedRoutes.get(0);
-		int taskAtTime = solution.getRoutes().get(affectedRoutes.get(0)).getTaskAtTime(timeEvent);
-		int currentLocation = getTaskOrCallback(taskAtTime).getLocation();
+		Route route = solution.getRoutes().get(selectedRoute);
+		int currentLocation = route.getLocation(route.getPositionAtTime(timeEvent));
 		int closestTime = instance.getTravTime(currentLocation, callbackLocation);
-		for(Integer route : affectedRoutes) {
-			taskAtTime = solution.getRoutes().get(route).getTaskAtTime(timeEvent);
-			currentLocation = getTaskOrCallback(taskAtTime).getLocation();
+		for(int i = 0; i < affectedRoutes.size(); i++) {
+			route = solution.getRoutes().get(affectedRoutes.get(i));
+			currentLocation = route.getLocation(route.getPositionAtTime(timeEvent));
 			int candTime = instance.getTravTime(currentLocation, callbackLocation);
 			if(candTime < closestTime) {
-				selectedRoute = route;
+				selectedRoute = affectedRoutes.get(i);
 				closestTime = candTime;
 			}
 		}
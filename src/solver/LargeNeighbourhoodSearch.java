@@ -0,0 +1,552 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import problem.Instance;
+
+/**
+ * Adaptive large neighbourhood search over a whole solution, for re-planning
+ * the horizon within a wall-clock budget.
+ *
+ * Each iteration removes some tasks from a copy of the current solution and
+ * inserts them back. Tasks are removed at random, by relatedness (tasks at the
+ * locations nearest to an already removed one, by nearestTimeFrom), by worst
+ * cost (largest travel saving, with some randomness) or by day (whole routes of
+ * one day). They are inserted back either at their cheapest position, longest
+ * task first, or by first extending routes with completeRouteForwardCallback
+ * and placing the rest at their cheapest position. A new route is only opened,
+ * the way solveByDistance does, for a task no used route can take and while
+ * engineer days are left. Operators are drawn with adaptive weights, the
+ * result is accepted by simulated annealing, and scheduling every task comes
+ * before total cost.
+ *
+ * Several workers search in parallel, each with its own random stream and
+ * operator weights. They share the best solution found, and a worker that has
+ * not improved on its own for a while restarts from it. As in LocalSearch,
+ * collaborative routes, routes with waiting time and routes with callbacks are
+ * kept as they are. At the end empty routes are dropped and resources are
+ * assigned to the routes again.
+ */
+public class LargeNeighbourhoodSearch {
+
+	private final Instance instance;
+	private final Insertion insertion;
+	private final Ranking nearestTimeFrom;
+	private final int[][] tasksByLocation;
+	private final List<Integer> tasksByDuration;
+
+	private int workers;
+	private boolean verbose = true;
+
+	// Set for a search: routes kept as they are, and the deadline
+	private boolean[] fixed;
+	private long deadline;
+
+	// Best solution shared by the workers, guarded by this
+	private Solution best;
+	private long bestObjective;
+	private long iterations;
+
+	private static final int DESTROY_RANDOM = 0;
+	private static final int DESTROY_RELATED = 1;
+	private static final int DESTROY_WORST = 2;
+	private static final int DESTROY_DAY = 3;
+	private static final int REPAIR_CHEAPEST = 0;
+	private static final int REPAIR_FORWARD = 1;
+
+	private static final int MIN_REMOVED = 4;
+	private static final int MAX_REMOVED = 40;
+	private static final double REMOVED_FRACTION = 0.15;
+	private static final double WORST_RANDOMNESS = 3;
+
+	// Adaptive weights: scores per outcome, updated every SEGMENT iterations
+	private static final double SCORE_BEST = 33;
+	private static final double SCORE_BETTER = 9;
+	private static final double SCORE_ACCEPTED = 13;
+	private static final double REACTION = 0.1;
+	private static final int SEGMENT = 100;
+
+	// A solution 5% worse is first accepted with probability 1/2, at the end 1/100 of that
+	private static final double START_WORSENING = 0.05;
+	private static final double END_TEMPERATURE_RATIO = 0.01;
+	private static final int RESTART_AFTER = 2000;
+
+	private static final long UNSCHEDULED_PENALTY = 100000;
+
+	public LargeNeighbourhoodSearch(Instance instance) {
+		this(instance, Preprocessing.of(instance));
+	}
+
+	public LargeNeighbourhoodSearch(Instance instance, Preprocessing preprocessing) {
+		preprocessing.checkInstance(instance);
+		this.instance = instance;
+		this.insertion = new Insertion(instance, preprocessing);
+		this.nearestTimeFrom = preprocessing.getNearestTimeFrom();
+		this.tasksByLocation = preprocessing.getTasksByLocation();
+		this.tasksByDuration = preprocessing.getTasksByDuration();
+		this.workers = Runtime.getRuntime().availableProcessors();
+	}
+
+	public int getWorkers() {
+		return workers;
+	}
+
+	public void setWorkers(int workers) {
+		if (workers < 1)
+			throw new IllegalArgumentException("At least one worker is needed.");
+		this.workers = workers;
+	}
+
+	public boolean isVerbose() {
+		return verbose;
+	}
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/** Iterations run by all workers in the last search. */
+	public long getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * Searches from the solution, which is left unchanged, until the budget runs
+	 * out, and returns the best solution found with resources assigned.
+	 */
+	public Solution solve(Solution initial, long budgetMillis, long seed) {
+		deadline = System.nanoTime() + budgetMillis * 1000000L;
+		fixed = new boolean[initial.size()];
+		for (int r = 0; r < initial.size(); r++) {
+			Route route = initial.getRoute(r);
+			fixed[r] = !route.isEmpty() && !LocalSearch.isMovable(instance, route);
+		}
+
+		best = new Solution(initial);
+		bestObjective = objective(best, unscheduled(best).size());
+		iterations = 0;
+		long initialObjective = bestObjective;
+
+		final Worker[] searches = new Worker[workers];
+		SplittableRandom root = new SplittableRandom(seed);
+		for (int w = 0; w < workers; w++)
+			searches[w] = new Worker(root.split());
+
+		ForkJoinPool pool = new ForkJoinPool(workers);
+		try {
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					invokeAll(searches);
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+
+		Solution result = new Solution(instance.getMandays(), instance.getShiftDuration());
+		for (Route route : best.getRoutes())
+			if (!route.isEmpty())
+				result.addRoute(new Route(route));
+		TaskSet left = unscheduled(best);
+		for (int task : initial.getUnschedulableTasks())
+			if (left.contains(task))
+				result.addUnschedulableTask(task);
+		insertion.mappingResourcesToRoutes(result);
+
+		if (verbose)
+			System.out.println("ALNS: " + iterations + " iterations by " + workers + " workers, objective "
+					+ initialObjective + " -> " + bestObjective);
+		return result;
+	}
+
+	private long objective(Solution solution, int unscheduled) {
+		return unscheduled * UNSCHEDULED_PENALTY + solution.getTotalCost();
+	}
+
+	// Tasks in no route; collaboration tasks are left out as they cannot be placed alone
+	private TaskSet unscheduled(Solution solution) {
+		TaskSet unscheduled = new TaskSet(instance.getIDBound());
+		for (int t = 0; t < instance.getNumberTasks(); t++)
+			if (!instance.isCollaboration(instance.getTaskID(t)))
+				unscheduled.add(instance.getTaskID(t));
+		for (Route route : solution.getRoutes())
+			for (int p = 0; p < route.size(); p++)
+				unscheduled.remove(route.getRouteTask(p));
+		return unscheduled;
+	}
+
+	private synchronized boolean offer(Solution solution, long objective) {
+		if (objective >= bestObjective)
+			return false;
+		best = new Solution(solution);
+		bestObjective = objective;
+		return true;
+	}
+
+	private synchronized Solution copyOfBest() {
+		return new Solution(best);
+	}
+
+	private synchronized void addIterations(long count) {
+		iterations += count;
+	}
+
+	private boolean isFixed(int route) {
+		return route < fixed.length && fixed[route];
+	}
+
+	private int link(int a, int b) {
+		return a < 0 || b < 0 ? 0 : instance.getTravTime(a, b);
+	}
+
+	private class Worker extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final SplittableRandom random;
+
+		private final double[] destroyWeights = { 1, 1, 1, 1 };
+		private final double[] destroyScores = new double[4];
+		private final int[] destroyUses = new int[4];
+		private final double[] repairWeights = { 1, 1 };
+		private final double[] repairScores = new double[2];
+		private final int[] repairUses = new int[2];
+
+		private Solution current;
+		private long currentObjective;
+		private int[] buffer = new int[16];
+
+		// Movable tasks of the solution being destroyed, with their route and position
+		private int[] movable;
+		private int movableCount;
+		private int[] routeOf;
+		private int[] positionOf;
+		private int[] movableMark;
+		private int generation;
+
+		Worker(SplittableRandom random) {
+			this.random = random;
+			this.routeOf = new int[instance.getIDBound()];
+			this.positionOf = new int[instance.getIDBound()];
+			this.movable = new int[instance.getIDBound()];
+			this.movableMark = new int[instance.getIDBound()];
+		}
+
+		@Override
+		protected void compute() {
+			long start = System.nanoTime();
+			restart();
+			double startTemperature = START_WORSENING * Math.max(current.getTotalCost(), 1) / Math.log(2);
+			long workerBest = currentObjective;
+			int sinceImprovement = 0;
+			long count = 0;
+
+			long now;
+			while ((now = System.nanoTime()) < deadline) {
+				int destroy = select(destroyWeights);
+				int repair = select(repairWeights);
+
+				Solution candidate = new Solution(current);
+				TaskSet removed = unscheduled(candidate);
+				destroy(destroy, candidate, removed);
+				repair(repair, candidate, removed);
+				long objective = objective(candidate, removed.size());
+
+				double progress = (double) (now - start) / (deadline - start);
+				double temperature = startTemperature * Math.pow(END_TEMPERATURE_RATIO, progress);
+				double score = 0;
+				if (objective < currentObjective || random.nextDouble() < Math.exp((currentObjective - objective) / temperature)) {
+					if (offer(candidate, objective))
+						score = SCORE_BEST;
+					else if (objective < currentObjective)
+						score = SCORE_BETTER;
+					else
+						score = SCORE_ACCEPTED;
+					current = candidate;
+					currentObjective = objective;
+				}
+
+				if (currentObjective < workerBest) {
+					workerBest = currentObjective;
+					sinceImprovement = 0;
+				} else if (++sinceImprovement >= RESTART_AFTER) {
+					restart();
+					workerBest = currentObjective;
+					sinceImprovement = 0;
+				}
+
+				destroyScores[destroy] += score;
+				destroyUses[destroy]++;
+				repairScores[repair] += score;
+				repairUses[repair]++;
+				if (++count % SEGMENT == 0) {
+					adapt(destroyWeights, destroyScores, destroyUses);
+					adapt(repairWeights, repairScores, repairUses);
+				}
+			}
+			addIterations(count);
+		}
+
+		private void restart() {
+			current = copyOfBest();
+			currentObjective = objective(current, unscheduled(current).size());
+		}
+
+		private int select(double[] weights) {
+			double total = 0;
+			for (double weight : weights)
+				total += weight;
+			double u = random.nextDouble() * total;
+			for (int i = 0; i < weights.length - 1; i++) {
+				u -= weights[i];
+				if (u < 0)
+					return i;
+			}
+			return weights.length - 1;
+		}
+
+		private void adapt(double[] weights, double[] scores, int[] uses) {
+			for (int i = 0; i < weights.length; i++) {
+				if (uses[i] > 0)
+					weights[i] = (1 - REACTION) * weights[i] + REACTION * scores[i] / uses[i];
+				weights[i] = Math.max(weights[i], 0.01);
+				scores[i] = 0;
+				uses[i] = 0;
+			}
+		}
+
+		// Destroy operators
+
+		private void destroy(int operator, Solution solution, TaskSet removed) {
+			collectMovable(solution);
+			if (movableCount == 0)
+				return;
+			int limit = Math.max(MIN_REMOVED, Math.min(MAX_REMOVED, (int) (movableCount * REMOVED_FRACTION)));
+			int q = Math.min(movableCount, MIN_REMOVED + random.nextInt(limit - MIN_REMOVED + 1));
+
+			TaskSet taken = new TaskSet(instance.getIDBound());
+			if (operator == DESTROY_RELATED)
+				removeRelated(taken, q);
+			else if (operator == DESTROY_WORST)
+				removeWorst(solution, taken, q);
+			else if (operator != DESTROY_DAY || !removeDay(solution, taken, q))
+				removeRandom(taken, q);
+
+			for (int r = 0; r < solution.size(); r++) {
+				if (isFixed(r))
+					continue;
+				Route route = solution.getRoute(r);
+				int n = 0;
+				for (int p = 0; p < route.size(); p++) {
+					int task = route.getRouteTask(p);
+					if (!taken.contains(task))
+						buffer[n++] = task;
+				}
+				if (n < route.size())
+					LocalSearch.rebuild(instance, route, buffer, n);
+			}
+			for (int i = 0; i < taken.size(); i++)
+				removed.add(taken.get(i));
+		}
+
+		private void collectMovable(Solution solution) {
+			movableCount = 0;
+			generation++;
+			for (int r = 0; r < solution.size(); r++) {
+				if (isFixed(r))
+					continue;
+				Route route = solution.getRoute(r);
+				if (buffer.length < route.size())
+					buffer = new int[2 * route.size()];
+				for (int p = 0; p < route.size(); p++) {
+					int task = route.getRouteTask(p);
+					movable[movableCount++] = task;
+					movableMark[task] = generation;
+					routeOf[task] = r;
+					positionOf[task] = p;
+				}
+			}
+		}
+
+		private void removeRandom(TaskSet taken, int q) {
+			for (int i = 0; i < q; i++) {
+				int j = i + random.nextInt(movableCount - i);
+				int task = movable[j];
+				movable[j] = movable[i];
+				movable[i] = task;
+				taken.add(task);
+			}
+		}
+
+		// From a random task, repeatedly takes the movable task closest to one already taken
+		private void removeRelated(TaskSet taken, int q) {
+			taken.add(movable[random.nextInt(movableCount)]);
+			while (taken.size() < q) {
+				int location = instance.getLocation(taken.get(random.nextInt(taken.size())));
+				int task = relatedAt(location, taken);
+				int[] ranked = nearestTimeFrom.row(location);
+				for (int k = 0; task < 0 && k < nearestTimeFrom.size(); k++) {
+					if (k == ranked.length)
+						ranked = nearestTimeFrom.fullRow(location);
+					task = relatedAt(ranked[k], taken);
+				}
+				if (task < 0)
+					break;
+				taken.add(task);
+			}
+		}
+
+		private int relatedAt(int location, TaskSet taken) {
+			for (int task : tasksByLocation[location])
+				if (!taken.contains(task) && isMovable(task))
+					return task;
+			return -1;
+		}
+
+		private boolean isMovable(int task) {
+			return movableMark[task] == generation;
+		}
+
+		// Takes tasks by decreasing travel saved by their removal, skipping ahead at random
+		private void removeWorst(Solution solution, TaskSet taken, int q) {
+			long[] keys = new long[movableCount];
+			for (int i = 0; i < movableCount; i++) {
+				int task = movable[i];
+				Route route = solution.getRoute(routeOf[task]);
+				int p = positionOf[task];
+				int previous = p > 0 ? route.getLocation(p - 1) : -1;
+				int next = p + 1 < route.size() ? route.getLocation(p + 1) : -1;
+				int location = route.getLocation(p);
+				int saving = link(previous, location) + link(location, next) - link(previous, next);
+				keys[i] = ((long) -saving << 32) | i;
+			}
+			Arrays.sort(keys);
+
+			ArrayList<Integer> order = new ArrayList<Integer>(movableCount);
+			for (long key : keys)
+				order.add(movable[(int) key]);
+			for (int i = 0; i < q; i++) {
+				int index = (int) (Math.pow(random.nextDouble(), WORST_RANDOMNESS) * order.size());
+				taken.add(order.remove(index));
+			}
+		}
+
+		// Takes whole routes of a random day until enough tasks are taken; false if the day has none
+		private boolean removeDay(Solution solution, TaskSet taken, int q) {
+			int days = solution.getRoutesByDay().size();
+			if (days == 0)
+				return false;
+			ArrayList<Integer> dayRoutes = solution.getRoutesByDay(random.nextInt(days));
+			if (dayRoutes == null)
+				return false;
+			ArrayList<Integer> routes = new ArrayList<Integer>();
+			for (int r : dayRoutes)
+				if (!isFixed(r) && !solution.getRoute(r).isEmpty())
+					routes.add(r);
+			if (routes.isEmpty())
+				return false;
+
+			for (int i = 0; i < routes.size() && taken.size() < q; i++) {
+				int j = i + random.nextInt(routes.size() - i);
+				int r = routes.get(j);
+				routes.set(j, routes.get(i));
+				Route route = solution.getRoute(r);
+				for (int p = 0; p < route.size(); p++)
+					taken.add(route.getRouteTask(p));
+			}
+			return true;
+		}
+
+		// Repair operators
+
+		private void repair(int operator, Solution solution, TaskSet removed) {
+			if (operator == REPAIR_FORWARD) {
+				int n = solution.size();
+				int offset = n == 0 ? 0 : random.nextInt(n);
+				for (int i = 0; i < n && !removed.isEmpty(); i++) {
+					int r = (offset + i) % n;
+					Route route = solution.getRoute(r);
+					if (!isFixed(r) && !route.isEmpty())
+						insertion.completeRouteForwardCallback(route, removed, route.getLastLocation());
+				}
+			}
+
+			for (int i = 0; i < tasksByDuration.size() && !removed.isEmpty(); i++) {
+				int task = tasksByDuration.get(i);
+				if (!removed.contains(task))
+					continue;
+				if (insertCheapest(solution, task)) {
+					removed.remove(task);
+					continue;
+				}
+				Route route = openRoute(solution);
+				if (route == null || !route.canInsert(instance, 0, task))
+					continue;
+				route.addTask(instance, task, 0, 0, instance.getDuration(task));
+				removed.remove(task);
+				if (operator == REPAIR_FORWARD)
+					insertion.completeRouteForwardCallback(route, removed, route.getLastLocation());
+			}
+		}
+
+		// Inserts the task where it adds the least travel time among the used routes. Each
+		// position is checked against the capacity and the time windows in constant time from
+		// the forward slack of the route.
+		private boolean insertCheapest(Solution solution, int task) {
+			int location = instance.getLocation(task);
+			int bestRoute = -1;
+			int bestPosition = -1;
+			int bestDelta = Integer.MAX_VALUE;
+			for (int r = 0; r < solution.size(); r++) {
+				Route route = solution.getRoute(r);
+				if (isFixed(r) || route.isEmpty())
+					continue;
+				for (int p = 0; p <= route.size(); p++) {
+					int previous = p > 0 ? route.getLocation(p - 1) : -1;
+					int next = p < route.size() ? route.getLocation(p) : -1;
+					int delta = link(previous, location) + link(location, next) - link(previous, next);
+					if (delta < bestDelta && route.canInsert(instance, p, task)) {
+						bestDelta = delta;
+						bestRoute = r;
+						bestPosition = p;
+					}
+				}
+			}
+			if (bestRoute < 0)
+				return false;
+
+			Route route = solution.getRoute(bestRoute);
+			if (buffer.length <= route.size())
+				buffer = new int[2 * (route.size() + 1)];
+			int n = 0;
+			for (int p = 0; p < route.size(); p++) {
+				if (p == bestPosition)
+					buffer[n++] = task;
+				buffer[n++] = route.getRouteTask(p);
+			}
+			if (bestPosition == route.size())
+				buffer[n++] = task;
+			LocalSearch.rebuild(instance, route, buffer, n);
+			return true;
+		}
+
+		// An emptied route, or a new one while engineer days are left; null otherwise
+		private Route openRoute(Solution solution) {
+			for (int r = 0; r < solution.size(); r++)
+				if (!isFixed(r) && solution.getRoute(r).isEmpty())
+					return solution.getRoute(r);
+			if (solution.getNumberRoutes() >= instance.getMandays())
+				return null;
+			Route route = new Route(instance.getShiftDuration());
+			solution.addRoute(route);
+			return route;
+		}
+	}
+}
@@ -0,0 +1,440 @@
+package solver;
+
+import java.util.Arrays;
+
+import problem.Instance;
+
+/**
+ * Improves a constructed solution within a wall-clock budget by relocate,
+ * swap, 2-opt and or-opt moves, inside and between routes, accepting the
+ * first move found that lowers total travel time.
+ *
+ * Moves are only tried between a task and the tasks at its nearest locations
+ * (the first NEIGHBOURS entries of nearestTimeFrom and nearestTimeTo, plus its
+ * own location). Routes are held as position arrays with prefix sums of the
+ * travel time in both directions, so the delta and the shift length of any
+ * move are evaluated in constant time; only routes changed by a move are
+ * rebuilt.
+ *
+ * Collaborative routes, routes with waiting time and routes holding callbacks
+ * or tasks with time windows are left alone, since their timing cannot be moved
+ * freely. A route is never
+ * emptied, so the resource assignment of the solution stays valid, and a task
+ * only moves to a route whose engineer can do it.
+ */
+public class LocalSearch {
+
+	private final Instance instance;
+	private final Ranking nearestTimeFrom;
+	private final Ranking nearestTimeTo;
+	private final int[][] tasksByLocation;
+
+	// Working copy of the eligible routes
+	private int[] routeIndex;
+	private int[][] tasks;
+	private int[][] locations;
+	private int[] size;
+	private int[] capacity;
+	private int[] workTime;
+	private long[] assigned;
+	private int[] resource;
+	private int[][] forward;
+	private int[][] backward;
+	private boolean[] changed;
+
+	// Eligible route (slot) and position of each task, -1 when the task is not movable
+	private int[] slotOf;
+	private int[] positionOf;
+
+	private int moves;
+
+	private static final int NEIGHBOURS = 8;
+	private static final int MAX_CHAIN = 3;
+
+	public LocalSearch(Instance instance) {
+		this(instance, Preprocessing.of(instance));
+	}
+
+	public LocalSearch(Instance instance, Preprocessing preprocessing) {
+		preprocessing.checkInstance(instance);
+		this.instance = instance;
+		this.nearestTimeFrom = preprocessing.getNearestTimeFrom();
+		this.nearestTimeTo = preprocessing.getNearestTimeTo();
+		this.tasksByLocation = preprocessing.getTasksByLocation();
+	}
+
+	/** Improves the solution in place until no move helps or the budget runs out; returns the moves applied. */
+	public int improve(Solution solution, long budgetMillis) {
+		return improve(solution, budgetMillis, Integer.MAX_VALUE);
+	}
+
+	// Stops after the given number of moves as well, so tests can check the moves one by one
+	int improve(Solution solution, long budgetMillis, int maxMoves) {
+		long deadline = System.nanoTime() + budgetMillis * 1000000L;
+		load(solution);
+		moves = 0;
+
+		boolean improved = true;
+		while (improved && moves < maxMoves && System.nanoTime() < deadline) {
+			improved = false;
+			for (int t = 0; t < instance.getNumberTasks(); t++) {
+				int task = instance.getTaskID(t);
+				if (slotOf[task] < 0)
+					continue;
+				if (improveTask(task))
+					improved = true;
+				if (moves >= maxMoves || System.nanoTime() >= deadline)
+					break;
+			}
+		}
+
+		store(solution);
+		return moves;
+	}
+
+	private boolean improveTask(int u) {
+		int location = instance.getLocation(u);
+		if (tryAgainst(u, tasksByLocation[location]))
+			return true;
+		int[] from = nearestTimeFrom.row(location);
+		int[] to = nearestTimeTo.row(location);
+		for (int k = 0; k < NEIGHBOURS && k < from.length; k++) {
+			if (tryAgainst(u, tasksByLocation[from[k]]) || tryAgainst(u, tasksByLocation[to[k]]))
+				return true;
+		}
+		return false;
+	}
+
+	private boolean tryAgainst(int u, int[] candidates) {
+		for (int v : candidates) {
+			if (v == u || slotOf[v] < 0 || slotOf[u] < 0)
+				continue;
+			for (int length = 1; length <= MAX_CHAIN; length++) {
+				if (relocate(u, length, v, true) || relocate(u, length, v, false))
+					return true;
+			}
+			if (swap(u, v) || twoOpt(u, v))
+				return true;
+		}
+		return false;
+	}
+
+	// Moves the chain of length tasks starting at u right after (or before) v; length 1 is a
+	// relocate, longer chains an or-opt move
+	private boolean relocate(int u, int length, int v, boolean after) {
+		int from = slotOf[u];
+		int start = positionOf[u];
+		int end = start + length - 1;
+		if (end >= size[from])
+			return false;
+		int to = slotOf[v];
+		int target = positionOf[v];
+		if (from == to && target >= start && target <= end)
+			return false;
+		if (from != to && size[from] == length)
+			return false;
+
+		int[] loc = locations[from];
+		int prev = start > 0 ? loc[start - 1] : -1;
+		int next = end + 1 < size[from] ? loc[end + 1] : -1;
+		int removal = link(prev, next) - link(prev, loc[start]) - link(loc[end], next);
+
+		// Neighbours of the insertion point once the chain is out of the route
+		int a, b;
+		if (after) {
+			a = target;
+			b = target + 1;
+			if (from == to && b == start) b = end + 1;
+		} else {
+			b = target;
+			a = target - 1;
+			if (from == to && a == end) a = start - 1;
+		}
+		int aLoc = a >= 0 ? locations[to][a] : -1;
+		int bLoc = b < size[to] ? locations[to][b] : -1;
+		int insertion = link(aLoc, loc[start]) + link(loc[end], bLoc) - link(aLoc, bLoc);
+
+		int delta = removal + insertion;
+		if (delta >= 0)
+			return false;
+
+		int chainTime = forward[from][end] - forward[from][start];
+		for (int i = start; i <= end; i++)
+			chainTime += instance.getDuration(tasks[from][i]);
+		if (from == to) {
+			if (routeTime(from) + delta > capacity[from])
+				return false;
+		} else if (routeTime(to) + insertion + chainTime > capacity[to]) {
+			return false;
+		}
+		if (from != to) {
+			long chainCompatibility = Instance.ALL_RESOURCES;
+			for (int i = start; i <= end; i++) {
+				chainCompatibility &= instance.getCompatibility(tasks[from][i]);
+				if (!canDo(to, tasks[from][i]))
+					return false;
+			}
+			if (!fits(to, -1, chainCompatibility))
+				return false;
+		}
+
+		int[] chain = new int[length];
+		System.arraycopy(tasks[from], start, chain, 0, length);
+		removeRange(from, start, length);
+		int insertAt = after ? positionOf[v] + 1 : positionOf[v];
+		insertRange(to, insertAt, chain);
+		moves++;
+		return true;
+	}
+
+	private boolean swap(int u, int v) {
+		int su = slotOf[u], sv = slotOf[v];
+		int pu = positionOf[u], pv = positionOf[v];
+		if (su == sv && pv < pu) {
+			int t = u; u = v; v = t;
+			pu = positionOf[u];
+			pv = positionOf[v];
+		}
+		int lu = instance.getLocation(u), lv = instance.getLocation(v);
+		int prevU = pu > 0 ? locations[su][pu - 1] : -1;
+		int nextU = pu + 1 < size[su] ? locations[su][pu + 1] : -1;
+		int prevV = pv > 0 ? locations[sv][pv - 1] : -1;
+		int nextV = pv + 1 < size[sv] ? locations[sv][pv + 1] : -1;
+
+		int deltaU, deltaV;
+		if (su == sv && pv == pu + 1) {
+			deltaU = link(prevU, lv) + link(lv, lu) + link(lu, nextV) - link(prevU, lu) - link(lu, lv) - link(lv, nextV);
+			deltaV = 0;
+		} else {
+			deltaU = link(prevU, lv) + link(lv, nextU) - link(prevU, lu) - link(lu, nextU);
+			deltaV = link(prevV, lu) + link(lu, nextV) - link(prevV, lv) - link(lv, nextV);
+		}
+		if (deltaU + deltaV >= 0)
+			return false;
+
+		int work = instance.getDuration(v) - instance.getDuration(u);
+		if (su == sv) {
+			if (routeTime(su) + deltaU + deltaV > capacity[su])
+				return false;
+		} else if (routeTime(su) + deltaU + work > capacity[su] || routeTime(sv) + deltaV - work > capacity[sv]) {
+			return false;
+		} else if (!fits(su, pu, instance.getCompatibility(v)) || !fits(sv, pv, instance.getCompatibility(u))
+				|| !canDo(su, v) || !canDo(sv, u)) {
+			return false;
+		}
+
+		set(su, pu, v);
+		set(sv, pv, u);
+		refresh(su);
+		if (sv != su)
+			refresh(sv);
+		moves++;
+		return true;
+	}
+
+	// Reverses the part of the route between u and v so that they become consecutive
+	private boolean twoOpt(int u, int v) {
+		int slot = slotOf[u];
+		if (slotOf[v] != slot)
+			return false;
+		int pu = positionOf[u], pv = positionOf[v];
+		int i, j;
+		if (pu < pv) {
+			i = pu + 1;
+			j = pv;
+		} else {
+			i = pv;
+			j = pu - 1;
+		}
+		if (j - i < 1)
+			return false;
+
+		int[] loc = locations[slot];
+		int prev = i > 0 ? loc[i - 1] : -1;
+		int next = j + 1 < size[slot] ? loc[j + 1] : -1;
+		int before = link(prev, loc[i]) + (forward[slot][j] - forward[slot][i]) + link(loc[j], next);
+		int after = link(prev, loc[j]) + (backward[slot][j] - backward[slot][i]) + link(loc[i], next);
+		int delta = after - before;
+		if (delta >= 0 || routeTime(slot) + delta > capacity[slot])
+			return false;
+
+		for (int l = i, r = j; l < r; l++, r--) {
+			int t = tasks[slot][l];
+			set(slot, l, tasks[slot][r]);
+			set(slot, r, t);
+		}
+		refresh(slot);
+		moves++;
+		return true;
+	}
+
+	// Whether the engineer of the route can do its tasks, but the one at skip, together with
+	// tasks of the given compatibility
+	private boolean fits(int slot, int skip, long compatibility) {
+		compatibility &= assigned[slot];
+		for (int p = 0; p < size[slot] && compatibility != 0; p++)
+			if (p != skip)
+				compatibility &= instance.getCompatibility(tasks[slot][p]);
+		return compatibility != 0;
+	}
+
+	// Whether the engineer of the route, if it has one, can do the task; the class bits in fits
+	// already tell when they are exact
+	private boolean canDo(int slot, int task) {
+		return resource[slot] < 0 || instance.hasExactClasses() || instance.isCompatible(task, resource[slot]);
+	}
+
+	private int link(int a, int b) {
+		return a < 0 || b < 0 ? 0 : instance.getTravTime(a, b);
+	}
+
+	private int routeTime(int slot) {
+		return size[slot] == 0 ? 0 : forward[slot][size[slot] - 1] + workTime[slot];
+	}
+
+	private void set(int slot, int position, int task) {
+		tasks[slot][position] = task;
+		locations[slot][position] = instance.getLocation(task);
+		slotOf[task] = slot;
+		positionOf[task] = position;
+	}
+
+	private void removeRange(int slot, int start, int length) {
+		int[] t = tasks[slot];
+		System.arraycopy(t, start + length, t, start, size[slot] - start - length);
+		size[slot] -= length;
+		for (int p = start; p < size[slot]; p++)
+			set(slot, p, t[p]);
+		refresh(slot);
+	}
+
+	private void insertRange(int slot, int at, int[] chain) {
+		if (size[slot] + chain.length > tasks[slot].length) {
+			int length = Math.max(2 * tasks[slot].length, size[slot] + chain.length);
+			tasks[slot] = Arrays.copyOf(tasks[slot], length);
+			locations[slot] = Arrays.copyOf(locations[slot], length);
+			forward[slot] = Arrays.copyOf(forward[slot], length);
+			backward[slot] = Arrays.copyOf(backward[slot], length);
+		}
+		int[] t = tasks[slot];
+		System.arraycopy(t, at, t, at + chain.length, size[slot] - at);
+		System.arraycopy(chain, 0, t, at, chain.length);
+		size[slot] += chain.length;
+		for (int p = at; p < size[slot]; p++)
+			set(slot, p, t[p]);
+		refresh(slot);
+	}
+
+	// Prefix sums of travel time along the route and against it, and the work time
+	private void refresh(int slot) {
+		int[] loc = locations[slot];
+		int work = 0;
+		for (int p = 0; p < size[slot]; p++) {
+			work += instance.getDuration(tasks[slot][p]);
+			if (p == 0) {
+				forward[slot][0] = 0;
+				backward[slot][0] = 0;
+			} else {
+				forward[slot][p] = forward[slot][p - 1] + instance.getTravTime(loc[p - 1], loc[p]);
+				backward[slot][p] = backward[slot][p - 1] + instance.getTravTime(loc[p], loc[p - 1]);
+			}
+		}
+		workTime[slot] = work;
+		changed[slot] = true;
+	}
+
+	private void load(Solution solution) {
+		int eligible = 0;
+		for (int r = 0; r < solution.size(); r++)
+			if (isEligible(solution.getRoute(r)))
+				eligible++;
+
+		routeIndex = new int[eligible];
+		tasks = new int[eligible][];
+		locations = new int[eligible][];
+		size = new int[eligible];
+		capacity = new int[eligible];
+		workTime = new int[eligible];
+		assigned = new long[eligible];
+		resource = new int[eligible];
+		forward = new int[eligible][];
+		backward = new int[eligible][];
+		changed = new boolean[eligible];
+		slotOf = new int[instance.getIDBound()];
+		positionOf = new int[instance.getIDBound()];
+		Arrays.fill(slotOf, -1);
+		Arrays.fill(positionOf, -1);
+
+		int slot = 0;
+		for (int r = 0; r < solution.size(); r++) {
+			Route route = solution.getRoute(r);
+			if (!isEligible(route))
+				continue;
+			routeIndex[slot] = r;
+			int length = route.size() + MAX_CHAIN;
+			tasks[slot] = new int[length];
+			locations[slot] = new int[length];
+			forward[slot] = new int[length];
+			backward[slot] = new int[length];
+			size[slot] = route.size();
+			capacity[slot] = route.getCapacityTime();
+			assigned[slot] = route.getAssignedCompatibility();
+			resource[slot] = route.getAssignedResource();
+			for (int p = 0; p < route.size(); p++)
+				set(slot, p, route.getRouteTask(p));
+			refresh(slot);
+			changed[slot] = false;
+			slot++;
+		}
+	}
+
+	// Routes whose tasks can be moved freely: no collaboration, waiting time or callbacks
+	static boolean isMovable(Instance instance, Route route) {
+		if (route.isEmpty() || route.isCollaborative())
+			return false;
+		for (int p = 0; p < route.size(); p++) {
+			int task = route.getRouteTask(p);
+			if (!instance.isTask(task) || instance.isCollaboration(task))
+				return false;
+			// The only waiting a rebuild restores is for an earliest start
+			int wait = route.getWaitingTimeAt(p) - (p > 0 ? route.getWaitingTimeAt(p - 1) : 0);
+			if (wait != 0 && route.getStartTime(p) != instance.getEarliestStart(task))
+				return false;
+		}
+		return true;
+	}
+
+	// The moves only track travel and capacity, so tasks with time windows stay where they are
+	private boolean isEligible(Route route) {
+		if (!isMovable(instance, route))
+			return false;
+		for (int p = 0; p < route.size(); p++)
+			if (instance.hasTimeWindow(route.getRouteTask(p)))
+				return false;
+		return true;
+	}
+
+	// Rebuilds the changed routes in the solution from the working copy
+	private void store(Solution solution) {
+		for (int slot = 0; slot < routeIndex.length; slot++)
+			if (changed[slot])
+				rebuild(instance, solution.getRoute(routeIndex[slot]), tasks[slot], size[slot]);
+	}
+
+	// Replaces the tasks of a movable route by the first size tasks of the array, in order,
+	// waiting only for earliest starts
+	static void rebuild(Instance instance, Route route, int[] tasks, int size) {
+		route.clear();
+		for (int p = 0; p < size; p++) {
+			int task = tasks[p];
+			int location = instance.getLocation(task);
+			if (p == 0) {
+				route.addTask(instance, task, 0, 0, instance.getDuration(task));
+			} else {
+				int previous = route.getLastLocation();
+				route.addTask(instance, task, instance.getDistance(previous, location),
+						instance.getTravTime(previous, location), instance.getDuration(task));
+			}
+		}
+	}
+}
@@ -0,0 +1,309 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import problem.Instance;
+
+/**
+ * Where the engineers of one day are at a given time, and which of them are
+ * closest to a location. Route times are relative to the start of the day.
+ *
+ * Positions follow Route.getPositionAtTime. They are kept for the last time
+ * queried and moved forward as time advances: a heap holds the time at which
+ * each route next changes position, so advancing costs O(log n) per change
+ * instead of a search per route. Routes are bucketed by current location, and
+ * the closest ones are found by walking locations by travel time to the target
+ * (nearestTimeTo, past its kept neighbours if granular) until the buckets
+ * have yielded enough routes. Ties in travel
+ * time go to the route listed first for the day.
+ *
+ * Changes made through the owning Insertion are applied with update. Any other
+ * change to the solution is detected on the next query and the affected routes
+ * are re-read.
+ */
+public class PositionIndex {
+
+	private final Instance instance;
+	private final Ranking nearestTimeTo;
+	private final Solution solution;
+	private final int day;
+
+	// Slot i holds the i-th route of the day
+	private int[] routes;
+	private int[] position;
+	private int[] seenModCount;
+	private int[] slotOfRoute;
+
+	// Routes at each location, as doubly linked lists of slots
+	private int[] head;
+	private int[] next;
+	private int[] previous;
+	private int[] locationOf;
+
+	// Lazy min-heap of (change time << 32 | slot); entries not matching changeTime are stale
+	private int[] changeTime;
+	private long[] heap;
+	private int heapSize;
+
+	private int time;
+	private long expectedModCount;
+
+	private int[] candidateSlots;
+	private int[] candidateTravel;
+
+	private static final int NEVER = Integer.MAX_VALUE;
+
+	PositionIndex(Instance instance, Ranking nearestTimeTo, Solution solution, int day) {
+		this.instance = instance;
+		this.nearestTimeTo = nearestTimeTo;
+		this.solution = solution;
+		this.day = day;
+		this.head = new int[instance.getLocations()];
+		this.candidateSlots = new int[1];
+		this.candidateTravel = new int[1];
+		build(0);
+	}
+
+	public Solution getSolution() {
+		return solution;
+	}
+
+	public int getDay() {
+		return day;
+	}
+
+	public int getTime() {
+		return time;
+	}
+
+	/** Position on the route at the current time, or -1 if the route is not indexed or empty. */
+	public int getPosition(int route) {
+		int slot = slotOf(route);
+		return slot < 0 ? -1 : position[slot];
+	}
+
+	/** Location of the engineer on the route at the current time, or -1. */
+	public int getLocation(int route) {
+		int slot = slotOf(route);
+		return slot < 0 ? -1 : locationOf[slot];
+	}
+
+	/** Moves the index to a time of the day; going back in time re-reads every route. */
+	public void advanceTo(int time) {
+		validate();
+		if (time < this.time) {
+			build(time);
+			return;
+		}
+		this.time = time;
+		while (heapSize > 0 && (int) (heap[0] >>> 32) <= time) {
+			long entry = pollHeap();
+			int slot = (int) entry;
+			if ((int) (entry >>> 32) != changeTime[slot])
+				continue;
+			Route route = solution.getRoute(routes[slot]);
+			int p = position[slot];
+			while (p + 1 < route.size() && time >= nextChange(route, p))
+				p++;
+			place(slot, p);
+		}
+	}
+
+	/**
+	 * Fills routes with up to k routes whose engineers are closest, by travel time,
+	 * to the location at the given time, closest first. Returns how many were found.
+	 */
+	public int nearest(int location, int time, int k, int[] found) {
+		advanceTo(time);
+		if (candidateSlots.length < k) {
+			candidateSlots = new int[k];
+			candidateTravel = new int[k];
+		}
+
+		int count = collect(location, instance.getTravTime(location, location), k, 0);
+		int[] ranked = nearestTimeTo.row(location);
+		for (int r = 0; r < nearestTimeTo.size(); r++) {
+			if (r == ranked.length)
+				ranked = nearestTimeTo.fullRow(location);
+			int travel = instance.getTravTime(ranked[r], location);
+			if (count == k && travel > candidateTravel[k - 1])
+				break;
+			count = collect(ranked[r], travel, k, count);
+		}
+
+		for (int i = 0; i < count; i++)
+			found[i] = routes[candidateSlots[i]];
+		return count;
+	}
+
+	/**
+	 * Re-reads a route of the day after it has been changed. The route must be
+	 * the only one changed since the last query.
+	 */
+	public void update(int route) {
+		int slot = slotOf(route);
+		if (slot >= 0)
+			refresh(slot);
+		expectedModCount = solution.getModCount();
+	}
+
+	// Keeps the best k candidates by travel time, then slot, in order
+	private int collect(int location, int travel, int k, int count) {
+		for (int slot = head[location]; slot >= 0; slot = next[slot]) {
+			if (count == k && (travel > candidateTravel[k - 1]
+					|| (travel == candidateTravel[k - 1] && slot > candidateSlots[k - 1])))
+				continue;
+			int i = count < k ? count++ : k - 1;
+			while (i > 0 && (candidateTravel[i - 1] > travel
+					|| (candidateTravel[i - 1] == travel && candidateSlots[i - 1] > slot))) {
+				candidateTravel[i] = candidateTravel[i - 1];
+				candidateSlots[i] = candidateSlots[i - 1];
+				i--;
+			}
+			candidateTravel[i] = travel;
+			candidateSlots[i] = slot;
+		}
+		return count;
+	}
+
+	// Changes made elsewhere: a different list of routes for the day means a rebuild,
+	// otherwise only the routes whose modification count moved are re-read
+	private void validate() {
+		if (expectedModCount == solution.getModCount())
+			return;
+		ArrayList<Integer> dayRoutes = solution.getRoutesByDay(day);
+		int n = dayRoutes == null ? 0 : dayRoutes.size();
+		boolean sameRoutes = n == routes.length;
+		for (int i = 0; sameRoutes && i < n; i++)
+			sameRoutes = dayRoutes.get(i) == routes[i];
+		if (!sameRoutes) {
+			build(time);
+			return;
+		}
+		for (int slot = 0; slot < routes.length; slot++)
+			if (solution.getRoute(routes[slot]).getModCount() != seenModCount[slot])
+				refresh(slot);
+		expectedModCount = solution.getModCount();
+	}
+
+	private void build(int time) {
+		this.time = time;
+		ArrayList<Integer> dayRoutes = solution.getRoutesByDay(day);
+		int n = dayRoutes == null ? 0 : dayRoutes.size();
+
+		routes = new int[n];
+		position = new int[n];
+		seenModCount = new int[n];
+		next = new int[n];
+		previous = new int[n];
+		locationOf = new int[n];
+		changeTime = new int[n];
+		heap = new long[Math.max(2 * n, 1)];
+		heapSize = 0;
+		Arrays.fill(head, -1);
+		Arrays.fill(locationOf, -1);
+
+		slotOfRoute = new int[solution.size()];
+		Arrays.fill(slotOfRoute, -1);
+		for (int slot = 0; slot < n; slot++) {
+			routes[slot] = dayRoutes.get(slot);
+			slotOfRoute[routes[slot]] = slot;
+		}
+		for (int slot = 0; slot < n; slot++)
+			refresh(slot);
+		expectedModCount = solution.getModCount();
+	}
+
+	private void refresh(int slot) {
+		Route route = solution.getRoute(routes[slot]);
+		seenModCount[slot] = route.getModCount();
+		place(slot, route.isEmpty() ? -1 : route.getPositionAtTime(time));
+	}
+
+	// Moves a slot to the bucket of its position and queues its next change
+	private void place(int slot, int p) {
+		Route route = solution.getRoute(routes[slot]);
+		int location = p < 0 ? -1 : route.getLocation(p);
+		if (location != locationOf[slot]) {
+			unlink(slot);
+			if (location >= 0)
+				link(slot, location);
+		}
+		position[slot] = p;
+
+		int change = p < 0 || p + 1 >= route.size() ? NEVER : nextChange(route, p);
+		changeTime[slot] = change;
+		if (change != NEVER)
+			pushHeap(((long) change << 32) | slot);
+	}
+
+	// First time at which getPositionAtTime moves past p: once the time is after the next
+	// start, or once it reaches the end of the route
+	private int nextChange(Route route, int p) {
+		return Math.min(route.getStartTime(p + 1) + 1, route.getEndTime(route.size() - 1));
+	}
+
+	private void link(int slot, int location) {
+		// Keeps the bucket in slot order so ties resolve to the earlier route of the day
+		int before = -1;
+		int after = head[location];
+		while (after >= 0 && after < slot) {
+			before = after;
+			after = next[after];
+		}
+		previous[slot] = before;
+		next[slot] = after;
+		if (before >= 0) next[before] = slot;
+		else head[location] = slot;
+		if (after >= 0) previous[after] = slot;
+		locationOf[slot] = location;
+	}
+
+	private void unlink(int slot) {
+		int location = locationOf[slot];
+		if (location < 0)
+			return;
+		if (previous[slot] >= 0) next[previous[slot]] = next[slot];
+		else head[location] = next[slot];
+		if (next[slot] >= 0) previous[next[slot]] = previous[slot];
+		locationOf[slot] = -1;
+	}
+
+	private int slotOf(int route) {
+		return route >= 0 && route < slotOfRoute.length ? slotOfRoute[route] : -1;
+	}
+
+	private void pushHeap(long entry) {
+		if (heapSize == heap.length)
+			heap = Arrays.copyOf(heap, 2 * heapSize);
+		int i = heapSize++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (heap[parent] <= entry)
+				break;
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = entry;
+	}
+
+	private long pollHeap() {
+		long first = heap[0];
+		long entry = heap[--heapSize];
+		int i = 0;
+		int half = heapSize >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			if (child + 1 < heapSize && heap[child + 1] < heap[child])
+				child++;
+			if (entry <= heap[child])
+				break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		if (heapSize > 0)
+			heap[i] = entry;
+		return first;
+	}
+}
@@ -0,0 +1,363 @@
+package solver;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.Buffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import problem.CostMatrix;
+import problem.Instance;
+import problem.Task;
+
+/**
+ * Read-only data the insertion heuristics derive from an instance: the three
+ * nearest-neighbour rankings of the locations, tasks by location, tasks by
+ * duration and locations by demand. It is computed once per instance and
+ * number of neighbours, and shared by every Insertion over that instance; none
+ * of the arrays handed out may be modified.
+ *
+ * With neighbours set, the rankings are granular: they keep the K nearest
+ * locations of each location and rank the rest only for the locations whose
+ * scans run past them (see Ranking), so memory and most scans grow as O(nK).
+ *
+ * The rankings depend only on the cost matrix and are the expensive part, so
+ * they can be saved to a binary file and loaded back as long as the version,
+ * matrix hash and number of neighbours in the file match; any other file is
+ * recomputed and overwritten. Binary layout
+ * (big-endian): magic, version, matrix hash (long), number of locations n,
+ * neighbours per row k, then the distance, travel time from and travel time to
+ * rankings, n*k ints each, row by row.
+ */
+public final class Preprocessing {
+
+	static final int MAGIC = 0x4653454E;	// "FSEN"
+	static final int VERSION = 2;
+	static final int HEADER_BYTES = 24;
+
+	// Preprocessing of each instance, by number of neighbours. The values hold no strong
+	// reference to their instance, so an entry goes once its instance is no longer used.
+	private static final Map<Instance, List<Preprocessing>> shared =
+			Collections.synchronizedMap(new WeakHashMap<Instance, List<Preprocessing>>());
+
+	private final WeakReference<Instance> instance;
+	private final CostMatrix costMatrix;
+	private final int numLocations;
+	private final int neighbours;
+
+	private final Ranking nearestDist;
+	private final Ranking nearestTimeFrom;
+	private final Ranking nearestTimeTo;
+
+	private final int[][] tasksByLocation;
+	private final List<Integer> tasksByDuration;
+	private final int[] durationRank;
+	private final int[] locationsByDemand;
+
+	private Preprocessing(Instance instance, int neighbours, int[][][] rankings) {
+		this.instance = new WeakReference<Instance>(instance);
+		this.costMatrix = instance.getCostMatrix();
+		this.numLocations = instance.getLocations();
+		this.neighbours = neighbours;
+
+		if (rankings == null) {
+			this.nearestDist = new Ranking(instance, Ranking.DISTANCE, neighbours);
+			this.nearestTimeFrom = new Ranking(instance, Ranking.TIME_FROM, neighbours);
+			this.nearestTimeTo = new Ranking(instance, Ranking.TIME_TO, neighbours);
+			calcNearestNeighbours();
+		} else {
+			this.nearestDist = new Ranking(costMatrix, Ranking.DISTANCE, rankings[Ranking.DISTANCE]);
+			this.nearestTimeFrom = new Ranking(costMatrix, Ranking.TIME_FROM, rankings[Ranking.TIME_FROM]);
+			this.nearestTimeTo = new Ranking(costMatrix, Ranking.TIME_TO, rankings[Ranking.TIME_TO]);
+		}
+
+		this.tasksByLocation = sortTasksByLocation(instance);
+		ArrayList<Integer> byDuration = new ArrayList<Integer>();
+		this.durationRank = sortTasksByDuration(instance, byDuration);
+		this.tasksByDuration = Collections.unmodifiableList(byDuration);
+		this.locationsByDemand = sortLocationsByDemand();
+	}
+
+	/** Shared preprocessing of the instance with full rankings, computed on first use. */
+	public static Preprocessing of(Instance instance) {
+		return of(instance, 0);
+	}
+
+	/** Shared preprocessing of the instance keeping the given number of neighbours per location; 0 keeps all. */
+	public static Preprocessing of(Instance instance, int neighbours) {
+		neighbours = Ranking.rowLength(instance, neighbours);
+		Preprocessing preprocessing = cached(instance, neighbours);
+		if (preprocessing != null)
+			return preprocessing;
+		return publish(instance, new Preprocessing(instance, neighbours, null));
+	}
+
+	/**
+	 * Preprocessing of the instance with full rankings, computed afresh and kept
+	 * out of the shared cache; for timing the preprocessing itself.
+	 */
+	public static Preprocessing compute(Instance instance) {
+		return new Preprocessing(instance, Ranking.rowLength(instance, 0), null);
+	}
+
+	/**
+	 * Shared preprocessing of the instance with full rankings, reading them from
+	 * the file if it holds them for the same matrix, and computing and saving
+	 * them otherwise.
+	 */
+	public static Preprocessing of(Instance instance, String rankingFile) throws IOException {
+		return of(instance, 0, rankingFile);
+	}
+
+	/** As of(instance, rankingFile), keeping the given number of neighbours per location. */
+	public static Preprocessing of(Instance instance, int neighbours, String rankingFile) throws IOException {
+		neighbours = Ranking.rowLength(instance, neighbours);
+		Preprocessing preprocessing = cached(instance, neighbours);
+		if (preprocessing != null)
+			return preprocessing;
+		File file = new File(rankingFile);
+		int[][][] rankings = file.exists() ? read(file, instance, neighbours) : null;
+		preprocessing = new Preprocessing(instance, neighbours, rankings);
+		if (rankings == null)
+			preprocessing.save(file);
+		return publish(instance, preprocessing);
+	}
+
+	// Preprocessing is computed outside the lock, so instances do not wait for each other; when
+	// two threads compute the same one, the first published is kept and returned to both
+	private static Preprocessing cached(Instance instance, int neighbours) {
+		synchronized (shared) {
+			List<Preprocessing> preprocessings = shared.get(instance);
+			if (preprocessings != null)
+				for (Preprocessing preprocessing : preprocessings)
+					if (preprocessing.neighbours == neighbours)
+						return preprocessing;
+			return null;
+		}
+	}
+
+	private static Preprocessing publish(Instance instance, Preprocessing computed) {
+		synchronized (shared) {
+			Preprocessing preprocessing = cached(instance, computed.neighbours);
+			if (preprocessing != null)
+				return preprocessing;
+			List<Preprocessing> preprocessings = shared.get(instance);
+			if (preprocessings == null) {
+				preprocessings = new ArrayList<Preprocessing>(1);
+				shared.put(instance, preprocessings);
+			}
+			preprocessings.add(computed);
+			return computed;
+		}
+	}
+
+	/**
+	 * Throws IllegalArgumentException unless this is the preprocessing of the instance. The
+	 * preprocessing only holds its instance weakly, so that the shared cache can let it go,
+	 * and users take the instance from their caller.
+	 */
+	public void checkInstance(Instance instance) {
+		if (this.instance.get() != instance)
+			throw new IllegalArgumentException("Preprocessing of another instance.");
+	}
+
+	/** Locations kept per row of the rankings. */
+	public int getNeighbours() {
+		return neighbours;
+	}
+
+	public boolean isGranular() {
+		return nearestDist.isGranular();
+	}
+
+	public Ranking getNearestDist() {
+		return nearestDist;
+	}
+
+	public Ranking getNearestTimeFrom() {
+		return nearestTimeFrom;
+	}
+
+	public Ranking getNearestTimeTo() {
+		return nearestTimeTo;
+	}
+
+	public int[][] getTasksByLocation() {
+		return tasksByLocation;
+	}
+
+	public List<Integer> getTasksByDuration() {
+		return tasksByDuration;
+	}
+
+	public int[] getDurationRank() {
+		return durationRank;
+	}
+
+	public int[] getLocationsByDemand() {
+		return locationsByDemand;
+	}
+
+	/**
+	 * Writes the rankings through a temporary file of its own, so a failed write leaves no
+	 * partial file and concurrent writers do not mix their output.
+	 */
+	public void save(File file) throws IOException {
+		File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		boolean written = false;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(costMatrix.getContentHash());
+			out.writeInt(numLocations);
+			out.writeInt(neighbours);
+			for (Ranking ranking : new Ranking[] { nearestDist, nearestTimeFrom, nearestTimeTo })
+				for (int[] row : ranking.rows())
+					for (int location : row)
+						out.writeInt(location);
+			out.close();
+			if (!tmp.renameTo(file)) {
+				file.delete();
+				if (!tmp.renameTo(file))
+					throw new IOException("Cannot rename " + tmp + " to " + file);
+			}
+			written = true;
+		} finally {
+			out.close();
+			if (!written)
+				tmp.delete();
+		}
+	}
+
+	// Rankings from the file, or null if it is not a ranking file of this version, was written
+	// for another matrix or number of neighbours, or has the wrong length; the caller then
+	// recomputes and rewrites it
+	private static int[][][] read(File rankingFile, Instance instance, int neighbours) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(rankingFile, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (channel.size() < HEADER_BYTES)
+				return null;
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+				return null;
+			int n = buffer.getInt(16);
+			int k = buffer.getInt(20);
+			if (buffer.getLong(8) != instance.getCostMatrix().getContentHash() || n != instance.getLocations()
+					|| k != neighbours || channel.size() != HEADER_BYTES + 12L * n * k)
+				return null;
+
+			// Called on Buffer: the MappedByteBuffer override only exists from Java 9
+			((Buffer) buffer).position(HEADER_BYTES);
+			IntBuffer values = buffer.slice().asIntBuffer();
+			int[][][] rankings = new int[3][n][k];
+			for (int[][] ranking : rankings)
+				for (int[] row : ranking)
+					values.get(row);
+			return rankings;
+		} finally {
+			file.close();
+		}
+	}
+
+	private void calcNearestNeighbours() {
+		ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(new RankingTask(nearestDist, 0, numLocations),
+						new RankingTask(nearestTimeFrom, 0, numLocations),
+						new RankingTask(nearestTimeTo, 0, numLocations));
+			}
+		});
+	}
+
+	private static final int RANKING_GRAIN = 16;
+
+	// Ranks the rows of the locations in [from, to), splitting them across the fork-join pool
+	private static class RankingTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Ranking ranking;
+		private final int from;
+		private final int to;
+
+		RankingTask(Ranking ranking, int from, int to) {
+			this.ranking = ranking;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > RANKING_GRAIN) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new RankingTask(ranking, from, mid), new RankingTask(ranking, mid, to));
+				return;
+			}
+			ranking.rank(from, to);
+		}
+	}
+
+	private int[][] sortTasksByLocation(Instance instance) {
+		int[][] tasksByLocation = new int[numLocations][];
+		int[] counts = new int[numLocations];
+		for (int t = 0; t < instance.getNumberTasks(); t++)
+			counts[instance.getLocation(instance.getTaskID(t))]++;
+		for (int i = 0; i < numLocations; i++)
+			tasksByLocation[i] = new int[counts[i]];
+		int[] filled = new int[numLocations];
+		for (int t = 0; t < instance.getNumberTasks(); t++) {
+			int task = instance.getTaskID(t);
+			int location = instance.getLocation(task);
+			tasksByLocation[location][filled[location]++] = task;
+		}
+		return tasksByLocation;
+	}
+
+	private int[] sortTasksByDuration(Instance instance, ArrayList<Integer> tasksByDuration) {
+		ArrayList<Task> tasks = new ArrayList<Task>();
+		for (int t = 0; t < instance.getNumberTasks(); t++)
+			tasks.add(instance.getTask(instance.getTaskID(t)));
+
+		Collections.sort(tasks);
+
+		int[] durationRank = new int[instance.getIDBound()];
+		for (Task task : tasks) {
+			durationRank[task.getTaskID()] = tasksByDuration.size();
+			tasksByDuration.add(task.getTaskID());
+		}
+		return durationRank;
+	}
+
+	// Locations by decreasing number of tasks, and among equal numbers by decreasing index.
+	// Keys hold the number and the index, so one sort of primitives gives that order backwards.
+	private int[] sortLocationsByDemand() {
+		long[] keys = new long[numLocations];
+		for (int j = 0; j < numLocations; j++)
+			keys[j] = (long) tasksByLocation[j].length << 32 | j;
+		Arrays.sort(keys);
+
+		int[] locationsByDemand = new int[numLocations];
+		for (int i = 0; i < numLocations; i++)
+			locationsByDemand[i] = (int) keys[numLocations - 1 - i];
+		return locationsByDemand;
+	}
+}
@@ -0,0 +1,158 @@
+package solver;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import problem.CostMatrix;
+import problem.Instance;
+
+/**
+ * Every other location ranked by increasing distance, travel time from or
+ * travel time to a location, ties by increasing index.
+ *
+ * A granular ranking keeps only the first neighbours of each location, so it
+ * takes O(nK) memory instead of O(n^2). Scans read row() and, once they have
+ * walked past its end without finding what they need, carry on over
+ * fullRow(), which is ranked from the matrix the first time a location needs
+ * it. A full row starts with the granular one, so a scan gives the same result
+ * either way.
+ */
+public final class Ranking {
+
+	public static final int DISTANCE = 0;
+	public static final int TIME_FROM = 1;
+	public static final int TIME_TO = 2;
+
+	// The cost matrix rather than the instance, so a cached ranking does not keep its instance alive
+	private final CostMatrix costs;
+	private final int matrix;
+	private final int[][] rows;
+	private final AtomicReferenceArray<int[]> fullRows;
+
+	/** Ranking of the given matrix keeping up to neighbours locations per row; 0 keeps them all. */
+	Ranking(Instance instance, int matrix, int neighbours) {
+		this(instance.getCostMatrix(), matrix, new int[instance.getLocations()][rowLength(instance, neighbours)]);
+	}
+
+	// Rows already ranked, e.g. read from a file
+	Ranking(CostMatrix costs, int matrix, int[][] rows) {
+		this.costs = costs;
+		this.matrix = matrix;
+		this.rows = rows;
+		boolean granular = rows.length > 0 && rows[0].length < rows.length - 1;
+		this.fullRows = granular ? new AtomicReferenceArray<int[]>(rows.length) : null;
+	}
+
+	static int rowLength(Instance instance, int neighbours) {
+		int others = instance.getLocations() - 1;
+		return neighbours <= 0 ? others : Math.min(neighbours, others);
+	}
+
+	public int getMatrix() {
+		return matrix;
+	}
+
+	public boolean isGranular() {
+		return fullRows != null;
+	}
+
+	/** Locations kept per row. */
+	public int getNeighbours() {
+		return rows.length == 0 ? 0 : rows[0].length;
+	}
+
+	/** Number of other locations, the length of a full row. */
+	public int size() {
+		return rows.length - 1;
+	}
+
+	/** The kept neighbours of the location, nearest first. Must not be modified. */
+	public int[] row(int location) {
+		return rows[location];
+	}
+
+	/** Every other location, nearest first; ranked on first use in a granular ranking. Must not be modified. */
+	public int[] fullRow(int location) {
+		if (fullRows == null)
+			return rows[location];
+		int[] full = fullRows.get(location);
+		if (full == null) {
+			full = new int[size()];
+			rank(location, full, new int[rows.length]);
+			fullRows.compareAndSet(location, null, full);
+			full = fullRows.get(location);
+		}
+		return full;
+	}
+
+	int[][] rows() {
+		return rows;
+	}
+
+	/** Ranks the rows from the first to the last location, exclusive. */
+	void rank(int from, int to) {
+		int[] values = new int[rows.length];
+		for (int i = from; i < to; i++)
+			rank(i, rows[i], values);
+	}
+
+	// Value in the high word, location in the low word: one primitive comparison gives both
+	// orders. A full row is sorted; a short one keeps the smallest keys in a max-heap first.
+	private void rank(int location, int[] ranked, int[] values) {
+		if (matrix == DISTANCE)
+			costs.getRowDistances(location, values);
+		else if (matrix == TIME_FROM)
+			costs.getRowTimes(location, values);
+		else
+			costs.getColTimes(location, values);
+
+		long[] keys = new long[ranked.length];
+		int k = 0;
+		if (ranked.length == values.length - 1) {
+			for (int j = 0; j < values.length; j++)
+				if (j != location)
+					keys[k++] = ((long) values[j] << 32) | j;
+		} else {
+			for (int j = 0; j < values.length; j++) {
+				if (j == location)
+					continue;
+				long key = ((long) values[j] << 32) | j;
+				if (k < keys.length)
+					siftUp(keys, k++, key);
+				else if (key < keys[0])
+					siftDown(keys, k, key);
+			}
+		}
+		Arrays.sort(keys);
+
+		for (int t = 0; t < keys.length; t++)
+			ranked[t] = (int) keys[t];
+	}
+
+	private static void siftUp(long[] heap, int i, long key) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (heap[parent] >= key)
+				break;
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = key;
+	}
+
+	// Replaces the largest key of the heap
+	private static void siftDown(long[] heap, int size, long key) {
+		int i = 0;
+		int half = size >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			if (child + 1 < size && heap[child + 1] > heap[child])
+				child++;
+			if (key >= heap[child])
+				break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = key;
+	}
+}
@@ -0,0 +1,262 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Hashtable;
+
+import problem.Instance;
+
+/**
+ * Maps routes to engineers and days, filling the solution's resourceDayRoute
+ * and routesByDay.
+ *
+ * Each day is a bipartite matching between its routes and the engineers who
+ * can do them (Instance.getResourceBit against the route's task compatibility,
+ * and Instance.isCompatible for each task when the class bits are only a filter).
+ * A route is added to a day by an augmenting path: it takes a free engineer
+ * who can do it if there is one, otherwise an engineer whose route can move to
+ * another free engineer of the day, and so on. Only the routes on the path
+ * change engineer, so a route that few engineers can do still finds one when
+ * the day has room, and adding a route costs at most one search of its day.
+ *
+ * A full mapping takes the routes in order, collaborating routes together on
+ * one day and, when it can, the primary's neighbours in the roster. Each group
+ * goes to the day of the first free slot, engineers in shift order, or the
+ * next day whose matching can take it. When every engineer can do every route
+ * this gives the same mapping as filling the roster slot by slot. Routes
+ * created later, e.g. the simulation's extra routes, are added one at a time
+ * from a given day on.
+ */
+public class ResourceAssignment {
+
+	private final Instance instance;
+
+	// Engineers in shift order: the first of each shift, then the second, and so on
+	private final int[] order;
+
+	ResourceAssignment(Instance instance) {
+		this.instance = instance;
+
+		Hashtable<Integer, ArrayList<Integer>> resourcesByShift = instance.getResourcesByShift();
+		int resources = instance.getResources().size();
+		this.order = new int[resources];
+		int k = 0;
+		for(int j = 0; k < resources; j++)
+			for(int shift = 1; shift <= resourcesByShift.size(); shift++)
+				if(j < resourcesByShift.get(shift).size())
+					order[k++] = resourcesByShift.get(shift).get(j) - 1;
+	}
+
+	/**
+	 * Maps every non-empty route of the solution anew. Returns the routes left
+	 * out because no free engineer can do them, in route order.
+	 */
+	public ArrayList<Integer> assign(Solution solution) {
+		int resources = instance.getResources().size();
+		int days = instance.getResources().get(0).getStartShift().length;
+		int routes = solution.size();
+
+		int[][] matrix = new int[resources][days];
+		for(int i = 0; i < resources; i++)
+			Arrays.fill(matrix[i], -1);
+		Search search = new Search(solution, matrix, false);
+		for(int r = 0; r < routes; r++)
+			solution.getRoute(r).setAssignedResource(instance, -1);
+
+		int[] routeOfTask = new int[instance.getIDBound()];
+		Arrays.fill(routeOfTask, -1);
+		for(int r = 0; r < routes; r++) {
+			Route route = solution.getRoute(r);
+			// Callbacks generated during a simulation lie outside the instance and never collaborate
+			for(int p = 0; p < route.size(); p++)
+				if(route.getRouteTask(p) < routeOfTask.length)
+					routeOfTask[route.getRouteTask(p)] = r;
+		}
+
+		ArrayList<Integer> unassigned = new ArrayList<Integer>();
+		boolean[] grouped = new boolean[routes];
+		int[] firstFreeDay = new int[resources];
+		int first = 0;
+		for(int r = 0; r < routes; r++) {
+			if(grouped[r] || solution.getRoute(r).isEmpty()) continue;
+			int[] group = group(solution, r, routeOfTask, grouped);
+
+			while(first < resources && firstFreeDay[order[first]] >= days) first++;
+			if(first == resources) {
+				for(int route : group) unassigned.add(route);
+				continue;
+			}
+			int start = firstFreeDay[order[first]];
+			int placed = -1;
+			for(int d = 0; d < days && placed < 0; d++)
+				if(search.addGroup(group, (start + d) % days, order[first]))
+					placed = (start + d) % days;
+			if(placed < 0)
+				for(int route : group) unassigned.add(route);
+
+			for(int i = 0; i < resources; i++)
+				while(firstFreeDay[i] < days && matrix[i][firstFreeDay[i]] != -1) firstFreeDay[i]++;
+		}
+
+		Hashtable<Integer, ArrayList<Integer>> routesByDay = solution.getRoutesByDay();
+		for(int j = 0; j < days; j++)
+			routesByDay.put(j, new ArrayList<Integer>());
+		for(int j = 0; j < days; j++)
+			for(int i = 0; i < resources; i++)
+				if(matrix[i][j] != -1) routesByDay.get(j).add(matrix[i][j]);
+		solution.setResourceDayRoute(matrix);
+
+		for(int i = 0; i < resources; i++)
+			for(int j = 0; j < days; j++)
+				if(matrix[i][j] != -1)
+					solution.getRoute(matrix[i][j]).setAssignedResource(instance, i);
+		Collections.sort(unassigned);
+		return unassigned;
+	}
+
+	/**
+	 * Maps one route that is not yet assigned, such as a route added to the
+	 * solution during the simulation, to the first day from fromDay on that
+	 * can take it. Returns the day, or -1 if no day can.
+	 */
+	public int assign(Solution solution, int route, int fromDay) {
+		int[][] matrix = solution.getResourceDayRoute();
+		if(matrix == null) return -1;
+		Search search = new Search(solution, matrix, true);
+		int days = matrix.length == 0 ? 0 : matrix[0].length;
+
+		for(int d = Math.max(fromDay, 0); d < days; d++)
+			if(search.add(route, d))
+				return d;
+		return -1;
+	}
+
+	// The route and those collaborating with it, directly or through others, not yet grouped:
+	// breadth first, each route's partners by increasing index
+	private int[] group(Solution solution, int r, int[] routeOfTask, boolean[] grouped) {
+		ArrayList<Integer> group = new ArrayList<Integer>();
+		group.add(r);
+		grouped[r] = true;
+		if(!solution.getRoute(r).isCollaborative()) return new int[] {r};
+
+		for(int g = 0; g < group.size(); g++) {
+			Route route = solution.getRoute(group.get(g));
+			int added = group.size();
+			for(int p = 0; p < route.size(); p++) {
+				int task = route.getRouteTask(p);
+				if(!instance.isCollaboration(task)) continue;
+				int partner = routeOfTask[instance.getCollabPartner(task)];
+				if(partner >= 0 && !grouped[partner]) {
+					grouped[partner] = true;
+					group.add(partner);
+				}
+			}
+			Collections.sort(group.subList(added, group.size()));
+		}
+
+		int[] routes = new int[group.size()];
+		for(int g = 0; g < routes.length; g++) routes[g] = group.get(g);
+		return routes;
+	}
+
+	// One mapping's view of the matrix. A live search changes the solution's own matrix
+	// through Solution.assign, so its engineer/day view stays current.
+	private class Search {
+		private final Solution solution;
+		private final int[][] matrix;
+		private final boolean live;
+		private final boolean[] visited;
+		private int day;
+
+		Search(Solution solution, int[][] matrix, boolean live) {
+			this.solution = solution;
+			this.matrix = matrix;
+			this.live = live;
+			this.visited = new boolean[matrix.length];
+		}
+
+		boolean add(int route, int d) {
+			day = d;
+			int resource = free(solution.getRoute(route), -1);
+			if(resource < 0) resource = augment(route);
+			if(resource < 0) return false;
+			move(route, resource);
+			return true;
+		}
+
+		// Adds the group to the day, the primary preferably with the given engineer and the
+		// others with the engineers after it in the roster; on failure the day is left as it was
+		boolean addGroup(int[] group, int d, int preferred) {
+			day = d;
+			int[] before = new int[matrix.length];
+			for(int i = 0; i < matrix.length; i++) before[i] = matrix[i][d];
+
+			int primary = -1;
+			for(int g = 0; g < group.length; g++) {
+				Route route = solution.getRoute(group[g]);
+				int wanted = g == 0 ? preferred : primary + g;
+				int resource = wanted >= 0 && wanted < matrix.length && matrix[wanted][d] == -1 && canDo(wanted, route)
+						? wanted : free(route, -1);
+				if(resource < 0) resource = augment(group[g]);
+				if(resource < 0) {
+					for(int i = 0; i < matrix.length; i++) matrix[i][d] = before[i];
+					return false;
+				}
+				move(group[g], resource);
+				if(g == 0) primary = resource;
+			}
+			return true;
+		}
+
+		// First free engineer of the day, in shift order, who can do the route
+		private int free(Route route, int excluded) {
+			for(int i : order)
+				if(i != excluded && matrix[i][day] == -1 && canDo(i, route))
+					return i;
+			return -1;
+		}
+
+		// Frees an engineer of the day who can do the route by moving routes along an
+		// augmenting path; returns that engineer or -1
+		private int augment(int route) {
+			Arrays.fill(visited, false);
+			return augment(solution.getRoute(route));
+		}
+
+		private int augment(Route route) {
+			for(int i : order) {
+				if(visited[i] || !canDo(i, route)) continue;
+				visited[i] = true;
+				int occupant = matrix[i][day];
+				Route moved = solution.getRoute(occupant);
+				int target = free(moved, i);
+				if(target < 0) target = augment(moved);
+				if(target >= 0) {
+					move(occupant, target);
+					matrix[i][day] = -1;
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private void move(int route, int resource) {
+			if(live) {
+				solution.assign(resource, day, route);
+				solution.getRoute(route).setAssignedResource(instance, resource);
+			} else {
+				matrix[resource][day] = route;
+			}
+		}
+	}
+
+	// The class bits, then each task when they are only a filter
+	private boolean canDo(int resource, Route route) {
+		if((route.getTaskCompatibility() & instance.getResourceBit(resource)) == 0) return false;
+		if(instance.hasExactClasses()) return true;
+		for(int p = 0; p < route.size(); p++)
+			if(!instance.isCompatible(route.getRouteTask(p), resource)) return false;
+		return true;
+	}
+}
@@ -1,8 +1,9 @@
 package solver;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 import problem.Instance;
+import problem.Task;
 
 public class Route {
 	
@@ -16,12 +17,56 @@ public class Route {
 	
 	private int lastEndTime;
 	
-	private ArrayList<Integer> routeTasks;
-	private ArrayList<Integer> startTimes;
-	private ArrayList<Integer> endTimes;
+//	Positions 0..size-1 are in use; location is stored per position so a route can be
+//	read without going back to the instance
+	private int size;
+	private int[] routeTasks;
+	private int[] locations;
+	private int[] startTimes;
+	private int[] endTimes;
+	
+//	Cumulative distance, travel, waiting and working time up to and including each
+//	position, so the route can be measured or cut at any position in constant time
+	private int[] cumDistance;
+	private int[] cumTravelTime;
+	private int[] cumWaitingTime;
+	private int[] cumWorkingTime;
+	
+//	Latest start of the task at each position, and the forward time slack: how much the
+//	arrival at each position can be delayed without starting a task after its latest start
+//	or ending the route after its capacity, waiting being absorbed on the way. The slack
+//	is rebuilt in one backward pass on the first query after a change, so insertions at
+//	any position are then checked in constant time.
+	private int[] latestStarts;
+	private int[] forwardSlack;
+	private int slackModCount = -1;
+	
+//	Engineer classes that can do every task up to each position, and the engineer the route
+//	is assigned to with its class (-1 and every class until it is)
+	private long[] cumCompatibility;
+	private long assignedCompatibility = Instance.ALL_RESOURCES;
+	private int assignedResource = -1;
+	
+//	Earliest start and engineer classes of the task at each position, so a position can be
+//	copied to another route without going back to the instance
+	private int[] earliestStarts;
+	private long[] compatibilities;
 	
 	private boolean collaborative;
 	
+//	Solution aggregating this route, and the values it last aggregated. Mutations mark the
+//	route dirty and the solution folds in the difference the next time it is queried.
+	private Solution owner;
+	private boolean dirty;
+	private int reportedDistance;
+	private int reportedTravelTime;
+	private int reportedWaitingTime;
+	private int reportedWorkingTime;
+	private boolean reportedUsed;
+	
+//	Number of changes so far, for indexes that need to tell whether the route moved on
+	private int modCount;
+	
 	public Route(int capacityTime) {
 		this.totalDistance = 0;
 		this.totalTime = 0;
@@ -33,13 +78,57 @@ public class Route {
 		
 		this.lastEndTime = 0;
 			
-		this.routeTasks = new ArrayList<Integer>();
-		this.startTimes = new ArrayList<Integer>();
-		this.endTimes = new ArrayList<Integer>();
+		this.size = 0;
+		this.routeTasks = new int[INITIAL_CAPACITY];
+		this.locations = new int[INITIAL_CAPACITY];
+		this.startTimes = new int[INITIAL_CAPACITY];
+		this.endTimes = new int[INITIAL_CAPACITY];
+		this.cumDistance = new int[INITIAL_CAPACITY];
+		this.cumTravelTime = new int[INITIAL_CAPACITY];
+		this.cumWaitingTime = new int[INITIAL_CAPACITY];
+		this.cumWorkingTime = new int[INITIAL_CAPACITY];
+		this.latestStarts = new int[INITIAL_CAPACITY];
+		this.cumCompatibility = new long[INITIAL_CAPACITY];
+		this.earliestStarts = new int[INITIAL_CAPACITY];
+		this.compatibilities = new long[INITIAL_CAPACITY];
 		
 		this.collaborative = false;
 	}
 	
+//	Copy with its own arrays, not yet part of any solution
+	public Route(Route route) {
+		this.totalDistance = route.totalDistance;
+		this.totalTime = route.totalTime;
+		this.workingTime = route.workingTime;
+		this.travelTime = route.travelTime;
+		this.waitingTime = route.waitingTime;
+		this.capacityTime = route.capacityTime;
+		this.availableTime = route.availableTime;
+		
+		this.lastEndTime = route.lastEndTime;
+		
+		int capacity = Math.max(route.size, INITIAL_CAPACITY);
+		this.size = route.size;
+		this.routeTasks = Arrays.copyOf(route.routeTasks, capacity);
+		this.locations = Arrays.copyOf(route.locations, capacity);
+		this.startTimes = Arrays.copyOf(route.startTimes, capacity);
+		this.endTimes = Arrays.copyOf(route.endTimes, capacity);
+		this.cumDistance = Arrays.copyOf(route.cumDistance, capacity);
+		this.cumTravelTime = Arrays.copyOf(route.cumTravelTime, capacity);
+		this.cumWaitingTime = Arrays.copyOf(route.cumWaitingTime, capacity);
+		this.cumWorkingTime = Arrays.copyOf(route.cumWorkingTime, capacity);
+		this.latestStarts = Arrays.copyOf(route.latestStarts, capacity);
+		this.cumCompatibility = Arrays.copyOf(route.cumCompatibility, capacity);
+		this.earliestStarts = Arrays.copyOf(route.earliestStarts, capacity);
+		this.compatibilities = Arrays.copyOf(route.compatibilities, capacity);
+		this.assignedCompatibility = route.assignedCompatibility;
+		this.assignedResource = route.assignedResource;
+		
+		this.collaborative = route.collaborative;
+	}
+	
+	private static final int INITIAL_CAPACITY = 8;
+	
 	
 	public int getTotalDistance() {
 		return totalDistance;
@@ -81,80 +170,186 @@ public class Route {
 	}
 
 
-	public ArrayList<Integer> getRouteTasks() {
-		return routeTasks;
+	public int size() {
+		return size;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	public int[] getRouteTasks() {
+		return Arrays.copyOf(routeTasks, size);
 	}
 
 
-	public ArrayList<Integer> getStartTimes() {
-		return startTimes;
+	public int[] getStartTimes() {
+		return Arrays.copyOf(startTimes, size);
 	}
 
 
-	public ArrayList<Integer> getEndTimes() {
-		return endTimes;
+	public int[] getEndTimes() {
+		return Arrays.copyOf(endTimes, size);
+	}
+	
+	public int getRouteTask(int position) {
+		return routeTasks[position];
+	}
+	
+	public int getLocation(int position) {
+		return locations[position];
+	}
+	
+	public int getStartTime(int position) {
+		return startTimes[position];
+	}
+	
+	public int getEndTime(int position) {
+		return endTimes[position];
+	}
+	
+	public int getLastTask() {
+		return routeTasks[size - 1];
+	}
+	
+	public int getLastLocation() {
+		return locations[size - 1];
+	}
+	
+	public int indexOf(int task) {
+		for(int i = 0; i < size; i++)
+			if(routeTasks[i] == task) return i;
+		return -1;
+	}
+	
+	public boolean contains(int task) {
+		return indexOf(task) >= 0;
 	}
 	
 	public int getTaskAtTime(int time) {
-		int task = routeTasks.get(0);
-		
-		for(int i = 0; i < startTimes.size(); i++) {
-			if(time >= startTimes.get(i) && time <= endTimes.get(i)) {
-				task = routeTasks.get(i);
-				break;
-			} else if(time >= endTimes.get(endTimes.size()-1)){
-				task = routeTasks.get(endTimes.size()-1);
-				break;
-			} else if (time >= endTimes.get(i) && time <= startTimes.get(i+1)) {
-				task = routeTasks.get(i);
-				break;
-			} else if(time <= startTimes.get(0)) {
-				task = routeTasks.get(0);
-				break;
-			}
-		}
+		return routeTasks[getPositionAtTime(time)];
+	}
+	
+//	Position being served at the given time, or the last one finished before it: the first
+//	position if the time is within its task, the last if the route has ended, otherwise the
+//	first position i such that the time is not after the next start time
+	public int getPositionAtTime(int time) {
+		if(time >= startTimes[0] && time <= endTimes[0]) return 0;
+		if(time >= endTimes[size-1]) return size - 1;
 		
-		return task;
-	}
-	
-	public void setValuesToPosition(int position, Instance instance) {
-		lastEndTime = endTimes.get(position);
-		availableTime = Math.max(capacityTime - lastEndTime,0);
-		totalTime = lastEndTime;
-		workingTime = 0;
-		travelTime = 0;
-		totalDistance = 0;
-		for(int i = 0; i < position; i++) {
-			if(instance.getTasks().containsKey(routeTasks.get(i)))
-				workingTime += instance.getTask(routeTasks.get(i)).getDuration();
-			else
-				workingTime += instance.getCallback(routeTasks.get(i)).getDuration();
+		int low = 0;
+		int high = size - 1;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(startTimes[mid+1] >= time) high = mid;
+			else low = mid + 1;
 		}
-		for(int i = 1; i < routeTasks.size(); i++) {
-			if(instance.getTasks().containsKey(routeTasks.get(i-1))) {
-				if(instance.getTasks().containsKey(routeTasks.get(i))) {
-					totalDistance += instance.getDistance(instance.getTask(routeTasks.get(i-1)).getLocation(), instance.getTask(routeTasks.get(i)).getLocation());
-					travelTime += instance.getTravTime(instance.getTask(routeTasks.get(i-1)).getLocation(), instance.getTask(routeTasks.get(i)).getLocation());
-				} else {
-					totalDistance += instance.getDistance(instance.getTask(routeTasks.get(i-1)).getLocation(), instance.getCallback(routeTasks.get(i)).getLocation());
-					travelTime += instance.getTravTime(instance.getTask(routeTasks.get(i-1)).getLocation(), instance.getCallback(routeTasks.get(i)).getLocation());
-				}
-			} else {
-				if(instance.getTasks().containsKey(routeTasks.get(i))) {
-					totalDistance += instance.getDistance(instance.getCallback(routeTasks.get(i-1)).getLocation(), instance.getTask(routeTasks.get(i)).getLocation());
-					travelTime += instance.getTravTime(instance.getCallback(routeTasks.get(i-1)).getLocation(), instance.getTask(routeTasks.get(i)).getLocation());
-				} else {
-					totalDistance += instance.getDistance(instance.getCallback(routeTasks.get(i-1)).getLocation(), instance.getCallback(routeTasks.get(i)).getLocation());
-					travelTime += instance.getTravTime(instance.getCallback(routeTasks.get(i-1)).getLocation(), instance.getCallback(routeTasks.get(i)).getLocation());
-				}
+		return low;
+	}
+	
+	public int getDistanceAt(int position) {
+		return cumDistance[position];
+	}
+	
+	public int getTravelTimeAt(int position) {
+		return cumTravelTime[position];
+	}
+	
+	public int getWaitingTimeAt(int position) {
+		return cumWaitingTime[position];
+	}
+	
+	public int getWorkingTimeAt(int position) {
+		return cumWorkingTime[position];
+	}
+	
+	public int getLatestStart(int position) {
+		return latestStarts[position];
+	}
+	
+	public int getEarliestStart(int position) {
+		return earliestStarts[position];
+	}
+	
+//	Time the route reaches the position, before any waiting; the end of the route for size()
+	public int getArrivalTime(int position) {
+		if(position == size) return lastEndTime;
+		return startTimes[position] - cumWaitingTime[position] + (position > 0 ? cumWaitingTime[position-1] : 0);
+	}
+	
+//	Largest delay of the arrival at the position, 0..size(), that keeps the route feasible;
+//	negative if the route already breaks a time window or its capacity from there on
+	public int getForwardSlack(int position) {
+		if(slackModCount != modCount) {
+			if(forwardSlack == null || forwardSlack.length < routeTasks.length + 1)
+				forwardSlack = new int[routeTasks.length + 1];
+			forwardSlack[size] = capacityTime - lastEndTime;
+			for(int i = size - 1; i >= 0; i--) {
+				int wait = cumWaitingTime[i] - (i > 0 ? cumWaitingTime[i-1] : 0);
+				forwardSlack[i] = wait + Math.min(latestStarts[i] - startTimes[i], forwardSlack[i+1]);
 			}
-			
+			slackModCount = modCount;
 		}
-		waitingTime = totalTime - workingTime - travelTime;
+		return forwardSlack[position];
+	}
+	
+//	Engineer classes that can do every task of the route
+	public long getTaskCompatibility() {
+		return size == 0 ? Instance.ALL_RESOURCES : cumCompatibility[size-1];
+	}
+	
+//	Engineer classes the route can still go to: those that can do every task, and the
+//	class of its engineer once assigned
+	public long getCompatibility() {
+		return getTaskCompatibility() & assignedCompatibility;
+	}
+	
+	public long getAssignedCompatibility() {
+		return assignedCompatibility;
+	}
+	
+	public int getAssignedResource() {
+		return assignedResource;
+	}
+	
+//	Assigns the route to the engineer at the index in getResources(), or to none with -1
+	public void setAssignedResource(Instance instance, int resource) {
+		this.assignedResource = resource;
+		this.assignedCompatibility = resource < 0 ? Instance.ALL_RESOURCES : instance.getResourceBit(resource);
+	}
+	
+//	Whether the task can go at the position, 0..size(), waiting for its earliest start,
+//	with an engineer that can do it and without breaking its own time window, a later one
+//	or the capacity
+	public boolean canInsert(Instance instance, int position, int task) {
+		if((getCompatibility() & instance.getCompatibility(task)) == 0) return false;
+		if(assignedResource >= 0 && !instance.hasExactClasses() && !instance.isCompatible(task, assignedResource)) return false;
+		int location = instance.getLocation(task);
+		int arrival = position == 0 ? 0 : endTimes[position-1] + instance.getTravTime(locations[position-1], location);
+		int start = Math.max(arrival, instance.getEarliestStart(task));
+		if(start > instance.getLatestStart(task)) return false;
+		int end = start + instance.getDuration(task);
+		int next = position < size ? end + instance.getTravTime(location, locations[position]) : end;
+		return next - getArrivalTime(position) <= getForwardSlack(position);
+	}
+	
+//	Keeps positions 0..position and restores the route values as they were right after
+//	that position was added
+	public void truncate(int position) {
+		touch();
+		size = position + 1;
+		totalDistance = cumDistance[position];
+		travelTime = cumTravelTime[position];
+		waitingTime = cumWaitingTime[position];
+		workingTime = cumWorkingTime[position];
+		lastEndTime = endTimes[position];
+		updateTotalTime();
+		updateAvailableTime();
 	}
 	
 	
 	public void setTotalDistance(int totalDistance) {
+		touch();
 		this.totalDistance = totalDistance;
 	}
 
@@ -165,16 +360,19 @@ public class Route {
 
 
 	public void setWorkingTime(int workingTime) {
+		touch();
 		this.workingTime = workingTime;
 	}
 
 
 	public void setTravelTime(int travelTime) {
+		touch();
 		this.travelTime = travelTime;
 	}
 
 
 	public void setWaitingTime(int waitingTime) {
+		touch();
 		this.waitingTime = waitingTime;
 	}
 
@@ -186,43 +384,82 @@ public class Route {
 
 	public void setCapacityTime(int capacityTime) {
 		this.capacityTime = capacityTime;
+		this.slackModCount = -1;
 	}
 
-	public void setRouteTasks(ArrayList<Integer> newRoute) {
-		this.routeTasks = newRoute;
-	}
-
-	public void setStartTimes(ArrayList<Integer> startTimes) {
-		this.startTimes = startTimes;
+	public void setCollaborative(boolean collaborative) {
+		this.collaborative = collaborative;
 	}
 
 
-	public void setEndTimes(ArrayList<Integer> endTimes) {
-		this.endTimes = endTimes;
+	public void addTask(int task, int location, int distance, int travTime, int waitTime, int workTime) {
+		addTask(task, location, distance, travTime, waitTime, workTime, 0, Task.NO_DEADLINE, Instance.ALL_RESOURCES);
 	}
 	
-	public void setCollaborative(boolean collaborative) {
-		this.collaborative = collaborative;
+//	Appends the task waiting for its earliest start, with its time window and the engineers
+//	that can do it
+	public void addTask(Instance instance, int task, int distance, int travTime, int workTime) {
+		int waitTime = Math.max(instance.getEarliestStart(task) - lastEndTime - travTime, 0);
+		addTask(instance, task, distance, travTime, waitTime, workTime);
 	}
-
-
-	public int getRouteTask(int position) {
-		return this.routeTasks.get(position);
+	
+	public void addTask(Instance instance, int task, int distance, int travTime, int waitTime, int workTime) {
+		addTask(task, instance.getLocation(task), distance, travTime, waitTime, workTime, instance.getEarliestStart(task),
+				instance.getLatestStart(task), instance.getCompatibility(task));
 	}
-
-	public void addTask(int task, int distance, int travTime, int waitTime, int workTime) {
-		routeTasks.add(task);
-		startTimes.add(lastEndTime + travTime + waitTime);
-		endTimes.add(lastEndTime + travTime + waitTime + workTime);
-		updateValues(distance, travTime, waitTime, workTime);
+	
+//	Appends a task read from the Task itself, e.g. a generated callback that is not in the
+//	instance, waiting for its earliest start
+	public void addTask(Instance instance, Task task, int distance, int travTime) {
+		int waitTime = Math.max(task.getEarliestStart() - lastEndTime - travTime, 0);
+		addTask(task.getTaskID(), task.getLocation(), distance, travTime, waitTime, task.getDuration(),
+				task.getEarliestStart(), task.getLatestStart(), instance.getCompatibility(task));
 	}
 	
-	public void addStartTime(int time) {
-		this.startTimes.add(time);
+//	Appends the task at the position of the other route, with its duration, time window and
+//	engineer classes, waiting for its earliest start
+	public void addTask(Route route, int position, int distance, int travTime) {
+		int earliestStart = route.earliestStarts[position];
+		int waitTime = Math.max(earliestStart - lastEndTime - travTime, 0);
+		addTask(route.routeTasks[position], route.locations[position], distance, travTime, waitTime,
+				route.endTimes[position] - route.startTimes[position], earliestStart, route.latestStarts[position],
+				route.compatibilities[position]);
 	}
 	
-	public void addEndTime(int time) {
-		this.endTimes.add(time);
+	private void addTask(int task, int location, int distance, int travTime, int waitTime, int workTime, int earliestStart,
+			int latestStart, long compatibility) {
+		touch();
+		if(size == routeTasks.length) grow();
+		routeTasks[size] = task;
+		locations[size] = location;
+		startTimes[size] = lastEndTime + travTime + waitTime;
+		endTimes[size] = lastEndTime + travTime + waitTime + workTime;
+		updateValues(distance, travTime, waitTime, workTime);
+		cumDistance[size] = totalDistance;
+		cumTravelTime[size] = travelTime;
+		cumWaitingTime[size] = waitingTime;
+		cumWorkingTime[size] = workingTime;
+		latestStarts[size] = latestStart;
+		earliestStarts[size] = earliestStart;
+		compatibilities[size] = compatibility;
+		cumCompatibility[size] = compatibility & getTaskCompatibility();
+		size++;
+	}
+	
+	private void grow() {
+		int capacity = 2 * routeTasks.length;
+		routeTasks = Arrays.copyOf(routeTasks, capacity);
+		locations = Arrays.copyOf(locations, capacity);
+		startTimes = Arrays.copyOf(startTimes, capacity);
+		endTimes = Arrays.copyOf(endTimes, capacity);
+		cumDistance = Arrays.copyOf(cumDistance, capacity);
+		cumTravelTime = Arrays.copyOf(cumTravelTime, capacity);
+		cumWaitingTime = Arrays.copyOf(cumWaitingTime, capacity);
+		cumWorkingTime = Arrays.copyOf(cumWorkingTime, capacity);
+		latestStarts = Arrays.copyOf(latestStarts, capacity);
+		cumCompatibility = Arrays.copyOf(cumCompatibility, capacity);
+		earliestStarts = Arrays.copyOf(earliestStarts, capacity);
+		compatibilities = Arrays.copyOf(compatibilities, capacity);
 	}
 
 	
@@ -239,18 +476,22 @@ public class Route {
 	
 	
 	public void updateDistance(int distance) {
+		touch();
 		this.totalDistance += distance;
 	}
 	
 	public void updateTravelTime(int time) {
+		touch();
 		this.travelTime += time;
 	}
 	
 	public void updateWaitingTime(int time) {
+		touch();
 		this.waitingTime += time;
 	}
 		
 	public void updateWorkingTime(int time) {
+		touch();
 		this.workingTime += time;
 	}
 	
@@ -270,14 +511,75 @@ public class Route {
 	public boolean isCollaborative() {
 		return collaborative;
 	}
+	
+	private void touch() {
+		modCount++;
+		if(owner != null) {
+			owner.changed();
+			if(!dirty) {
+				dirty = true;
+				owner.markDirty(this);
+			}
+		}
+	}
+	
+	int getModCount() {
+		return modCount;
+	}
+	
+	Solution getOwner() {
+		return owner;
+	}
+	
+	void attach(Solution solution) {
+		if(owner != null)
+			throw new IllegalStateException("Route already belongs to a solution.");
+		owner = solution;
+		dirty = false;
+		reportedDistance = 0;
+		reportedTravelTime = 0;
+		reportedWaitingTime = 0;
+		reportedWorkingTime = 0;
+		reportedUsed = false;
+	}
+	
+	void detach() {
+		owner = null;
+		dirty = false;
+	}
+	
+//	Takes what was last reported back out of the solution's totals
+	void retract(Solution solution) {
+		solution.addToTotals(-reportedDistance, -reportedTravelTime, -reportedWaitingTime, -reportedWorkingTime,
+				reportedUsed ? -1 : 0);
+		reportedDistance = 0;
+		reportedTravelTime = 0;
+		reportedWaitingTime = 0;
+		reportedWorkingTime = 0;
+		reportedUsed = false;
+	}
+	
+//	Applies the change since the last report to the owner's totals
+	void report(Solution solution) {
+		solution.addToTotals(totalDistance - reportedDistance, travelTime - reportedTravelTime,
+				waitingTime - reportedWaitingTime, workingTime - reportedWorkingTime,
+				(size > 0 ? 1 : 0) - (reportedUsed ? 1 : 0));
+		reportedDistance = totalDistance;
+		reportedTravelTime = travelTime;
+		reportedWaitingTime = waitingTime;
+		reportedWorkingTime = workingTime;
+		reportedUsed = size > 0;
+		dirty = false;
+	}
 		
 	public boolean isRelated(Instance instance, Route route) {
 		boolean isRelated = false;
 		
-		for(Integer task : routeTasks) {
-			if(instance.getCollaborations().containsKey(task)) {
-				Integer supportTask = instance.getCollaborations().get(task);
-				if(route.getRouteTasks().contains(supportTask)) {
+		for(int i = 0; i < size; i++) {
+			int task = routeTasks[i];
+			if(instance.isCollaboration(task)) {
+				int supportTask = instance.getCollabPartner(task);
+				if(route.contains(supportTask)) {
 					isRelated = true;
 					break;
 				}
@@ -288,6 +590,7 @@ public class Route {
 	}
 	
 	public void clear() {
+		touch();
 		this.totalDistance = 0;
 		this.totalTime = 0;
 		this.workingTime = 0;
@@ -297,19 +600,17 @@ public class Route {
 		
 		this.lastEndTime = 0;
 			
-		this.routeTasks.clear();
-		this.startTimes.clear();;
-		this.endTimes.clear();;
+		this.size = 0;
 		
 		this.collaborative = false;
 	}
 	
 	public String toString() {
-		String route = "[";
-		for(int i = 0; i < routeTasks.size() - 1; i++)
-			route += routeTasks.get(i) + ", ";
-		route += routeTasks.get(routeTasks.size() - 1) + "]";
-		return route;
+		StringBuilder route = new StringBuilder("[");
+		for(int i = 0; i < size - 1; i++)
+			route.append(routeTasks[i]).append(", ");
+		route.append(routeTasks[size - 1]).append("]");
+		return route.toString();
 	}
 	
 	public String printRoute() {
@@ -1,82 +1,149 @@
 package solver;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Hashtable;
+import java.util.List;
 
 public class Solution {
 
+//	Running totals over all routes. Routes mark themselves dirty when they change and
+//	the totals are brought up to date from the dirty routes only, so queries are O(1)
+//	when nothing changed and O(changed routes) otherwise.
 	private int distanceCost;
 	private int timeCost;
 	private int waitingCost;
-	private int totalCost;
+	private int workingTime;
 	private int numberRoutes;
 	
 	private ArrayList<Route> routes;
+	private ArrayList<Route> dirtyRoutes;
+	private long modCount;
+	private PositionIndex positionIndex;
 	private int[][] resourceDayRoute;
 	Hashtable<Integer, ArrayList<Integer>> routesByDay;
+//	Inverse of resourceDayRoute: engineer and day of each route, -1 when not assigned
+	private int[] resourceOfRoute = new int[0];
+	private int[] dayOfRoute = new int[0];
+//	Tasks left out because they fit no engineer's shift
+	private ArrayList<Integer> unschedulableTasks = new ArrayList<Integer>();
 	
 	public Solution() {
-		this.distanceCost = 0;
-		this.timeCost = 0;
-		this.waitingCost = 0;
-		this.totalCost = 0;
-		this.numberRoutes = 0;
 		this.routes = new ArrayList<Route>();
+		this.dirtyRoutes = new ArrayList<Route>();
 		routesByDay = new Hashtable<Integer, ArrayList<Integer>>();
 	}
 	
 	public Solution(int maxRoutes, int capacityTime) {
-		this.distanceCost = 0;
-		this.timeCost = 0;
-		this.waitingCost = 0;
-		this.totalCost = 0;
-		this.numberRoutes = 0;
 		this.routes = new ArrayList<Route>(maxRoutes);
-		for(Route route : routes) route.setCapacityTime(capacityTime);
+		this.dirtyRoutes = new ArrayList<Route>();
 		routesByDay = new Hashtable<Integer, ArrayList<Integer>>();
 	}
 
+//	Deep copy: routes, the resource assignment and the routes by day can be changed
+//	without affecting the original solution
+	public Solution(Solution solution) {
+		this.routes = new ArrayList<Route>(solution.routes.size());
+		this.dirtyRoutes = new ArrayList<Route>();
+		for(Route route : solution.routes) addRoute(new Route(route));
+		
+		if(solution.resourceDayRoute != null) {
+			this.resourceDayRoute = new int[solution.resourceDayRoute.length][];
+			for(int i = 0; i < resourceDayRoute.length; i++)
+				this.resourceDayRoute[i] = solution.resourceDayRoute[i].clone();
+		}
+		this.resourceOfRoute = solution.resourceOfRoute.clone();
+		this.dayOfRoute = solution.dayOfRoute.clone();
+		this.unschedulableTasks = new ArrayList<Integer>(solution.unschedulableTasks);
+		
+		this.routesByDay = new Hashtable<Integer, ArrayList<Integer>>();
+		for(Integer day : solution.routesByDay.keySet())
+			this.routesByDay.put(day, new ArrayList<Integer>(solution.routesByDay.get(day)));
+	}
+
 	public int getDistanceCost() {
-		calcDistanceCost();
+		refresh();
 		return distanceCost;
 	}
 
 	public int getTimeCost() {
-		calcTimeCost();
+		refresh();
 		return timeCost;
 	}
 
 	public int getWaitingCost() {
-		calcWaitingCost();
+		refresh();
 		return waitingCost;
 	}
 	
 	public int getWorkingTime() {
-		int sum = 0;
-		for(Route route : routes) {
-			sum += route.getWorkingTime();
-		}
-		return sum;
+		refresh();
+		return workingTime;
 	}
 
 	public int getTotalCost() {
-		calcTotalCost();
-		return totalCost;
+		refresh();
+		return timeCost + waitingCost;
 	}
 	
 	public int getNumberRoutes() {
-		calcNumberRoutes();
+		refresh();
 		return numberRoutes;
 	}
 
-	public ArrayList<Route> getRoutes() {
-		return routes;
+//	Read-only view: routes are added through addRoute so their changes are tracked
+	public List<Route> getRoutes() {
+		return Collections.unmodifiableList(routes);
+	}
+	
+	public Route getRoute(int i) {
+		return routes.get(i);
+	}
+	
+	public int size() {
+		return routes.size();
+	}
+	
+	public void addRoute(Route route) {
+		modCount++;
+		route.attach(this);
+		routes.add(route);
+		route.report(this);
+	}
+	
+//	Puts a route, e.g. a repaired copy, in place of the route at the given index
+	public void replaceRoute(int index, Route route) {
+		refresh();
+		modCount++;
+		Route previous = routes.get(index);
+		previous.retract(this);
+		previous.detach();
+		route.attach(this);
+		routes.set(index, route);
+		route.report(this);
+	}
+	
+	public List<Integer> getUnschedulableTasks() {
+		return Collections.unmodifiableList(unschedulableTasks);
+	}
+	
+	public void addUnschedulableTask(int task) {
+		unschedulableTasks.add(task);
 	}
 	
 	public int[][] getResourceDayRoute() {
 		return resourceDayRoute;
 	}
 	
+	public int getResourceOf(int route) {
+		return route < resourceOfRoute.length ? resourceOfRoute[route] : -1;
+	}
+	
+	public int getDayOf(int route) {
+		return route < dayOfRoute.length ? dayOfRoute[route] : -1;
+	}
+	
 	public Hashtable<Integer, ArrayList<Integer>> getRoutesByDay() {
 		return routesByDay;
 	}
@@ -85,65 +152,94 @@ public class Solution {
 		return routesByDay.get(i);
 	}
 
-	public void setDistanceCost(int distanceCost) {
-		this.distanceCost = distanceCost;
-	}
-
-	public void setTimeCost(int timeCost) {
-		this.timeCost = timeCost;
-	}
-
-	public void setWaitingCost(int waitingCost) {
-		this.waitingCost = waitingCost;
-	}
-
-	public void setTotalCost(int totalCost) {
-		this.totalCost = totalCost;
-	}
-
 	public void setRoutes(ArrayList<Route> routes) {
-		this.routes = routes;
+		modCount++;
+		for(Route route : this.routes) route.detach();
+		this.routes = new ArrayList<Route>(routes.size());
+		this.dirtyRoutes.clear();
+		this.distanceCost = 0;
+		this.timeCost = 0;
+		this.waitingCost = 0;
+		this.workingTime = 0;
+		this.numberRoutes = 0;
+		for(Route route : routes) addRoute(route);
 	}
 	
 	public void setResourceDayRoute(int[][] resourceDayRoute) {
+		modCount++;
 		this.resourceDayRoute = resourceDayRoute;
+		resourceOfRoute = new int[routes.size()];
+		dayOfRoute = new int[routes.size()];
+		Arrays.fill(resourceOfRoute, -1);
+		Arrays.fill(dayOfRoute, -1);
+		if(resourceDayRoute == null) return;
+		for(int i = 0; i < resourceDayRoute.length; i++)
+			for(int j = 0; j < resourceDayRoute[i].length; j++)
+				if(resourceDayRoute[i][j] >= 0 && resourceDayRoute[i][j] < routes.size()) {
+					resourceOfRoute[resourceDayRoute[i][j]] = i;
+					dayOfRoute[resourceDayRoute[i][j]] = j;
+				}
+	}
+	
+//	Gives the route the engineer's slot on the day, in constant time. A route new to the day is
+//	added to its routes; a route moved from another slot of the day leaves that slot to the caller.
+	void assign(int resource, int day, int route) {
+		modCount++;
+		if(route >= resourceOfRoute.length) {
+			int length = Math.max(routes.size(), route + 1);
+			int from = resourceOfRoute.length;
+			resourceOfRoute = Arrays.copyOf(resourceOfRoute, length);
+			dayOfRoute = Arrays.copyOf(dayOfRoute, length);
+			Arrays.fill(resourceOfRoute, from, length, -1);
+			Arrays.fill(dayOfRoute, from, length, -1);
+		}
+		resourceDayRoute[resource][day] = route;
+		if(dayOfRoute[route] != day) {
+			if(!routesByDay.containsKey(day)) routesByDay.put(day, new ArrayList<Integer>());
+			routesByDay.get(day).add(route);
+		}
+		resourceOfRoute[route] = resource;
+		dayOfRoute[route] = day;
 	}
 	
 	public void setRoutesByDay(Hashtable<Integer, ArrayList<Integer>> routesByDay) {
+		modCount++;
 		this.routesByDay = routesByDay;
 	}
 	
-	private void calcDistanceCost() {
-		int sumDistance = 0;
-		for(int i = 0; i < routes.size(); i++)
-			sumDistance += routes.get(i).getTotalDistance();
-		this.distanceCost = sumDistance;
+	PositionIndex getPositionIndex() {
+		return positionIndex;
 	}
 	
-	private void calcTimeCost() {
-		int sumTime = 0;
-		for(int i = 0; i < routes.size(); i++)
-			sumTime += routes.get(i).getTravelTime();
-		this.timeCost = sumTime;
+	void setPositionIndex(PositionIndex positionIndex) {
+		this.positionIndex = positionIndex;
 	}
 	
-	private void calcWaitingCost() {
-		int sumWaiting = 0;
-		for(int i = 0; i < routes.size(); i++)
-			sumWaiting += routes.get(i).getWaitingTime();
-		this.waitingCost = sumWaiting;
+//	Changes to the routes or the route list so far
+	long getModCount() {
+		return modCount;
+	}
+	
+	void changed() {
+		modCount++;
+	}
+	
+	void markDirty(Route route) {
+		dirtyRoutes.add(route);
 	}
 	
-	private void calcTotalCost() {
-		this.totalCost = getTimeCost() + getWaitingCost();
+	void addToTotals(int distance, int travelTime, int waitingTime, int working, int usedRoutes) {
+		this.distanceCost += distance;
+		this.timeCost += travelTime;
+		this.waitingCost += waitingTime;
+		this.workingTime += working;
+		this.numberRoutes += usedRoutes;
 	}
 	
-	private void calcNumberRoutes() {
-		int numRoutes = 0;
-		for(Route route : routes) 
-			if(!route.getRouteTasks().isEmpty())
-				numRoutes++;
-		this.numberRoutes = numRoutes;
+	private void refresh() {
+		for(int i = 0; i < dirtyRoutes.size(); i++)
+			dirtyRoutes.get(i).report(this);
+		dirtyRoutes.clear();
 	}
 	
 	public void printSolution() {
@@ -156,5 +252,7 @@ public class Solution {
 		System.out.println("Waiting Time:\t" + getWaitingCost());
 		System.out.println("Total Cost:\t" + getTotalCost());
 		System.out.println("Routes:\t\t" + getNumberRoutes());
+		if(!unschedulableTasks.isEmpty())
+			System.out.println("Unschedulable:\t" + unschedulableTasks);
 	}
 }
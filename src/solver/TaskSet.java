@@ -0,0 +1,92 @@
+package solver;
+
+import java.util.ArrayList;
+
+/**
+ * Set of task IDs still to be scheduled. A bitset answers membership and a
+ * dense array with swap-remove gives O(1) removal and iteration over the
+ * remaining tasks. Iteration order is not preserved across removals; callers
+ * that need a fixed order keep their own ordering (e.g. tasksByDuration) and
+ * test membership here.
+ */
+public class TaskSet {
+
+	private final long[] bits;
+	private final int[] tasks;
+	private final int[] positions;
+	private int size;
+
+	public TaskSet(int idBound) {
+		this.bits = new long[(idBound + 63) >>> 6];
+		this.tasks = new int[idBound];
+		this.positions = new int[idBound];
+		this.size = 0;
+	}
+
+	public TaskSet(int idBound, Iterable<Integer> tasks) {
+		this(idBound);
+		for(int task : tasks) add(task);
+	}
+
+	public TaskSet(TaskSet other) {
+		this.bits = other.bits.clone();
+		this.tasks = other.tasks.clone();
+		this.positions = other.positions.clone();
+		this.size = other.size;
+	}
+
+	public boolean contains(int task) {
+		return task >= 0 && task < positions.length && (bits[task >>> 6] & (1L << task)) != 0;
+	}
+
+	public boolean add(int task) {
+		if(task < 0 || task >= positions.length)
+			throw new IllegalArgumentException("Task " + task + " is outside the ID range of this set.");
+		if(contains(task)) return false;
+
+		bits[task >>> 6] |= 1L << task;
+		tasks[size] = task;
+		positions[task] = size++;
+		return true;
+	}
+
+	public boolean remove(int task) {
+		if(!contains(task)) return false;
+
+		bits[task >>> 6] &= ~(1L << task);
+		int last = tasks[--size];
+		int position = positions[task];
+		tasks[position] = last;
+		positions[last] = position;
+		return true;
+	}
+
+	/** Returns the i-th remaining task, in no particular order. */
+	public int get(int i) {
+		return tasks[i];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		for(int i = 0; i < size; i++)
+			bits[tasks[i] >>> 6] = 0;
+		size = 0;
+	}
+
+	public ArrayList<Integer> toArrayList() {
+		ArrayList<Integer> list = new ArrayList<Integer>(size);
+		for(int i = 0; i < size; i++) list.add(tasks[i]);
+		return list;
+	}
+
+	public String toString() {
+		return toArrayList().toString();
+	}
+}
@@ -0,0 +1,113 @@
+package problem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CostMatrixTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// Text matrix over n locations, every cell given, with times from the function below
+	private File write(String name, int n, int offset) throws IOException {
+		File file = folder.newFile(name);
+		Writer out = new FileWriter(file);
+		try {
+			for(int i = 1; i <= n; i++)
+				for(int j = 1; j <= n; j++)
+					out.write(i + "\t" + j + "\t" + (100 * i + j) + "\t" + time(i - 1, j - 1, offset) + "\n");
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static int time(int i, int j, int offset) {
+		return i == j ? 0 : offset + 7 * i + j;
+	}
+
+	@Test
+	public void convertedMatrixIsSharedUntilConvertedAgain() throws IOException {
+		File text = write("matrix.txt", 5, 10);
+		File binary = new File(folder.getRoot(), "matrix.bin");
+		CostMatrixConverter.convert(text, binary);
+		CostMatrix first = CostMatrix.load(binary.getPath());
+		assertSame(first, CostMatrix.load(binary.getPath()));
+		assertEquals(time(1, 2, 10), first.getTravTime(1, 2));
+
+		CostMatrixConverter.convert(write("other.txt", 5, 20), binary);
+		CostMatrix second = CostMatrix.load(binary.getPath());
+		assertNotSame(first, second);
+		assertEquals(time(1, 2, 20), second.getTravTime(1, 2));
+		assertEquals(103, second.getDistance(0, 2));
+	}
+
+	@Test
+	public void missingCellsAreRejected() throws IOException {
+		File text = folder.newFile("missing.txt");
+		Writer out = new FileWriter(text);
+		try {
+			for(int i = 1; i <= 3; i++)
+				for(int j = 1; j <= 3; j++)
+					if(i != 2 || j != 3) out.write(i + "\t" + j + "\t1\t1\n");
+		} finally {
+			out.close();
+		}
+		File binary = new File(folder.getRoot(), "missing.bin");
+		try {
+			CostMatrixConverter.convert(text, binary);
+			fail("A matrix without the cell from 2 to 3 was converted.");
+		} catch(IOException e) {
+			assertEquals("No distance and travel time between 2 and 3 in " + text + ".", e.getMessage());
+		}
+		assertFalse(binary.exists());
+		assertEquals(1, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void travelTimesBeyond16BitsComeFromTheOverflowTable() throws IOException {
+		int n = 40;
+		int[] large = {CostMatrix.OVERFLOW - 1, CostMatrix.OVERFLOW, CostMatrix.OVERFLOW + 1, 100000, Integer.MAX_VALUE};
+		int[][] expected = new int[n][n];
+		File text = folder.newFile("large.txt");
+		Writer out = new FileWriter(text);
+		try {
+			// Lines in reverse order, so the overflow table has to be sorted by cell
+			for(int i = n; i >= 1; i--)
+				for(int j = n; j >= 1; j--) {
+					int cell = (i - 1) * n + j - 1;
+					expected[i - 1][j - 1] = cell % 7 == 3 ? large[cell % large.length] : cell % 500;
+					out.write(i + "\t" + j + "\t" + cell + "\t" + expected[i - 1][j - 1] + "\n");
+				}
+		} finally {
+			out.close();
+		}
+		File binary = new File(folder.getRoot(), "large.bin");
+		CostMatrixConverter.convert(text, binary);
+		CostMatrix matrix = CostMatrix.load(binary.getPath());
+
+		assertEquals(n, matrix.getLocations());
+		for(int i = 0; i < n; i++) {
+			assertArrayEquals(expected[i], matrix.getRowTimes(i));
+			int[] column = matrix.getColTimes(i);
+			for(int j = 0; j < n; j++) {
+				assertEquals(expected[i][j], matrix.getTravTime(i, j));
+				assertEquals(expected[j][i], column[j]);
+				assertEquals(i * n + j, matrix.getDistance(i, j));
+			}
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package problem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CsvInstanceReaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private void write(String prefix, String name, String... lines) throws IOException {
+		Writer out = new FileWriter(new File(prefix + "_" + name + ".csv"));
+		try {
+			for(String line : lines) out.write(line + "\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	@Test
+	public void epochSecondsMatchJavaTime() {
+		Random random = new Random(22);
+		for(int k = 0; k < 10000; k++) {
+			LocalDateTime time = LocalDateTime.of(1900 + random.nextInt(300), 1 + random.nextInt(12), 1, random.nextInt(24),
+					random.nextInt(60), random.nextInt(60)).plusDays(random.nextInt(31));
+			long expected = time.toEpochSecond(ZoneOffset.UTC);
+			String dashes = String.format("%04d-%02d-%02d %02d:%02d:%02d", time.getYear(), time.getMonthValue(),
+					time.getDayOfMonth(), time.getHour(), time.getMinute(), time.getSecond());
+			assertEquals(dashes, expected, CsvInstanceReader.epochSecond(dashes));
+			assertEquals(expected, CsvInstanceReader.epochSecond(dashes.replace('-', '.').replace(' ', '.').replace(':', '.')));
+		}
+		assertEquals(LocalDateTime.of(2012, 11, 5, 0, 0).toEpochSecond(ZoneOffset.UTC), CsvInstanceReader.epochSecond("2012-11-05"));
+	}
+
+	@Test
+	public void timestampsBecomeMinutesOfTheWorkingDays() throws IOException {
+		// Shifts on Friday 9 and Monday 12 November 2012, from 07:00
+		String prefix = new File(folder.getRoot(), "S").getPath();
+		write(prefix, "Parameters", "\"StartTime\",\"X2012.11.09.07.00.00\"");
+		write(prefix, "Resources", "\"Resource.ID\",\"Start\",\"Finish\",\"From\",\"To\",\"Skills\",\"Region\",\"Col8\",\"Hours\"",
+				"1,\"2012-11-09 07:00:00\",\"2012-11-09 15:00:00\",\"ANYWHERE\",\"ANYWHERE\",NA,NA,NA,8",
+				"1,\"2012-11-12 07:00:00\",\"2012-11-12 15:00:00\",\"ANYWHERE\",\"ANYWHERE\",NA,NA,NA,8");
+		String[] calls = {
+				"2012-11-09 07:45:00",	// 45 minutes into the first day
+				"2012-11-09 07:00:29",	// rounded down
+				"2012-11-09 07:00:30",	// rounded up
+				"2012-11-09 06:50:00",	// before the start of the day
+				"2012-11-10 10:00:00",	// Saturday: the start of Monday
+				"2012-11-12 08:00:00",	// Monday, the second working day
+				"2012-11-13 07:10:00",	// after the last shift: days go on counting
+				"2012-11-15 07:10:00" };
+		int[] expected = {45, 0, 1, -10, 1440, 1440 + 60, 2 * 1440 + 10, 4 * 1440 + 10};
+		String[] rows = new String[calls.length + 1];
+		rows[0] = "\"Job.ID\",\"Location\",\"Call.in.Time\",\"Due.Time\",\"Task.Duration\",\"Call.back.Type\"";
+		for(int c = 0; c < calls.length; c++)
+			rows[c + 1] = "\"C" + c + "\",1," + calls[c] + ",NA,30,\"same-day\"";
+		write(prefix, "Callbacks", rows);
+
+		Instance instance = CsvInstanceReader.read(prefix);
+		for(int c = 0; c < calls.length; c++)
+			assertEquals(calls[c], expected[c], instance.getCallback(c + 1).getTimeEvent());
+		Resource resource = instance.getResources().get(0);
+		assertArrayEquals(new int[] {0, 1440}, resource.getStartShift());
+		assertArrayEquals(new int[] {480, 1440 + 480}, resource.getEndShift());
+	}
+
+	@Test
+	public void repeatedJobsAreSkipped() throws IOException {
+		String prefix = new File(folder.getRoot(), "R").getPath();
+		write(prefix, "Resources", "\"Resource.ID\",\"Start\",\"Finish\",\"From\",\"To\",\"Skills\",\"Region\",\"Col8\",\"Hours\"",
+				"1,\"2012-11-09 07:00:00\",\"2012-11-09 15:00:00\",\"ANYWHERE\",\"ANYWHERE\",NA,NA,NA,8");
+		write(prefix, "Tasks", "\"Job.ID\",\"Location.ID\",\"Job.Type\",\"Early\",\"Late\",\"Duration\",\"Equipment\",\"Priority\"",
+				"\"M1\",1,NA,NA,NA,30,NA,NA",
+				"\"M2\",2,NA,NA,NA,40,NA,NA",
+				"\"M1\",3,NA,NA,NA,50,NA,NA");
+		write(prefix, "Callbacks", "\"Job.ID\",\"Location\",\"Call.in.Time\",\"Due.Time\",\"Task.Duration\",\"Call.back.Type\"",
+				"\"M2\",4,2012-11-09 08:00:00,NA,20,\"same-day\"",
+				"\"C1\",5,2012-11-09 09:00:00,NA,25,\"PIL\"");
+		write(prefix, "Incompatibility", "\"Job.ID\",\"Field.Technician.ID\"", "\"C1\",1");
+
+		Instance instance = CsvInstanceReader.read(prefix);
+		assertEquals(2, instance.getNumberTasks());
+		assertEquals(1, instance.getNumberCallbacks());
+		assertEquals(0, instance.getLocation(1));
+		assertEquals(30, instance.getDuration(1));
+		assertEquals(40, instance.getDuration(2));
+		assertEquals(3, instance.getCallbackID(0));
+		assertEquals(4, instance.getLocation(3));
+		// Without a StartTime parameter, days start at midnight
+		assertEquals(540, instance.getTimeEvent(3));
+		assertEquals(CsvInstanceReader.URGENT_CALLBACK_PRIORITY, instance.getPriority(3));
+		assertArrayEquals(new int[] {3, 1}, instance.getIncompatibilities().get(0));
+	}
+}
@@ -0,0 +1,177 @@
+package problem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import solver.Insertion;
+import solver.Route;
+import solver.Solution;
+
+public class InstanceTest {
+
+	private static final int DAYS = 2;
+	private static final int TASKS = 300;
+
+	static Instance instance(long[] skills, ArrayList<int[]> incompatibilities, long[] requiredSkills) {
+		return instance(DAYS, skills, incompatibilities, requiredSkills);
+	}
+
+	// Engineers with their own skills on one shift, and tasks spread over the first locations;
+	// the solver tests build their instances here too
+	public static Instance instance(int days, long[] skills, ArrayList<int[]> incompatibilities, long[] requiredSkills) {
+		int[] shift = new int[days];
+		Arrays.fill(shift, 480);
+		ArrayList<Resource> resources = new ArrayList<Resource>();
+		for(int r = 0; r < skills.length; r++) {
+			Resource resource = new Resource(r + 1, new int[days], shift.clone(), shift.clone(), 1);
+			resource.setSkills(skills[r]);
+			resource.setEquipment(-1L);
+			resources.add(resource);
+		}
+		ArrayList<Task> tasks = new ArrayList<Task>();
+		for(int t = 0; t < requiredSkills.length; t++) {
+			Task task = new Task(t, t % 60, 20 + t % 4 * 10, 1);
+			task.setRequiredSkills(requiredSkills[t]);
+			tasks.add(task);
+		}
+		return new Instance("test", Instance.DEFAULT_COST_MATRIX, resources, skills.length * days, 480, tasks,
+				new ArrayList<Task>(), new ArrayList<int[]>(), incompatibilities, new ArrayList<int[]>());
+	}
+
+	// What isCompatible must say, from the engineers and pairs themselves
+	static boolean expected(Instance instance, ArrayList<int[]> incompatibilities, int task, int resource) {
+		if((instance.getTask(task).getRequiredSkills() & ~instance.getResources().get(resource).getSkills()) != 0)
+			return false;
+		for(int[] pair : incompatibilities)
+			if(pair[0] == task && pair[1] == resource + 1) return false;
+		return true;
+	}
+
+	static void assertCompatibility(Instance instance, ArrayList<int[]> incompatibilities) {
+		for(int t = 0; t < instance.getNumberTasks(); t++) {
+			int task = instance.getTaskID(t);
+			for(int r = 0; r < instance.getResources().size(); r++) {
+				boolean expected = expected(instance, incompatibilities, task, r);
+				assertEquals("task " + task + ", engineer " + r, expected, instance.isCompatible(task, r));
+				if(expected)
+					assertTrue("class bits filter out task " + task + " for engineer " + r,
+							(instance.getCompatibility(task) & instance.getResourceBit(r)) != 0);
+			}
+		}
+	}
+
+	// Every route is mapped to an engineer who can do all its tasks
+	static void assertAssignment(Instance instance, Solution solution) {
+		int[][] matrix = solution.getResourceDayRoute();
+		int mapped = 0;
+		for(int r = 0; r < matrix.length; r++) {
+			for(int d = 0; d < matrix[r].length; d++) {
+				if(matrix[r][d] < 0) continue;
+				mapped++;
+				Route route = solution.getRoute(matrix[r][d]);
+				for(int p = 0; p < route.size(); p++)
+					assertTrue(instance.isCompatible(route.getRouteTask(p), r));
+			}
+		}
+		int routes = 0;
+		for(int r = 0; r < solution.size(); r++)
+			if(!solution.getRoute(r).isEmpty()) routes++;
+		assertEquals(routes, mapped);
+	}
+
+	@Test
+	public void moreThan64EngineersWithTheirOwnIncompatibleJobs() {
+		int engineers = 80;
+		long[] skills = new long[engineers];
+		ArrayList<int[]> incompatibilities = new ArrayList<int[]>();
+		for(int r = 0; r < engineers; r++) {
+			skills[r] = r % 2 == 0 ? 3L : 1L;
+			incompatibilities.add(new int[] {r, r + 1});
+			incompatibilities.add(new int[] {(r * 7) % TASKS, r + 1});
+		}
+		long[] required = new long[TASKS];
+		for(int t = 0; t < TASKS; t++) required[t] = t % 5 == 0 ? 2L : 1L;
+
+		Instance instance = instance(skills, incompatibilities, required);
+		assertFalse(instance.hasExactClasses());
+		assertCompatibility(instance, incompatibilities);
+
+		Insertion insertion = new Insertion(instance);
+		insertion.setVerbose(false);
+		assertAssignment(instance, insertion.solveByDistance());
+	}
+
+	@Test
+	public void moreThan64SkillSets() {
+		int engineers = 100;
+		long[] skills = new long[engineers];
+		for(int r = 0; r < engineers; r++)
+			skills[r] = r < 64 ? ~(1L << r) : ~((1L << (r - 64)) | (1L << (r - 63)));
+		long[] required = new long[TASKS];
+		for(int t = 0; t < TASKS; t++) required[t] = 1L << (t % 64);
+		ArrayList<int[]> incompatibilities = new ArrayList<int[]>();
+
+		Instance instance = instance(skills, incompatibilities, required);
+		assertFalse(instance.hasExactClasses());
+		assertCompatibility(instance, incompatibilities);
+
+		Insertion insertion = new Insertion(instance);
+		insertion.setVerbose(false);
+		assertAssignment(instance, insertion.solveByDistance());
+	}
+
+	@Test
+	public void fewSkillSetsGiveExactClasses() {
+		long[] skills = new long[100];
+		for(int r = 0; r < skills.length; r++) skills[r] = 1L | (r % 3 == 0 ? 2L : 0) | (r % 5 == 0 ? 4L : 0);
+		long[] required = new long[TASKS];
+		for(int t = 0; t < TASKS; t++) required[t] = t % 7 == 0 ? 6L : t % 3 == 0 ? 2L : 1L;
+		ArrayList<int[]> incompatibilities = new ArrayList<int[]>();
+
+		Instance instance = instance(skills, incompatibilities, required);
+		assertTrue(instance.hasExactClasses());
+		assertCompatibility(instance, incompatibilities);
+		for(int t = 0; t < instance.getNumberTasks(); t++)
+			for(int r = 0; r < skills.length; r++)
+				assertEquals(instance.isCompatible(instance.getTaskID(t), r),
+						(instance.getCompatibility(instance.getTaskID(t)) & instance.getResourceBit(r)) != 0);
+	}
+
+	@Test
+	public void tasksLongerThanAShiftAreRecordedAsUnschedulable() {
+		ArrayList<Resource> resources = new ArrayList<Resource>();
+		for(int r = 0; r < 3; r++)
+			resources.add(new Resource(r + 1, new int[DAYS], new int[] {480, 480}, new int[] {480, 480}, 1));
+		ArrayList<Task> tasks = new ArrayList<Task>();
+		for(int t = 0; t < 20; t++)
+			tasks.add(new Task(t, t % 10, t == 4 || t == 11 ? 600 : 30, 1));
+		Instance instance = new Instance("test", Instance.DEFAULT_COST_MATRIX, resources, 3 * DAYS, 480, tasks,
+				new ArrayList<Task>(), new ArrayList<int[]>(), new ArrayList<int[]>(), new ArrayList<int[]>());
+
+		Insertion insertion = new Insertion(instance);
+		insertion.setVerbose(false);
+		Solution byDistance = insertion.solveByDistance();
+		assertEquals(Arrays.asList(4, 11), byDistance.getUnschedulableTasks());
+		assertEquals(Arrays.asList(4, 11), new Solution(byDistance).getUnschedulableTasks());
+		assertEquals(2, insertion.solveByDuration().getUnschedulableTasks().size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void callbackWithTheIDOfATaskIsRejected() {
+		ArrayList<Resource> resources = new ArrayList<Resource>();
+		resources.add(new Resource(1, new int[] {0}, new int[] {480}, new int[] {480}, 1));
+		ArrayList<Task> tasks = new ArrayList<Task>();
+		tasks.add(new Task(0, 1, 30, 1));
+		tasks.add(new Task(1, 2, 30, 1));
+		ArrayList<Task> callbacks = new ArrayList<Task>();
+		callbacks.add(new Task(1, 3, 30, 1, 100));
+		new Instance("test", Instance.DEFAULT_COST_MATRIX, resources, 1, 480, tasks,
+				callbacks, new ArrayList<int[]>(), new ArrayList<int[]>(), new ArrayList<int[]>());
+	}
+}
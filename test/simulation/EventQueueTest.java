@@ -0,0 +1,82 @@
+package simulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class EventQueueTest {
+
+	// Events in the order they must come out: by time, then type, then first pushed
+	private static void sortByKey(ArrayList<Event> events, final ArrayList<Event> pushed) {
+		Collections.sort(events, new Comparator<Event>() {
+			public int compare(Event a, Event b) {
+				if(a.time != b.time) return Integer.compare(a.time, b.time);
+				if(a.type != b.type) return Integer.compare(a.type, b.type);
+				return Integer.compare(pushed.indexOf(a), pushed.indexOf(b));
+			}
+		});
+	}
+
+	// Pushes and polls at random against a list kept in order, from the given sequence number
+	private static void checkAgainstSortedList(long sequence, long seed) {
+		Random random = new Random(seed);
+		EventQueue queue = new EventQueue(sequence);
+		ArrayList<Event> pushed = new ArrayList<Event>();
+		ArrayList<Event> expected = new ArrayList<Event>();
+		for(int step = 0; step < 3000; step++) {
+			if(expected.isEmpty() || random.nextInt(3) > 0) {
+				Event event = new Event();
+				event.time = random.nextInt(50);
+				event.type = random.nextInt(EventQueue.MAX_TYPE + 1);
+				pushed.add(event);
+				expected.add(event);
+				queue.push(event);
+				sortByKey(expected, pushed);
+			} else {
+				assertSame(expected.get(0), queue.peek());
+				assertSame(expected.remove(0), queue.poll());
+			}
+			assertEquals(expected.size(), queue.size());
+		}
+		while(!expected.isEmpty())
+			assertSame(expected.remove(0), queue.poll());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void eventsComeOutByTimeTypeAndInsertionOrder() {
+		checkAgainstSortedList(0, 13);
+	}
+
+	@Test
+	public void orderIsKeptAcrossTheSequenceWrap() {
+		// The queue renumbers its events after the 4th push and keeps counting from there
+		checkAgainstSortedList((1L << 32) - 4, 17);
+	}
+
+	@Test
+	public void equalEventsPushedAroundTheWrapStayFirstInFirstOut() {
+		EventQueue queue = new EventQueue((1L << 32) - 2);
+		ArrayList<Event> events = new ArrayList<Event>();
+		for(int i = 0; i < 6; i++) {
+			Event event = queue.obtain(Event.TASK_COMPLETION, 100);
+			events.add(event);
+			queue.push(event);
+		}
+		for(Event event : events)
+			assertSame(event, queue.poll());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void timesBeyondTheKeyAreRejected() {
+		EventQueue queue = new EventQueue();
+		queue.push(queue.obtain(Event.SHIFT_START, EventQueue.MAX_TIME + 1));
+	}
+}
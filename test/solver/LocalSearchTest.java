@@ -0,0 +1,89 @@
+package solver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import problem.Instance;
+
+public class LocalSearchTest {
+
+	// Improves the distance and duration constructions of the scenario to a local optimum one
+	// move at a time, checking each move against the routes themselves rather than the prefix
+	// sums the move was evaluated on
+	static void assertImproves(String instanceFile) {
+		Instance instance = new Instance(instanceFile);
+		Insertion insertion = new Insertion(instance);
+		insertion.setVerbose(false);
+		LocalSearch localSearch = new LocalSearch(instance);
+		for(Solution solution : new Solution[] { insertion.solveByDistance(), insertion.solveByDuration() }) {
+			int[] scheduled = scheduled(instance, solution);
+			boolean[] withinCapacity = new boolean[solution.size()];
+			for(int r = 0; r < solution.size(); r++)
+				withinCapacity[r] = solution.getRoute(r).getTotalTime() <= solution.getRoute(r).getCapacityTime();
+
+			int moves = 0;
+			int cost = solution.getTotalCost();
+			while(localSearch.improve(solution, 60000, 1) == 1) {
+				moves++;
+				assertTrue(instanceFile + ": move " + moves + " took the cost from " + cost + " to " + solution.getTotalCost(),
+						solution.getTotalCost() < cost);
+				cost = solution.getTotalCost();
+				assertArrayEquals(scheduled, scheduled(instance, solution));
+				for(int r = 0; r < solution.size(); r++) {
+					Route route = solution.getRoute(r);
+					assertConsistent(instance, route);
+					if(withinCapacity[r])
+						assertTrue(instanceFile + ": route " + r + " exceeds its capacity",
+								route.getTotalTime() <= route.getCapacityTime());
+				}
+			}
+			assertTrue(instanceFile + ": no move applied", moves > 0);
+		}
+	}
+
+	// How often each task is scheduled: once, but collaborations are in the route of each engineer
+	static int[] scheduled(Instance instance, Solution solution) {
+		int[] seen = new int[instance.getIDBound()];
+		for(int r = 0; r < solution.size(); r++)
+			for(int p = 0; p < solution.getRoute(r).size(); p++)
+				seen[solution.getRoute(r).getRouteTask(p)]++;
+		for(int task : solution.getUnschedulableTasks())
+			seen[task]++;
+		for(int t = 0; t < instance.getNumberTasks(); t++) {
+			int task = instance.getTaskID(t);
+			if(instance.isCollaboration(task)) assertTrue("task " + task, seen[task] >= 1);
+			else assertEquals("task " + task, 1, seen[task]);
+		}
+		return seen;
+	}
+
+	// Travel times between consecutive tasks match the matrix and the totals add up
+	static void assertConsistent(Instance instance, Route route) {
+		int work = 0;
+		for(int p = 0; p < route.size(); p++) {
+			assertEquals(instance.getLocation(route.getRouteTask(p)), route.getLocation(p));
+			if(p > 0)
+				assertEquals(instance.getTravTime(route.getLocation(p - 1), route.getLocation(p)),
+						route.getTravelTimeAt(p) - route.getTravelTimeAt(p - 1));
+			work += instance.getDuration(route.getRouteTask(p));
+		}
+		if(route.isEmpty()) return;
+		assertEquals(route.getTravelTimeAt(route.size() - 1), route.getTravelTime());
+		assertEquals(work, route.getWorkingTime());
+		assertEquals(route.getTravelTime() + route.getWaitingTime() + route.getWorkingTime(), route.getTotalTime());
+	}
+
+	@Test
+	public void maintenanceScenarios() {
+		assertImproves("instances/scenario1.txt");
+		assertImproves("instances/scenario2.txt");
+	}
+
+	@Test
+	public void collaborationScenario() {
+		assertImproves("instances/scenario5.txt");
+	}
+}
@@ -0,0 +1,94 @@
+package solver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import problem.Instance;
+
+public class PreprocessingTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void sharedPerInstanceAndNeighbours() {
+		Instance instance = new Instance("instances/scenario1.txt");
+		assertSame(Preprocessing.of(instance), Preprocessing.of(instance));
+		assertSame(Preprocessing.of(instance, 10), Preprocessing.of(instance, 10));
+	}
+
+	@Test
+	public void concurrentCallersGetTheSamePreprocessing() throws Exception {
+		final Instance instance = new Instance("instances/scenario2.txt");
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Preprocessing>> results = new ArrayList<Future<Preprocessing>>();
+			for(int i = 0; i < 8; i++)
+				results.add(pool.submit(new Callable<Preprocessing>() {
+					public Preprocessing call() {
+						return Preprocessing.of(instance, 16);
+					}
+				}));
+			for(Future<Preprocessing> result : results)
+				assertSame(results.get(0).get(), result.get());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsThePreprocessingOfAnotherInstance() {
+		Instance instance = new Instance("instances/scenario1.txt");
+		Instance other = new Instance("instances/scenario1.txt");
+		new Insertion(other, Preprocessing.of(instance));
+	}
+
+	@Test
+	public void locationsByDemandKeepTheOrderOfTheSelectionScan() {
+		// The previous selection scan: the most tasks first, the last such location on ties
+		Instance instance = new Instance("instances/scenario3.txt");
+		int n = instance.getLocations();
+		int[] counts = new int[n];
+		for(int t = 0; t < instance.getNumberTasks(); t++) counts[instance.getLocation(instance.getTaskID(t))]++;
+		int[] expected = new int[n];
+		boolean[] selected = new boolean[n];
+		for(int i = 0; i < n; i++) {
+			int max = -1;
+			for(int j = 0; j < n; j++)
+				if(!selected[j] && (max == -1 || counts[j] >= counts[max])) max = j;
+			expected[i] = max;
+			selected[max] = true;
+		}
+		assertArrayEquals(expected, Preprocessing.of(instance).getLocationsByDemand());
+	}
+
+	@Test
+	public void truncatedRankingFileIsRecomputed() throws Exception {
+		File file = new File(folder.getRoot(), "rankings.bin");
+		Preprocessing saved = Preprocessing.of(new Instance("instances/scenario1.txt"), file.getPath());
+		long length = file.length();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(length - 4);
+		} finally {
+			raf.close();
+		}
+		Preprocessing read = Preprocessing.of(new Instance("instances/scenario1.txt"), file.getPath());
+		assertEquals(length, file.length());
+		assertArrayEquals(saved.getNearestDist().rows(), read.getNearestDist().rows());
+	}
+}
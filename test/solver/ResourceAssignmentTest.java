@@ -0,0 +1,148 @@
+package solver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import problem.Instance;
+import problem.InstanceTest;
+
+public class ResourceAssignmentTest {
+
+	// Solution with one single-task route per task
+	private static Solution routes(Instance instance, int tasks) {
+		Solution solution = new Solution();
+		for(int t = 0; t < tasks; t++) {
+			Route route = new Route(instance.getShiftDuration());
+			route.addTask(instance, t, 0, 0, instance.getDuration(t));
+			solution.addRoute(route);
+		}
+		return solution;
+	}
+
+	private static boolean canDo(Instance instance, int resource, Route route) {
+		for(int p = 0; p < route.size(); p++)
+			if(!instance.isCompatible(route.getRouteTask(p), resource)) return false;
+		return true;
+	}
+
+	// Size of a maximum matching of the routes to the engineers of one day, by Kuhn's algorithm
+	private static int maximumMatching(Instance instance, Solution solution) {
+		int resources = instance.getResources().size();
+		int[] routeOf = new int[resources];
+		Arrays.fill(routeOf, -1);
+		int matched = 0;
+		for(int r = 0; r < solution.size(); r++)
+			if(match(instance, solution, r, routeOf, new boolean[resources])) matched++;
+		return matched;
+	}
+
+	private static boolean match(Instance instance, Solution solution, int route, int[] routeOf, boolean[] visited) {
+		for(int i = 0; i < routeOf.length; i++) {
+			if(visited[i] || !canDo(instance, i, solution.getRoute(route))) continue;
+			visited[i] = true;
+			if(routeOf[i] < 0 || match(instance, solution, routeOf[i], routeOf, visited)) {
+				routeOf[i] = route;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Every route is either mapped once, to an engineer who can do it, or reported
+	private static void assertMapping(Instance instance, Solution solution, ArrayList<Integer> unassigned) {
+		int[][] matrix = solution.getResourceDayRoute();
+		int[] mapped = new int[solution.size()];
+		for(int i = 0; i < matrix.length; i++)
+			for(int d = 0; d < matrix[i].length; d++)
+				if(matrix[i][d] >= 0) {
+					mapped[matrix[i][d]]++;
+					assertTrue(canDo(instance, i, solution.getRoute(matrix[i][d])));
+					assertEquals(i, solution.getRoute(matrix[i][d]).getAssignedResource());
+				}
+		for(int r = 0; r < solution.size(); r++)
+			assertEquals("route " + r, unassigned.contains(r) ? 0 : 1, mapped[r]);
+	}
+
+	@Test
+	public void routeTakesTheEngineerOfAnEarlierRouteThatCanMove() {
+		// The first engineer can do both skills and takes the first route; the second route
+		// needs that engineer, so the first moves to the second engineer
+		Instance instance = InstanceTest.instance(1, new long[] {3L, 1L}, new ArrayList<int[]>(), new long[] {1L, 2L});
+		Solution solution = routes(instance, 2);
+		ArrayList<Integer> unassigned = new ResourceAssignment(instance).assign(solution);
+
+		assertTrue(unassigned.isEmpty());
+		assertEquals(1, solution.getResourceDayRoute()[0][0]);
+		assertEquals(0, solution.getResourceDayRoute()[1][0]);
+		assertMapping(instance, solution, unassigned);
+	}
+
+	@Test
+	public void oneDayMapsAsManyRoutesAsAMaximumMatching() {
+		Random random = new Random(25);
+		for(int k = 0; k < 200; k++) {
+			int engineers = 2 + random.nextInt(8);
+			long[] skills = new long[engineers];
+			for(int r = 0; r < engineers; r++) skills[r] = 1L | random.nextInt(16) << 1;
+			int tasks = 1 + random.nextInt(engineers + 3);
+			long[] required = new long[tasks];
+			for(int t = 0; t < tasks; t++) required[t] = 1L << random.nextInt(5);
+
+			Instance instance = InstanceTest.instance(1, skills, new ArrayList<int[]>(), required);
+			Solution solution = routes(instance, tasks);
+			ArrayList<Integer> unassigned = new ResourceAssignment(instance).assign(solution);
+			assertMapping(instance, solution, unassigned);
+			assertEquals(maximumMatching(instance, solution), tasks - unassigned.size());
+		}
+	}
+
+	@Test
+	public void withEveryEngineerForEveryRouteTheRosterFillsSlotBySlot() {
+		// As the mapping did before the matching: each route to the first engineer with a
+		// free day, on the first such day
+		int engineers = 4, days = 3, tasks = 10;
+		long[] skills = new long[engineers];
+		Arrays.fill(skills, 1L);
+		long[] required = new long[tasks];
+		Arrays.fill(required, 1L);
+		Instance instance = InstanceTest.instance(days, skills, new ArrayList<int[]>(), required);
+		Solution solution = routes(instance, tasks);
+		assertTrue(new ResourceAssignment(instance).assign(solution).isEmpty());
+
+		for(int r = 0; r < tasks; r++)
+			assertEquals(r, solution.getResourceDayRoute()[r / days][r % days]);
+	}
+
+	@Test
+	public void laterRouteIsMappedByMovingAnAssignedRoute() {
+		Instance instance = InstanceTest.instance(2, new long[] {3L, 1L}, new ArrayList<int[]>(), new long[] {1L, 2L});
+		Solution solution = routes(instance, 1);
+		ResourceAssignment assignment = new ResourceAssignment(instance);
+		assertTrue(assignment.assign(solution).isEmpty());
+		assertEquals(0, solution.getResourceDayRoute()[0][0]);
+
+		Route route = new Route(instance.getShiftDuration());
+		route.addTask(instance, 1, 0, 0, instance.getDuration(1));
+		solution.addRoute(route);
+		assertEquals(0, assignment.assign(solution, 1, 0));
+		assertEquals(1, solution.getResourceDayRoute()[0][0]);
+		assertEquals(0, solution.getResourceDayRoute()[1][0]);
+		assertEquals(1, solution.getRoute(0).getAssignedResource());
+		assertEquals(0, solution.getRoute(1).getAssignedResource());
+	}
+
+	@Test
+	public void routesNoEngineerIsLeftForAreReturned() {
+		Instance instance = InstanceTest.instance(1, new long[] {1L, 1L}, new ArrayList<int[]>(), new long[] {1L, 2L, 1L, 1L});
+		Solution solution = routes(instance, 4);
+		ArrayList<Integer> unassigned = new ResourceAssignment(instance).assign(solution);
+		assertEquals(Arrays.asList(1, 3), unassigned);
+		assertMapping(instance, solution, unassigned);
+	}
+}
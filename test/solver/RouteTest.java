@@ -0,0 +1,152 @@
+package solver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import problem.Instance;
+import problem.Task;
+
+public class RouteTest {
+
+	// Route of the given length with random travel, waiting and working times, some of them zero
+	static Route route(Random random, int size) {
+		Route route = new Route(480);
+		for(int i = 0; i < size; i++)
+			route.addTask(i + 10, i % 7, random.nextInt(50), random.nextInt(3) == 0 ? 0 : random.nextInt(30),
+					random.nextInt(3) == 0 ? 0 : random.nextInt(20), random.nextInt(5) == 0 ? 0 : 1 + random.nextInt(60));
+		return route;
+	}
+
+	// Lookup by scanning the positions in order, as the route did before the binary search
+	static int scan(Route route, int time) {
+		int[] starts = route.getStartTimes();
+		int[] ends = route.getEndTimes();
+		int last = route.size() - 1;
+		for(int i = 0; i <= last; i++) {
+			if(time >= starts[i] && time <= ends[i]) return route.getRouteTask(i);
+			else if(time >= ends[last]) return route.getRouteTask(last);
+			else if(time >= ends[i] && time <= starts[i + 1]) return route.getRouteTask(i);
+			else if(time <= starts[0]) return route.getRouteTask(0);
+		}
+		return route.getRouteTask(0);
+	}
+
+	@Test
+	public void taskAtTimeMatchesTheLinearScan() {
+		Random random = new Random(7);
+		for(int size = 1; size <= 20; size++) {
+			for(int k = 0; k < 20; k++) {
+				Route route = route(random, size);
+				for(int time = -5; time <= route.getLastEndTime() + 5; time++)
+					assertEquals("time " + time + " in " + route, scan(route, time), route.getTaskAtTime(time));
+			}
+		}
+	}
+
+	// Values of the route made of the first tasks of another, added one by one
+	static Route prefix(Route route, int position) {
+		Route prefix = new Route(route.getCapacityTime());
+		for(int i = 0; i <= position; i++)
+			prefix.addTask(route.getRouteTask(i), route.getLocation(i), route.getDistanceAt(i) - (i > 0 ? route.getDistanceAt(i - 1) : 0),
+					route.getTravelTimeAt(i) - (i > 0 ? route.getTravelTimeAt(i - 1) : 0),
+					route.getWaitingTimeAt(i) - (i > 0 ? route.getWaitingTimeAt(i - 1) : 0),
+					route.getEndTime(i) - route.getStartTime(i));
+		return prefix;
+	}
+
+	@Test
+	public void prefixSumsAndTruncateMatchTheRouteBuiltUpToEachPosition() {
+		Random random = new Random(9);
+		for(int size = 1; size <= 20; size++) {
+			Route route = route(random, size);
+			int distance = 0, travel = 0, waiting = 0, working = 0;
+			for(int p = 0; p < size; p++) {
+				distance += route.getDistanceAt(p) - (p > 0 ? route.getDistanceAt(p - 1) : 0);
+				travel += route.getArrivalTime(p) - (p > 0 ? route.getEndTime(p - 1) : 0);
+				waiting += route.getStartTime(p) - route.getArrivalTime(p);
+				working += route.getEndTime(p) - route.getStartTime(p);
+				assertEquals(travel, route.getTravelTimeAt(p));
+				assertEquals(waiting, route.getWaitingTimeAt(p));
+				assertEquals(working, route.getWorkingTimeAt(p));
+
+				Route truncated = new Route(route);
+				truncated.truncate(p);
+				assertSameValues(prefix(route, p), truncated);
+			}
+			assertEquals(route.getTotalDistance(), distance);
+			assertEquals(route.getTravelTime(), travel);
+			assertEquals(route.getWaitingTime(), waiting);
+			assertEquals(route.getWorkingTime(), working);
+
+			// A truncated route carries on as if the later tasks had never been added
+			Route truncated = new Route(route);
+			truncated.truncate(random.nextInt(size));
+			Route built = new Route(truncated);
+			truncated.addTask(99, 3, 17, 11, 5, 23);
+			built.addTask(99, 3, 17, 11, 5, 23);
+			assertSameValues(built, truncated);
+		}
+	}
+
+	private static void assertSameValues(Route expected, Route route) {
+		assertEquals(expected.size(), route.size());
+		assertEquals(expected.getTotalDistance(), route.getTotalDistance());
+		assertEquals(expected.getTravelTime(), route.getTravelTime());
+		assertEquals(expected.getWaitingTime(), route.getWaitingTime());
+		assertEquals(expected.getWorkingTime(), route.getWorkingTime());
+		assertEquals(expected.getTotalTime(), route.getTotalTime());
+		assertEquals(expected.getAvailableTime(), route.getAvailableTime());
+		assertEquals(expected.getLastEndTime(), route.getLastEndTime());
+		for(int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.getRouteTask(i), route.getRouteTask(i));
+			assertEquals(expected.getStartTime(i), route.getStartTime(i));
+			assertEquals(expected.getEndTime(i), route.getEndTime(i));
+		}
+	}
+
+	// Whether the route still keeps every time window and its capacity with the arrival at
+	// the position delayed, replaying the tasks from there on one by one
+	static boolean feasibleWithDelay(Route route, int position, int delay) {
+		int time = route.getArrivalTime(position) + delay;
+		for(int i = position; i < route.size(); i++) {
+			int start = Math.max(time, route.getEarliestStart(i));
+			if(start > route.getLatestStart(i)) return false;
+			int end = start + route.getEndTime(i) - route.getStartTime(i);
+			time = end + (i + 1 < route.size() ? route.getArrivalTime(i + 1) - route.getEndTime(i) : 0);
+		}
+		return time <= route.getCapacityTime();
+	}
+
+	@Test
+	public void forwardSlackIsTheLargestFeasibleDelay() {
+		Instance instance = new Instance("instances/scenario1.txt");
+		Random random = new Random(11);
+		for(int k = 0; k < 200; k++) {
+			Route route = new Route(480);
+			int size = 1 + random.nextInt(12);
+			for(int i = 0; i < size; i++) {
+				int travel = random.nextInt(30);
+				int arrival = route.getLastEndTime() + travel;
+				Task task = new Task(100000 + i, i, 10 + random.nextInt(40), 1);
+				if(random.nextBoolean()) {
+					task.setEarliestStart(arrival + random.nextInt(3) * random.nextInt(40));
+					task.setLatestStart(Math.max(task.getEarliestStart(), arrival) + random.nextInt(60));
+				}
+				if(Math.max(arrival, task.getEarliestStart()) + task.getDuration() > 480) break;
+				route.addTask(instance, task, travel, travel);
+			}
+			if(random.nextInt(4) == 0) route.truncate(random.nextInt(route.size()));
+
+			for(int p = 0; p <= route.size(); p++) {
+				int slack = route.getForwardSlack(p);
+				assertTrue(feasibleWithDelay(route, p, slack));
+				assertFalse(feasibleWithDelay(route, p, slack + 1));
+			}
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package solver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TaskSetTest {
+
+	private static final int BOUND = 200;
+
+	// The set holds exactly the expected tasks, each once, whatever their order
+	private static void assertSameTasks(LinkedHashSet<Integer> expected, TaskSet set) {
+		assertEquals(expected.size(), set.size());
+		assertEquals(expected.isEmpty(), set.isEmpty());
+		ArrayList<Integer> tasks = new ArrayList<Integer>();
+		for(int i = 0; i < set.size(); i++) tasks.add(set.get(i));
+		Collections.sort(tasks);
+		ArrayList<Integer> sorted = new ArrayList<Integer>(expected);
+		Collections.sort(sorted);
+		assertEquals(sorted, tasks);
+		for(int task = -1; task <= BOUND; task++)
+			assertEquals("task " + task, expected.contains(task), set.contains(task));
+	}
+
+	@Test
+	public void swapRemoveKeepsTheSameTasksAsAList() {
+		Random random = new Random(5);
+		TaskSet set = new TaskSet(BOUND);
+		LinkedHashSet<Integer> expected = new LinkedHashSet<Integer>();
+		for(int step = 0; step < 5000; step++) {
+			int task = random.nextInt(BOUND);
+			if(random.nextInt(3) == 0)
+				assertEquals(expected.add(task), set.add(task));
+			else
+				assertEquals(expected.remove(task), set.remove(task));
+			if(step % 100 == 0) assertSameTasks(expected, set);
+		}
+		assertSameTasks(expected, set);
+	}
+
+	@Test
+	public void removingEveryTaskInAnyOrderEmptiesTheSet() {
+		ArrayList<Integer> tasks = new ArrayList<Integer>();
+		for(int task = 0; task < BOUND; task += 3) tasks.add(task);
+		TaskSet set = new TaskSet(BOUND, tasks);
+		LinkedHashSet<Integer> expected = new LinkedHashSet<Integer>(tasks);
+		assertEquals(tasks, set.toArrayList());
+
+		Collections.shuffle(tasks, new Random(7));
+		for(int task : tasks) {
+			assertTrue(set.remove(task));
+			assertFalse(set.remove(task));
+			expected.remove(task);
+			assertSameTasks(expected, set);
+		}
+		assertTrue(set.isEmpty());
+	}
+
+	@Test
+	public void copiesAndClearedSetsAreIndependent() {
+		TaskSet set = new TaskSet(BOUND, Arrays.asList(1, 64, 65, 130, 199));
+		TaskSet copy = new TaskSet(set);
+		set.remove(64);
+		set.clear();
+		assertSameTasks(new LinkedHashSet<Integer>(Arrays.asList(1, 64, 65, 130, 199)), copy);
+		assertSameTasks(new LinkedHashSet<Integer>(), set);
+		assertTrue(set.add(130));
+		assertSameTasks(new LinkedHashSet<Integer>(Arrays.asList(130)), set);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void tasksOutsideTheBoundAreRejected() {
+		new TaskSet(BOUND).add(BOUND);
+	}
+}